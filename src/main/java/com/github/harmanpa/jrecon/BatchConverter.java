@@ -0,0 +1,436 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 CyDesign Limited
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.harmanpa.jrecon;
+
+import com.github.harmanpa.jrecon.exceptions.ReconException;
+import com.google.common.hash.Hashing;
+import com.google.common.io.MoreFiles;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Converts many walls, and Dymola dsres.mat files, to melds concurrently. The
+ * inputs are given as files, directories, searched recursively, or glob
+ * patterns. Outputs which are up to date are skipped, judged by modification
+ * time or, when hashing, by a hash of the input recorded in the meld's meta.
+ * The pool is a work stealing pool sized to the processors available and to
+ * how many of the largest inputs fit within the memory budget. Each
+ * conversion writes to a temporary file which is then moved into place, so
+ * an interrupted batch never leaves an output which looks up to date.
+ *
+ * @author pete
+ */
+public class BatchConverter {
+
+    /**
+     * The key of the file meta holding the hash of the input
+     */
+    public static final String SOURCE_HASH = "sourceHash";
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private long memoryBudget = Runtime.getRuntime().maxMemory() / 2;
+    private File outputDirectory;
+    private boolean compressed;
+    private boolean hash;
+    private boolean force;
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Sets the memory, in bytes, that concurrent conversions may use, assuming
+     * each needs twice the size of its input
+     *
+     * @param memoryBudget
+     */
+    public void setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    public File getOutputDirectory() {
+        return outputDirectory;
+    }
+
+    /**
+     * Sets the directory to write melds to, keeping the paths of inputs found
+     * in a directory relative to it. By default melds are written next to
+     * their inputs.
+     *
+     * @param outputDirectory
+     */
+    public void setOutputDirectory(File outputDirectory) {
+        this.outputDirectory = outputDirectory;
+    }
+
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    public void setCompressed(boolean compressed) {
+        this.compressed = compressed;
+    }
+
+    public boolean isHash() {
+        return hash;
+    }
+
+    /**
+     * Sets whether outputs are up to date when they record the hash of their
+     * input, rather than when they are newer than it
+     *
+     * @param hash
+     */
+    public void setHash(boolean hash) {
+        this.hash = hash;
+    }
+
+    public boolean isForce() {
+        return force;
+    }
+
+    /**
+     * Sets whether to convert every input, even those up to date
+     *
+     * @param force
+     */
+    public void setForce(boolean force) {
+        this.force = force;
+    }
+
+    /**
+     * Finds the inputs matching files, directories or glob patterns, mapped to
+     * their outputs. Directories and globs only yield walls and dsres.mat
+     * files, so never melds already written.
+     *
+     * @param patterns
+     * @return
+     * @throws IOException if a file does not exist, or two inputs would be
+     * converted to the same output
+     */
+    public Map<File, File> find(List<String> patterns) throws IOException {
+        Map<File, File> out = new LinkedHashMap<>();
+        for (String pattern : patterns) {
+            int glob = indexOfGlob(pattern);
+            if (glob < 0) {
+                File file = new File(pattern);
+                if (file.isDirectory()) {
+                    for (Path path : walk(file.toPath(), path -> isInput(path.toFile()))) {
+                        out.put(path.toFile(), output(file.toPath(), path));
+                    }
+                } else if (file.isFile()) {
+                    out.put(file, output(null, file.toPath()));
+                } else {
+                    throw new IOException("No such file " + pattern);
+                }
+            } else {
+                // Search from the directory before the first wildcard
+                int separator = Math.max(pattern.lastIndexOf('/', glob), pattern.lastIndexOf(File.separatorChar, glob));
+                Path base = Paths.get(separator < 0 ? "." : pattern.substring(0, separator + 1));
+                PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + (separator < 0 ? "./" + pattern : pattern));
+                for (Path path : walk(base, path -> matcher.matches(path) && isInput(path.toFile()))) {
+                    out.put(path.toFile(), output(base, path));
+                }
+            }
+        }
+        checkOutputs(out);
+        return out;
+    }
+
+    /**
+     * Converts the inputs matching files, directories or glob patterns,
+     * reporting each file as it completes.
+     *
+     * @param patterns
+     * @param listener
+     * @return the results in order of the inputs
+     * @throws IOException
+     */
+    public List<Result> convert(List<String> patterns, Consumer<Result> listener) throws IOException {
+        return convert(find(patterns), listener);
+    }
+
+    public List<Result> convert(Map<File, File> files, Consumer<Result> listener) throws IOException {
+        checkOutputs(files);
+        long largest = files.keySet().stream().mapToLong(File::length).max().orElse(0);
+        int threads = (int) Math.max(1, Math.min(parallelism, memoryBudget / Math.max(1, 2 * largest)));
+        ExecutorService executor = Executors.newWorkStealingPool(threads);
+        try {
+            // Start the largest first so that the pool is not left waiting on one
+            List<Map.Entry<File, File>> entries = new ArrayList<>(files.entrySet());
+            entries.sort(Comparator.comparingLong((Map.Entry<File, File> entry) -> entry.getKey().length()).reversed());
+            Map<File, Future<Result>> futures = new LinkedHashMap<>();
+            for (File input : files.keySet()) {
+                futures.put(input, null);
+            }
+            for (Map.Entry<File, File> entry : entries) {
+                Callable<Result> task = () -> {
+                    Result result = convert(entry.getKey(), entry.getValue());
+                    if (listener != null) {
+                        synchronized (listener) {
+                            listener.accept(result);
+                        }
+                    }
+                    return result;
+                };
+                futures.put(entry.getKey(), executor.submit(task));
+            }
+            List<Result> out = new ArrayList<>(futures.size());
+            for (Future<Result> future : futures.values()) {
+                out.add(future.get());
+            }
+            return out;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException(ex);
+        } catch (ExecutionException ex) {
+            throw new IOException(ex.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Converts one file if it is not up to date, catching any failure into the
+     * result.
+     *
+     * @param input
+     * @param output
+     * @return
+     */
+    public Result convert(File input, File output) {
+        long start = System.nanoTime();
+        try {
+            String sourceHash = hash ? MoreFiles.asByteSource(input.toPath()).hash(Hashing.sha256()).toString() : null;
+            if (!force && isUpToDate(input, output, sourceHash)) {
+                return new Result(input, output, Status.SKIPPED, input.length(), System.nanoTime() - start, null);
+            }
+            File parent = output.getAbsoluteFile().getParentFile();
+            parent.mkdirs();
+            File temporary = File.createTempFile(output.getName(), ".tmp", parent);
+            MeldWriter writer = new MeldWriter(temporary, compressed);
+            WallReader reader = null;
+            boolean converted = false;
+            try {
+                if (sourceHash != null) {
+                    writer.addMeta(SOURCE_HASH, sourceHash);
+                }
+                if (input.getName().toLowerCase().endsWith(".mat")) {
+                    new DsresImporter().importMeld(input, writer);
+                } else {
+                    reader = new WallReader(input);
+                    Meld.wall2meld(reader, writer);
+                }
+                converted = true;
+                Files.move(temporary.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                if (!converted) {
+                    // The converters only close the files they succeed with
+                    closeQuietly(reader);
+                    closeQuietly(writer);
+                }
+                temporary.delete();
+            }
+            return new Result(input, output, Status.CONVERTED, input.length(), System.nanoTime() - start, null);
+        } catch (IOException | ReconException | RuntimeException ex) {
+            return new Result(input, output, Status.FAILED, input.length(), System.nanoTime() - start, ex);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException | RuntimeException ex) {
+                // Already failed
+            }
+        }
+    }
+
+    private boolean isUpToDate(File input, File output, String sourceHash) {
+        if (!output.isFile()) {
+            return false;
+        }
+        if (sourceHash == null) {
+            return output.lastModified() >= input.lastModified();
+        }
+        try (MeldReader reader = new MeldReader(output)) {
+            return sourceHash.equals(reader.getFileMeta().get(SOURCE_HASH));
+        } catch (IOException | ReconException | RuntimeException ex) {
+            return false;
+        }
+    }
+
+    private File output(Path base, Path input) {
+        String name = input.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        name = (dot > 0 ? name.substring(0, dot) : name) + ".mld";
+        if (outputDirectory == null) {
+            return input.resolveSibling(name).toFile();
+        }
+        Path relative = base == null ? Paths.get(name) : base.relativize(input).resolveSibling(name);
+        return outputDirectory.toPath().resolve(relative).toFile();
+    }
+
+    /**
+     * Fails if two inputs would be converted to the same output, such as
+     * run.wll and run.mat in one directory, as the last to finish would
+     * replace the other
+     */
+    private static void checkOutputs(Map<File, File> files) throws IOException {
+        Map<Path, Path> inputs = new HashMap<>();
+        for (Map.Entry<File, File> entry : files.entrySet()) {
+            Path input = entry.getKey().toPath().toAbsolutePath().normalize();
+            Path previous = inputs.putIfAbsent(entry.getValue().toPath().toAbsolutePath().normalize(), input);
+            if (previous != null && !previous.equals(input)) {
+                throw new IOException("Inputs " + previous + " and " + input + " would both be converted to " + entry.getValue());
+            }
+        }
+    }
+
+    private static boolean isInput(File file) {
+        String name = file.getName().toLowerCase();
+        return file.isFile() && (name.endsWith(".wll") || name.endsWith(".mat"));
+    }
+
+    private static List<Path> walk(Path base, Predicate<Path> filter) throws IOException {
+        try (Stream<Path> paths = Files.walk(base)) {
+            return paths.filter(filter).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static int indexOfGlob(String pattern) {
+        for (int i = 0; i < pattern.length(); i++) {
+            if ("*?[{".indexOf(pattern.charAt(i)) >= 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public enum Status {
+        CONVERTED, SKIPPED, FAILED
+    }
+
+    /**
+     * The outcome of converting one file
+     */
+    public static final class Result {
+
+        private final File input;
+        private final File output;
+        private final Status status;
+        private final long bytes;
+        private final long nanos;
+        private final Exception exception;
+
+        Result(File input, File output, Status status, long bytes, long nanos, Exception exception) {
+            this.input = input;
+            this.output = output;
+            this.status = status;
+            this.bytes = bytes;
+            this.nanos = nanos;
+            this.exception = exception;
+        }
+
+        public File getInput() {
+            return input;
+        }
+
+        public File getOutput() {
+            return output;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        /**
+         * Returns the size of the input
+         *
+         * @return
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        public Exception getException() {
+            return exception;
+        }
+
+        /**
+         * Returns the rate the input was converted at, in megabytes per second
+         *
+         * @return
+         */
+        public double getThroughput() {
+            return nanos == 0 ? 0 : bytes * 1e3 / nanos;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder out = new StringBuilder().append(status).append(' ').append(input);
+            if (status == Status.CONVERTED) {
+                out.append(String.format(" -> %s (%.1f MB in %.0f ms, %.1f MB/s)", output, bytes / 1e6, nanos / 1e6, getThroughput()));
+            }
+            if (exception != null) {
+                out.append(": ").append(exception.getMessage());
+            }
+            return out.toString();
+        }
+    }
+}
@@ -0,0 +1,301 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 CyDesign Limited
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.harmanpa.jrecon;
+
+import com.github.harmanpa.jrecon.exceptions.ReconException;
+import com.github.harmanpa.jrecon.utils.DoubleFormatter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Exports signals of a table as delimited text, one column per signal and one
+ * row per sample, after a header line of signal names. Rows are exported in
+ * windows: the signals of a window are read in parallel, then blocks of its
+ * rows are formatted in parallel and written in order. Signals of an
+ * uncompressed meld holding float64 values are read a window at a time, so
+ * memory is bounded by the memory limit however long the signals are. Other
+ * signals, those of compressed melds or other tables, are read whole, as is
+ * the time signal when rows are limited to a time range.
+ *
+ * @author pete
+ */
+public class CSVExporter {
+
+    private static final int BLOCK_BYTES = 1024 * 1024;
+    private char delimiter = ',';
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private String timeSignal;
+    private double from = Double.NEGATIVE_INFINITY;
+    private double to = Double.POSITIVE_INFINITY;
+    private long memoryLimit = 64L * 1024 * 1024;
+
+    public char getDelimiter() {
+        return delimiter;
+    }
+
+    /**
+     * Sets the delimiter, for example ',' for CSV or '\t' for TSV
+     *
+     * @param delimiter
+     */
+    public void setDelimiter(char delimiter) {
+        this.delimiter = delimiter;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    public long getMemoryLimit() {
+        return memoryLimit;
+    }
+
+    /**
+     * Sets the number of bytes of signal values read for one window of rows
+     *
+     * @param memoryLimit
+     */
+    public void setMemoryLimit(long memoryLimit) {
+        this.memoryLimit = memoryLimit;
+    }
+
+    /**
+     * Limits the rows exported to those where the time signal is between from
+     * and to inclusive. The time signal need not be one of those exported.
+     *
+     * @param timeSignal
+     * @param from
+     * @param to
+     */
+    public void setTimeRange(String timeSignal, double from, double to) {
+        this.timeSignal = timeSignal;
+        this.from = from;
+        this.to = to;
+    }
+
+    public void export(ReconTable table, List<String> signals, File file) throws IOException, ReconException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            export(table, signals, channel);
+        }
+    }
+
+    public void export(ReconTable table, List<String> signals, WritableByteChannel channel) throws IOException, ReconException {
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try {
+            Column[] columns = openColumns(table, signals, executor);
+            int[] rows = selectRows(table, columns.length == 0 ? 0 : columns[0].length, columns.length == 0);
+            write(channel, header(signals));
+            int rowBytes = Math.max(1, columns.length) * (DoubleFormatter.MAX_LENGTH + 1);
+            int blockRows = Math.max(1, BLOCK_BYTES / rowBytes);
+            int windowRows = (int) Math.max(blockRows, Math.min(Integer.MAX_VALUE, memoryLimit / (8L * Math.max(1, columns.length))));
+            for (int window = rows[0]; window < rows[1]; window += windowRows) {
+                int windowEnd = (int) Math.min(rows[1], (long) window + windowRows);
+                Window values = readWindow(table, columns, window, windowEnd, executor);
+                // Format a bounded number of blocks ahead of the writes
+                Deque<Future<ByteBuffer>> pending = new ArrayDeque<>();
+                for (int start = window; start < windowEnd; start += blockRows) {
+                    int blockStart = start;
+                    int blockEnd = Math.min(windowEnd, start + blockRows);
+                    pending.add(executor.submit(() -> format(values, blockStart, blockEnd, rowBytes)));
+                    if (pending.size() >= 2 * parallelism) {
+                        write(channel, pending.poll().get());
+                    }
+                }
+                while (!pending.isEmpty()) {
+                    write(channel, pending.poll().get());
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException(ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof ReconException) {
+                throw (ReconException) ex.getCause();
+            }
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Finds the length of each signal, reading those which cannot be read by
+     * row whole
+     */
+    private Column[] openColumns(ReconTable table, List<String> signals, ExecutorService executor) throws InterruptedException, ExecutionException, ReconException {
+        List<Future<Column>> futures = new ArrayList<>(signals.size());
+        for (String signal : signals) {
+            futures.add(executor.submit(() -> {
+                if (table instanceof MeldReader.MeldTableReader) {
+                    int length = ((MeldReader.MeldTableReader) table).getPackedSignalLength(signal);
+                    if (length >= 0) {
+                        return new Column(signal, length, null);
+                    }
+                }
+                double[] data = table.getDoubleSignal(signal);
+                return new Column(signal, data.length, data);
+            }));
+        }
+        Column[] columns = new Column[signals.size()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = futures.get(i).get();
+            if (columns[i].length != columns[0].length) {
+                throw new ReconException("Signal " + signals.get(i) + " has " + columns[i].length + " values, expected " + columns[0].length);
+            }
+        }
+        return columns;
+    }
+
+    private Window readWindow(ReconTable table, Column[] columns, int from, int to, ExecutorService executor) throws InterruptedException, ExecutionException {
+        List<Future<double[]>> futures = new ArrayList<>(columns.length);
+        for (Column column : columns) {
+            futures.add(column.data != null ? null
+                    : executor.submit(() -> ((MeldReader.MeldTableReader) table).getDoubleSignal(column.signal, from, to)));
+        }
+        Window window = new Window(columns.length);
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i].data != null) {
+                window.values[i] = columns[i].data;
+            } else {
+                window.values[i] = futures.get(i).get();
+                window.offsets[i] = from;
+            }
+        }
+        return window;
+    }
+
+    /**
+     * Returns the first and last plus one rows to export
+     */
+    private int[] selectRows(ReconTable table, int n, boolean empty) throws ReconException {
+        if (timeSignal == null) {
+            return new int[]{0, n};
+        }
+        double[] time = table.getDoubleSignal(timeSignal);
+        if (!empty && time.length != n) {
+            throw new ReconException("Time signal " + timeSignal + " has " + time.length + " values, expected " + n);
+        }
+        int first = 0;
+        while (first < time.length && !(time[first] >= from)) {
+            first++;
+        }
+        int last = time.length;
+        while (last > first && !(time[last - 1] <= to)) {
+            last--;
+        }
+        return new int[]{first, empty ? first : last};
+    }
+
+    private ByteBuffer header(List<String> signals) {
+        StringBuilder header = new StringBuilder();
+        for (int i = 0; i < signals.size(); i++) {
+            if (i > 0) {
+                header.append(delimiter);
+            }
+            String signal = signals.get(i);
+            if (signal.indexOf(delimiter) >= 0 || signal.indexOf('"') >= 0 || signal.indexOf('\n') >= 0) {
+                header.append('"').append(signal.replace("\"", "\"\"")).append('"');
+            } else {
+                header.append(signal);
+            }
+        }
+        header.append('\n');
+        return ByteBuffer.wrap(header.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private ByteBuffer format(Window window, int start, int end, int rowBytes) {
+        byte[] out = new byte[(end - start) * rowBytes];
+        int position = 0;
+        byte delimiter = (byte) this.delimiter;
+        double[][] values = window.values;
+        int[] offsets = window.offsets;
+        for (int row = start; row < end; row++) {
+            for (int column = 0; column < values.length; column++) {
+                if (column > 0) {
+                    out[position++] = delimiter;
+                }
+                position = DoubleFormatter.format(values[column][row - offsets[column]], out, position);
+            }
+            out[position++] = '\n';
+        }
+        return ByteBuffer.wrap(out, 0, position);
+    }
+
+    private static void write(WritableByteChannel channel, ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+    }
+
+    /**
+     * A signal with its values if it is read whole
+     */
+    private static final class Column {
+
+        private final String signal;
+        private final int length;
+        private final double[] data;
+
+        Column(String signal, int length, double[] data) {
+            this.signal = signal;
+            this.length = length;
+            this.data = data;
+        }
+    }
+
+    /**
+     * The values of a window of rows, each array holding values from the row
+     * at its offset
+     */
+    private static final class Window {
+
+        private final double[][] values;
+        private final int[] offsets;
+
+        Window(int columns) {
+            this.values = new double[columns][];
+            this.offsets = new int[columns];
+        }
+    }
+}
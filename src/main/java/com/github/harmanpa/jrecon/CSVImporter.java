@@ -0,0 +1,348 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 CyDesign Limited
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.harmanpa.jrecon;
+
+import com.github.harmanpa.jrecon.exceptions.ReconException;
+import com.github.harmanpa.jrecon.utils.DecimalParser;
+import com.github.harmanpa.jrecon.utils.DoubleColumn;
+import com.google.common.base.Function;
+import com.google.common.base.Functions;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Imports delimited text files of numbers, with a header line of column names,
+ * straight into columns of doubles. The file is mapped and split into line
+ * aligned ranges which are parsed in parallel, without creating strings for
+ * the values. Columns are spilled to disk beyond a memory limit. Quoted
+ * values with embedded line breaks are not supported, use
+ * {@link Meld#csv2meld(org.apache.commons.csv.CSVParser, com.google.common.base.Function, com.google.common.base.Function, com.github.harmanpa.jrecon.MeldWriter)}
+ * for such files.
+ *
+ * @author pete
+ */
+public class CSVImporter {
+
+    private static final long MAX_RANGE = 1L << 30;
+    private char delimiter = ',';
+    private Function<String, String> headerExtractor = Functions.identity();
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private long memoryLimit = 256L * 1024 * 1024;
+
+    public char getDelimiter() {
+        return delimiter;
+    }
+
+    public void setDelimiter(char delimiter) {
+        this.delimiter = delimiter;
+    }
+
+    public Function<String, String> getHeaderExtractor() {
+        return headerExtractor;
+    }
+
+    /**
+     * Sets the function which turns column headers into signal names
+     *
+     * @param headerExtractor
+     */
+    public void setHeaderExtractor(Function<String, String> headerExtractor) {
+        this.headerExtractor = headerExtractor;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets the number of ranges of the file to parse in parallel
+     *
+     * @param parallelism
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    public long getMemoryLimit() {
+        return memoryLimit;
+    }
+
+    /**
+     * Sets the bytes of column data to hold in memory before spilling to a
+     * temporary file
+     *
+     * @param memoryLimit
+     */
+    public void setMemoryLimit(long memoryLimit) {
+        this.memoryLimit = memoryLimit;
+    }
+
+    /**
+     * Imports a file into a table named csv of a new meld, and closes the
+     * writer.
+     *
+     * @param csv
+     * @param writer
+     * @throws IOException
+     * @throws ReconException
+     */
+    public void importMeld(File csv, MeldWriter writer) throws IOException, ReconException {
+        try (DoubleColumn.Spill spill = new DoubleColumn.Spill(memoryLimit)) {
+            Map<String, DoubleColumn> columns = read(csv, spill);
+            MeldWriter.MeldTableWriter table = (MeldWriter.MeldTableWriter) writer.addTable("csv", columns.keySet().toArray(new String[0]));
+            writer.finalizeDefinitions();
+            writer.flush();
+            for (Map.Entry<String, DoubleColumn> column : columns.entrySet()) {
+                table.setSignal(column.getKey(), column.getValue());
+            }
+            writer.close();
+        }
+    }
+
+    /**
+     * Reads all columns of a file, keyed by signal name in file order. The
+     * spill is told how many columns are filled at once, to size their
+     * blocks.
+     *
+     * @param csv
+     * @param spill
+     * @return
+     * @throws IOException
+     */
+    public Map<String, DoubleColumn> read(File csv, DoubleColumn.Spill spill) throws IOException {
+        try (FileChannel channel = FileChannel.open(csv.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer start = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, 1024 * 1024));
+            int headerEnd = findHeaderEnd(start);
+            if (headerEnd < 0 && start.limit() < size) {
+                throw new IOException("Header line of " + csv + " is too long");
+            }
+            List<String> names = parseHeader(start, headerEnd < 0 ? start.limit() : headerEnd);
+            long dataStart = headerEnd < 0 ? size : headerEnd + 1;
+            List<long[]> ranges = split(channel, dataStart, size);
+            // Every range fills a block of every column at once
+            spill.setConcurrentColumns((long) names.size() * ranges.size());
+            List<DoubleColumn[]> parsed = parse(channel, ranges, names.size(), spill);
+            Map<String, DoubleColumn> out = new LinkedHashMap<>();
+            for (int i = 0; i < names.size(); i++) {
+                DoubleColumn column = new DoubleColumn(spill);
+                for (DoubleColumn[] range : parsed) {
+                    column.append(range[i]);
+                }
+                if (out.put(names.get(i), column) != null) {
+                    throw new IOException("Duplicate column " + names.get(i));
+                }
+            }
+            return out;
+        }
+    }
+
+    /**
+     * Splits the header into names at delimiters outside of quotes. Quoted
+     * names may contain delimiters, line breaks and doubled quotes.
+     */
+    private List<String> parseHeader(ByteBuffer bytes, int end) {
+        ByteBuffer line = bytes.duplicate();
+        line.limit(end);
+        String header = StandardCharsets.UTF_8.decode(line).toString();
+        List<String> names = new ArrayList<>();
+        StringBuilder name = new StringBuilder();
+        boolean quoted = false;
+        boolean inQuotes = false;
+        for (int i = 0; i <= header.length(); i++) {
+            char c = i < header.length() ? header.charAt(i) : delimiter;
+            if (inQuotes) {
+                if (c != '"') {
+                    name.append(c);
+                } else if (i + 1 < header.length() && header.charAt(i + 1) == '"') {
+                    name.append('"');
+                    i++;
+                } else {
+                    inQuotes = false;
+                }
+            } else if (c == delimiter) {
+                names.add(headerExtractor.apply(quoted ? name.toString() : name.toString().trim()));
+                name.setLength(0);
+                quoted = false;
+            } else if (c == '"' && name.toString().trim().isEmpty()) {
+                name.setLength(0);
+                quoted = true;
+                inQuotes = true;
+            } else if (!quoted) {
+                name.append(c);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Returns the position of the line break ending the header, ignoring
+     * those in quotes, or -1 if there is none
+     */
+    private static int findHeaderEnd(ByteBuffer bytes) {
+        boolean inQuotes = false;
+        for (int i = 0; i < bytes.limit(); i++) {
+            byte b = bytes.get(i);
+            if (b == '"') {
+                inQuotes = !inQuotes;
+            } else if (b == '\n' && !inQuotes) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Splits the data into line aligned ranges, one per thread but none larger
+     * than can be mapped at once.
+     */
+    private List<long[]> split(FileChannel channel, long start, long end) throws IOException {
+        long length = end - start;
+        int n = (int) Math.max(parallelism, (length + MAX_RANGE / 2 - 1) / (MAX_RANGE / 2));
+        List<long[]> ranges = new ArrayList<>();
+        long from = start;
+        for (int i = 1; i <= n && from < end; i++) {
+            long to = i == n ? end : Math.max(from, start + length * i / n);
+            if (to < end) {
+                // Advance to the end of the line
+                ByteBuffer probe = channel.map(FileChannel.MapMode.READ_ONLY, to, Math.min(end - to, 1024 * 1024));
+                int lineEnd = findLineEnd(probe, 0, probe.limit());
+                if (lineEnd < 0) {
+                    continue;
+                }
+                to += lineEnd + 1;
+            }
+            if (to - from > MAX_RANGE) {
+                throw new IOException("Lines too long to split");
+            }
+            ranges.add(new long[]{from, to});
+            from = to;
+        }
+        if (from < end) {
+            ranges.add(new long[]{from, end});
+        }
+        return ranges;
+    }
+
+    private List<DoubleColumn[]> parse(FileChannel channel, List<long[]> ranges, int nColumns, DoubleColumn.Spill spill) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, Math.max(1, ranges.size())));
+        try {
+            List<Future<DoubleColumn[]>> futures = new ArrayList<>();
+            for (long[] range : ranges) {
+                MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, range[0], range[1] - range[0]);
+                futures.add(executor.submit(() -> parseRange(bytes, range[0], nColumns, spill)));
+            }
+            List<DoubleColumn[]> out = new ArrayList<>(futures.size());
+            for (Future<DoubleColumn[]> future : futures) {
+                out.add(future.get());
+            }
+            return out;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException(ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private DoubleColumn[] parseRange(ByteBuffer bytes, long offset, int nColumns, DoubleColumn.Spill spill) throws IOException {
+        DoubleColumn[] columns = new DoubleColumn[nColumns];
+        for (int i = 0; i < nColumns; i++) {
+            columns[i] = new DoubleColumn(spill);
+        }
+        int end = bytes.limit();
+        int column = 0;
+        int fieldStart = 0;
+        for (int i = 0; i <= end; i++) {
+            byte b = i < end ? bytes.get(i) : (byte) '\n';
+            if (b != delimiter && b != '\n') {
+                continue;
+            }
+            int s = fieldStart;
+            int e = i;
+            while (s < e && isBlank(bytes.get(s))) {
+                s++;
+            }
+            while (e > s && isBlank(bytes.get(e - 1))) {
+                e--;
+            }
+            if (e - s >= 2 && bytes.get(s) == '"' && bytes.get(e - 1) == '"') {
+                s++;
+                e--;
+            }
+            fieldStart = i + 1;
+            if (b == '\n' && column == 0 && s == e) {
+                // Empty line
+                continue;
+            }
+            if (column >= nColumns) {
+                throw new IOException("Too many values on line at byte " + (offset + i));
+            }
+            try {
+                columns[column].add(DecimalParser.parse(bytes, s, e));
+            } catch (NumberFormatException ex) {
+                throw new IOException("Could not parse value at byte " + (offset + s), ex);
+            }
+            column++;
+            if (b == '\n') {
+                if (column != nColumns) {
+                    throw new IOException("Expected " + nColumns + " values on line ending at byte " + (offset + i) + ", found " + column);
+                }
+                column = 0;
+            }
+        }
+        return columns;
+    }
+
+    private static boolean isBlank(byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+
+    private static int findLineEnd(ByteBuffer bytes, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (bytes.get(i) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,406 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 CyDesign Limited
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.harmanpa.jrecon;
+
+import com.github.harmanpa.jrecon.exceptions.ReconException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Converts a Dymola result file, dsres.mat, directly into a meld. The file is
+ * a MATLAB v4 file of the matrices Aclass, name, description, dataInfo,
+ * data_1 and data_2. Signals in data_1, which are constant over a
+ * simulation, are written to the table "parameters" and those in data_2 to
+ * the table "trajectories". Names which share a column of the data become
+ * meld aliases of one signal, with an "inv" transform where Dymola negates
+ * the column, so each column is written only once.
+ *
+ * The data matrices are memory mapped. In the usual transposed layout data_2
+ * holds one time step after another, so columns are extracted in batches,
+ * each batch needing one pass over the matrix, with the batch size bounded by
+ * the memory limit.
+ *
+ * @author pete
+ */
+public class DsresImporter {
+
+    public static final String PARAMETERS = "parameters";
+    public static final String TRAJECTORIES = "trajectories";
+    private static final long WINDOW_SIZE = 256L * 1024 * 1024;
+    private long memoryLimit = 64L * 1024 * 1024;
+
+    public long getMemoryLimit() {
+        return memoryLimit;
+    }
+
+    /**
+     * Sets the number of bytes of columns extracted from a transposed data
+     * matrix in one pass
+     *
+     * @param memoryLimit
+     */
+    public void setMemoryLimit(long memoryLimit) {
+        this.memoryLimit = memoryLimit;
+    }
+
+    /**
+     * Converts a result file, closing the writer.
+     *
+     * @param dsres
+     * @param writer
+     * @throws IOException
+     * @throws ReconException
+     */
+    public void importMeld(File dsres, MeldWriter writer) throws IOException, ReconException {
+        try (FileChannel channel = FileChannel.open(dsres.toPath(), StandardOpenOption.READ)) {
+            Map<String, Matrix> matrices = readMatrices(channel);
+            Matrix aclass = require(matrices, "Aclass");
+            String[] classes = aclass.readStrings(channel, false);
+            if (classes.length < 1 || !"Atrajectory".equals(classes[0])) {
+                throw new ReconException(dsres + " is not a Dymola result file");
+            }
+            boolean transposed = classes.length > 3 && "binTrans".equals(classes[3]);
+            String[] names = require(matrices, "name").readStrings(channel, transposed);
+            Matrix descriptionMatrix = matrices.get("description");
+            String[] descriptions = descriptionMatrix == null ? new String[names.length] : descriptionMatrix.readStrings(channel, transposed);
+            int[][] dataInfo = readDataInfo(channel, require(matrices, "dataInfo"), names.length, transposed);
+            DataMatrix data1 = matrices.containsKey("data_1") ? new DataMatrix(matrices.get("data_1"), transposed) : null;
+            DataMatrix data2 = new DataMatrix(require(matrices, "data_2"), transposed);
+            // Group names by the column they refer to, data_1 first
+            List<Map<Integer, List<Integer>>> columns = new ArrayList<>();
+            columns.add(new TreeMap<>());
+            columns.add(new TreeMap<>());
+            for (int i = 0; i < names.length; i++) {
+                int index = dataInfo[i][1];
+                if (index == 0) {
+                    throw new ReconException("Signal " + names[i] + " has no data");
+                }
+                DataMatrix matrix = dataInfo[i][0] == 1 ? data1 : data2;
+                if (matrix == null || Math.abs(index) > matrix.variables) {
+                    throw new ReconException("Signal " + names[i] + " refers to missing data");
+                }
+                columns.get(dataInfo[i][0] == 1 ? 0 : 1).computeIfAbsent(Math.abs(index), k -> new ArrayList<>()).add(i);
+            }
+            List<Map<Integer, Column>> tables = new ArrayList<>();
+            tables.add(define(writer, PARAMETERS, columns.get(0), names, descriptions, dataInfo));
+            tables.add(define(writer, TRAJECTORIES, columns.get(1), names, descriptions, dataInfo));
+            writer.finalizeDefinitions();
+            writer.flush();
+            if (data1 != null) {
+                write(channel, data1, tables.get(0), (MeldWriter.MeldTableWriter) writer.getTables().get(PARAMETERS), writer);
+            }
+            write(channel, data2, tables.get(1), (MeldWriter.MeldTableWriter) writer.getTables().get(TRAJECTORIES), writer);
+            writer.close();
+        }
+    }
+
+    /**
+     * Adds a table of one signal per column, with the other names of the
+     * column as aliases. The signal is the first name not negating the
+     * column, or if all do, the first name, written negated.
+     */
+    private static Map<Integer, Column> define(MeldWriter writer, String name, Map<Integer, List<Integer>> columns,
+            String[] names, String[] descriptions, int[][] dataInfo) throws ReconException {
+        Map<Integer, Column> out = new LinkedHashMap<>();
+        for (Map.Entry<Integer, List<Integer>> entry : columns.entrySet()) {
+            int base = entry.getValue().get(0);
+            for (int i : entry.getValue()) {
+                if (dataInfo[i][1] > 0) {
+                    base = i;
+                    break;
+                }
+            }
+            out.put(entry.getKey(), new Column(names[base], dataInfo[base][1] < 0));
+        }
+        List<String> signals = new ArrayList<>(out.size());
+        out.values().forEach(column -> signals.add(column.signal));
+        ReconTable table = writer.addTable(name, signals.toArray(new String[0]));
+        for (Map.Entry<Integer, List<Integer>> entry : columns.entrySet()) {
+            Column column = out.get(entry.getKey());
+            for (int i : entry.getValue()) {
+                if (!names[i].equals(column.signal)) {
+                    table.addAlias(names[i], column.signal, (dataInfo[i][1] < 0) != column.negated ? "inv" : "");
+                }
+                if (descriptions[i] != null && !descriptions[i].isEmpty()) {
+                    table.addSignalMeta(names[i], "description", descriptions[i]);
+                }
+            }
+        }
+        return out;
+    }
+
+    private void write(FileChannel channel, DataMatrix matrix, Map<Integer, Column> columns,
+            MeldWriter.MeldTableWriter table, MeldWriter writer) throws IOException, ReconException {
+        List<Integer> indices = new ArrayList<>(columns.keySet());
+        int batch = matrix.transposed
+                ? (int) Math.max(1, Math.min(indices.size(), memoryLimit / Math.max(1L, 8L * matrix.samples)))
+                : 1;
+        for (int start = 0; start < indices.size(); start += batch) {
+            List<Integer> batchIndices = indices.subList(start, Math.min(indices.size(), start + batch));
+            double[][] data = matrix.readColumns(channel, batchIndices);
+            for (int i = 0; i < data.length; i++) {
+                Column column = columns.get(batchIndices.get(i));
+                if (column.negated) {
+                    for (int j = 0; j < data[i].length; j++) {
+                        data[i][j] = -data[i][j];
+                    }
+                }
+                table.setSignal(column.signal, data[i]);
+            }
+            writer.flush();
+        }
+    }
+
+    private static int[][] readDataInfo(FileChannel channel, Matrix matrix, int n, boolean transposed) throws IOException, ReconException {
+        if (transposed ? matrix.rows != 4 || matrix.columns != n : matrix.rows != n || matrix.columns != 4) {
+            throw new ReconException("dataInfo does not match name");
+        }
+        ByteBuffer buffer = matrix.read(channel, 0, matrix.size());
+        int[][] out = new int[n][4];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < 4; j++) {
+                out[i][j] = (int) matrix.get(buffer, transposed ? i * 4 + j : j * n + i);
+            }
+        }
+        return out;
+    }
+
+    private static Matrix require(Map<String, Matrix> matrices, String name) throws ReconException {
+        Matrix matrix = matrices.get(name);
+        if (matrix == null) {
+            throw new ReconException("Missing matrix " + name);
+        }
+        return matrix;
+    }
+
+    private static Map<String, Matrix> readMatrices(FileChannel channel) throws IOException, ReconException {
+        Map<String, Matrix> out = new LinkedHashMap<>();
+        long position = 0;
+        long size = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(20);
+        while (position + 20 <= size) {
+            header.clear();
+            readFully(channel, header, position);
+            header.flip();
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            int type = header.getInt(0);
+            if (type < 0 || type > 9999) {
+                header.order(ByteOrder.BIG_ENDIAN);
+                type = header.getInt(0);
+            }
+            int rows = header.getInt(4);
+            int columns = header.getInt(8);
+            int imaginary = header.getInt(12);
+            int nameLength = header.getInt(16);
+            if (type < 0 || type > 9999 || type / 1000 > 1 || rows < 0 || columns < 0 || nameLength <= 0 || nameLength > 1024) {
+                throw new ReconException("Unsupported MAT file matrix at " + position);
+            }
+            ByteBuffer name = ByteBuffer.allocate(nameLength);
+            readFully(channel, name, position + 20);
+            int end = 0;
+            while (end < nameLength && name.get(end) != 0) {
+                end++;
+            }
+            Matrix matrix = new Matrix(new String(name.array(), 0, end, StandardCharsets.US_ASCII), type, rows, columns, position + 20 + nameLength);
+            out.put(matrix.name, matrix);
+            position = matrix.offset + matrix.size() * (imaginary != 0 ? 2 : 1);
+        }
+        return out;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+    }
+
+    private static final class Column {
+
+        private final String signal;
+        private final boolean negated;
+
+        Column(String signal, boolean negated) {
+            this.signal = signal;
+            this.negated = negated;
+        }
+    }
+
+    /**
+     * A real, stored matrix, addressed column major
+     */
+    private static final class Matrix {
+
+        private final String name;
+        private final ByteOrder order;
+        private final int precision;
+        private final int rows;
+        private final int columns;
+        private final long offset;
+
+        Matrix(String name, int type, int rows, int columns, long offset) throws ReconException {
+            this.name = name;
+            this.order = type / 1000 == 1 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+            this.precision = (type / 10) % 10;
+            this.rows = rows;
+            this.columns = columns;
+            this.offset = offset;
+            if (precision > 5 || (type % 10) == 2) {
+                throw new ReconException("Unsupported type " + type + " of matrix " + name);
+            }
+        }
+
+        int elementSize() {
+            switch (precision) {
+                case 0:
+                    return 8;
+                case 1:
+                case 2:
+                    return 4;
+                case 3:
+                case 4:
+                    return 2;
+                default:
+                    return 1;
+            }
+        }
+
+        long size() {
+            return (long) rows * columns * elementSize();
+        }
+
+        /**
+         * Maps elements from first to first plus count
+         */
+        ByteBuffer read(FileChannel channel, long first, long count) throws IOException {
+            return channel.map(FileChannel.MapMode.READ_ONLY, offset + first * elementSize(), count * elementSize()).order(order);
+        }
+
+        double get(ByteBuffer buffer, int element) {
+            switch (precision) {
+                case 0:
+                    return buffer.getDouble(element * 8);
+                case 1:
+                    return buffer.getFloat(element * 4);
+                case 2:
+                    return buffer.getInt(element * 4);
+                case 3:
+                    return buffer.getShort(element * 2);
+                case 4:
+                    return buffer.getShort(element * 2) & 0xFFFF;
+                default:
+                    return buffer.get(element) & 0xFF;
+            }
+        }
+
+        /**
+         * Reads a character matrix as strings, one per column when
+         * transposed, otherwise one per row, without trailing blanks
+         */
+        String[] readStrings(FileChannel channel, boolean transposed) throws IOException {
+            ByteBuffer buffer = read(channel, 0, (long) rows * columns);
+            int n = transposed ? columns : rows;
+            int length = transposed ? rows : columns;
+            String[] out = new String[n];
+            char[] chars = new char[length];
+            for (int i = 0; i < n; i++) {
+                int end = 0;
+                for (int j = 0; j < length; j++) {
+                    chars[j] = (char) get(buffer, transposed ? i * rows + j : j * rows + i);
+                    if (chars[j] != ' ' && chars[j] != 0) {
+                        end = j + 1;
+                    }
+                }
+                out[i] = new String(chars, 0, end);
+            }
+            return out;
+        }
+    }
+
+    /**
+     * A data matrix of variables sampled at a number of points, with variables
+     * as rows when transposed, otherwise as columns
+     */
+    private static final class DataMatrix {
+
+        private final Matrix matrix;
+        private final boolean transposed;
+        private final int variables;
+        private final int samples;
+
+        DataMatrix(Matrix matrix, boolean transposed) {
+            this.matrix = matrix;
+            this.transposed = transposed;
+            this.variables = transposed ? matrix.rows : matrix.columns;
+            this.samples = transposed ? matrix.columns : matrix.rows;
+        }
+
+        /**
+         * Reads the columns of variables, numbered from 1 and ascending
+         */
+        double[][] readColumns(FileChannel channel, List<Integer> indices) throws IOException {
+            double[][] out = new double[indices.size()][samples];
+            if (!transposed) {
+                for (int i = 0; i < out.length; i++) {
+                    ByteBuffer buffer = matrix.read(channel, (long) (indices.get(i) - 1) * samples, samples);
+                    for (int j = 0; j < samples; j++) {
+                        out[i][j] = matrix.get(buffer, j);
+                    }
+                }
+                return out;
+            }
+            // Map windows of whole time steps, reading the batch from each step
+            int first = indices.get(0) - 1;
+            int span = indices.get(indices.size() - 1) - first;
+            int[] offsets = new int[out.length];
+            for (int i = 0; i < out.length; i++) {
+                offsets[i] = indices.get(i) - 1 - first;
+            }
+            long stepSize = (long) variables * matrix.elementSize();
+            int stepsPerWindow = (int) Math.max(1, Math.min(samples, WINDOW_SIZE / stepSize));
+            for (int start = 0; start < samples; start += stepsPerWindow) {
+                int steps = Math.min(stepsPerWindow, samples - start);
+                ByteBuffer buffer = matrix.read(channel, (long) start * variables + first, (long) (steps - 1) * variables + span);
+                for (int t = 0; t < steps; t++) {
+                    int base = t * variables;
+                    for (int i = 0; i < offsets.length; i++) {
+                        out[i][start + t] = matrix.get(buffer, base + offsets[i]);
+                    }
+                }
+            }
+            return out;
+        }
+    }
+}
@@ -24,15 +24,28 @@
 package com.github.harmanpa.jrecon;
 
 import com.github.harmanpa.jrecon.exceptions.ReconException;
+import com.github.harmanpa.jrecon.io.FileRandomAccessResource;
+import com.github.harmanpa.jrecon.io.RandomAccessResource;
 import com.google.common.base.Function;
 import com.google.common.base.Functions;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Iterators;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.BiPredicate;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.apache.commons.csv.CSVParser;
@@ -45,10 +58,22 @@ import org.apache.commons.csv.CSVRecord;
 public class Meld {
 
     /**
+     * Converts one wall to a meld, given the two files, or in batch mode many
+     * walls and dsres.mat files:
+     * <pre>
+     * --batch [--threads n] [--memory megabytes] [--output directory]
+     *         [--compressed] [--hash] [--force] (file|directory|glob)...
+     * </pre>
+     *
      * @param args the command line arguments
+     * @see BatchConverter
      */
     public static void main(String[] args) {
-        if (args.length == 2) {
+        if (args.length > 0 && "--batch".equals(args[0])) {
+            if (!batch(Arrays.asList(args).subList(1, args.length))) {
+                System.exit(1);
+            }
+        } else if (args.length == 2) {
             try {
                 wallToMeld(new File(args[0]), new File(args[1]));
             } catch (IOException | ReconException ex) {
@@ -57,6 +82,81 @@ public class Meld {
         }
     }
 
+    static boolean batch(List<String> args) {
+        BatchConverter converter = new BatchConverter();
+        List<String> patterns = new ArrayList<>();
+        for (Iterator<String> it = args.iterator(); it.hasNext();) {
+            String arg = it.next();
+            try {
+                switch (arg) {
+                    case "--threads":
+                        converter.setParallelism(Integer.parseInt(value(it, arg)));
+                        break;
+                    case "--memory":
+                        converter.setMemoryBudget(Long.parseLong(value(it, arg)) * 1024 * 1024);
+                        break;
+                    case "--output":
+                        converter.setOutputDirectory(new File(value(it, arg)));
+                        break;
+                    case "--compressed":
+                        converter.setCompressed(true);
+                        break;
+                    case "--hash":
+                        converter.setHash(true);
+                        break;
+                    case "--force":
+                        converter.setForce(true);
+                        break;
+                    default:
+                        patterns.add(arg);
+                }
+            } catch (NumberFormatException ex) {
+                return usage("Invalid number for " + arg);
+            } catch (IllegalArgumentException ex) {
+                return usage(ex.getMessage());
+            }
+        }
+        if (patterns.isEmpty()) {
+            return usage("No inputs given");
+        }
+        long start = System.nanoTime();
+        try {
+            List<BatchConverter.Result> results = converter.convert(patterns, System.out::println);
+            long bytes = 0;
+            int converted = 0;
+            int failed = 0;
+            for (BatchConverter.Result result : results) {
+                if (result.getStatus() == BatchConverter.Status.CONVERTED) {
+                    bytes += result.getBytes();
+                    converted++;
+                } else if (result.getStatus() == BatchConverter.Status.FAILED) {
+                    failed++;
+                }
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.println(String.format("%d converted, %d skipped, %d failed, %.1f MB in %.1f s, %.1f MB/s",
+                    converted, results.size() - converted - failed, failed, bytes / 1e6, seconds, bytes / 1e6 / seconds));
+            return failed == 0;
+        } catch (IOException ex) {
+            Logger.getLogger(Meld.class.getName()).log(Level.SEVERE, null, ex);
+            return false;
+        }
+    }
+
+    private static String value(Iterator<String> it, String option) {
+        if (!it.hasNext()) {
+            throw new IllegalArgumentException("Missing value for " + option);
+        }
+        return it.next();
+    }
+
+    private static boolean usage(String message) {
+        System.err.println(message);
+        System.err.println("Usage: --batch [--threads n] [--memory megabytes] [--output directory]");
+        System.err.println("               [--compressed] [--hash] [--force] (file|directory|glob)...");
+        return false;
+    }
+
     public static void wallToMeld(File wall, File meld) throws IOException, ReconException {
         wallToMeld(wall, meld, false);
     }
@@ -67,6 +167,24 @@ public class Meld {
         wall2meld(reader, writer);
     }
 
+    public static void dsresToMeld(File dsres, File meld) throws IOException, ReconException {
+        dsresToMeld(dsres, meld, false);
+    }
+
+    /**
+     * Converts a Dymola result file directly into a meld
+     *
+     * @param dsres
+     * @param meld
+     * @param compressed
+     * @throws IOException
+     * @throws ReconException
+     * @see DsresImporter
+     */
+    public static void dsresToMeld(File dsres, File meld, boolean compressed) throws IOException, ReconException {
+        new DsresImporter().importMeld(dsres, new MeldWriter(meld, compressed));
+    }
+
     public static void wall2meld(WallReader reader, MeldWriter writer) throws ReconException, IOException {
         // Add meta data
         for (Map.Entry<String, Object> entry : reader.getFileMeta().entrySet()) {
@@ -102,7 +220,8 @@ public class Meld {
         // Iterate over rows, building table data
         for (ReconTable table : reader.getTables().values()) {
             ReconTable writerTable = writer.getTables().get(table.getName());
-            for (String signal : table.getVariables()) {
+            // Aliases refer to the data of the signals they alias
+            for (String signal : table.getSignals()) {
                 writerTable.setSignal(signal, table.getSignal(signal));
                 writer.flush();
             }
@@ -112,13 +231,127 @@ public class Meld {
         reader.close();
     }
 
+    public static void extractMeld(File meld, File extracted, BiPredicate<String, String> filter) throws IOException, ReconException {
+        MeldReader reader = new MeldReader(meld);
+        // Compression is only known once the header has been read
+        reader.getFileMeta();
+        MeldWriter writer = new MeldWriter(extracted, reader.isCompressed());
+        meld2meld(reader, writer, filter);
+    }
+
+    /**
+     * Copies the signals accepted by filter (called with table name and signal
+     * name) into a new meld. Signal data is transferred as stored, without
+     * being decompressed or decoded, so the time taken depends on the size of
+     * the selected signals rather than the size of the file. Tables with no
+     * selected signals are omitted.
+     *
+     * @param reader
+     * @param writer
+     * @param filter
+     * @throws ReconException
+     * @throws IOException
+     */
+    public static void meld2meld(MeldReader reader, MeldWriter writer, BiPredicate<String, String> filter) throws ReconException, IOException {
+        // Add meta data
+        for (Map.Entry<String, Object> entry : reader.getFileMeta().entrySet()) {
+            writer.addMeta(entry.getKey(), entry.getValue());
+        }
+        if (reader.isCompressed() != writer.isCompressed()) {
+            throw new ReconException("Compression of extracted meld must match the source");
+        }
+        // Add each table with its selected signals, recording where their data is
+        List<ExtractedSignal> extracted = new ArrayList<>();
+        for (ReconTable table : reader.getTables().values()) {
+            MeldReader.MeldTableReader tableReader = (MeldReader.MeldTableReader) table;
+            Set<String> selected = new LinkedHashSet<>();
+            for (String signal : table.getSignals()) {
+                if (filter.test(table.getName(), signal)) {
+                    selected.add(signal);
+                }
+            }
+            if (selected.isEmpty()) {
+                continue;
+            }
+            // Selected signals sharing data stay aliases of the first of them
+            // read untransformed, as the transforms read are already composed
+            // with that of the data; without one, each keeps a copy of the data
+            List<String> signals = new ArrayList<>();
+            Map<String, String> aliases = new LinkedHashMap<>();
+            Map<OffsetLength, String> bases = new HashMap<>();
+            for (String signal : selected) {
+                OffsetLength ol = tableReader.getSignalOffsetLength(signal);
+                if (ol != null && ol.getLength() != 0 && tableReader.getSignalTransform(signal).isEmpty()) {
+                    bases.putIfAbsent(ol, signal);
+                }
+            }
+            for (String signal : selected) {
+                String base = bases.get(tableReader.getSignalOffsetLength(signal));
+                if (base == null || base.equals(signal)) {
+                    signals.add(signal);
+                } else {
+                    aliases.put(signal, base);
+                }
+            }
+            MeldWriter.MeldTableWriter newTable = (MeldWriter.MeldTableWriter) writer.addTable(table.getName(), signals.toArray(new String[0]));
+            for (Map.Entry<String, String> alias : aliases.entrySet()) {
+                newTable.addAlias(alias.getKey(), alias.getValue(), tableReader.getSignalTransform(alias.getKey()));
+            }
+            for (Map.Entry<String, Object> entry : table.getTableMeta().entrySet()) {
+                newTable.addMeta(entry.getKey(), entry.getValue());
+            }
+            for (String alias : aliases.keySet()) {
+                for (Map.Entry<String, Object> entry : table.getSignalMeta(alias).entrySet()) {
+                    newTable.addSignalMeta(alias, entry.getKey(), entry.getValue());
+                }
+            }
+            for (String signal : signals) {
+                for (Map.Entry<String, Object> entry : table.getSignalMeta(signal).entrySet()) {
+                    newTable.addSignalMeta(signal, entry.getKey(), entry.getValue());
+                }
+                String transform = tableReader.getSignalTransform(signal);
+                if (!transform.isEmpty()) {
+                    newTable.setSignalTransform(signal, transform);
+                }
+                OffsetLength ol = tableReader.getSignalOffsetLength(signal);
+                if (ol != null && ol.getOffset() != 0 && ol.getLength() != 0) {
+                    extracted.add(new ExtractedSignal(newTable, signal, ol));
+                }
+            }
+        }
+        writer.finalizeDefinitions();
+        writer.flush();
+        // Copy the data in file order, so the source is read sequentially
+        extracted.sort(Comparator.comparingInt((ExtractedSignal e) -> e.ol.getOffset()));
+        RandomAccessResource resource = reader.getResource();
+        for (ExtractedSignal e : extracted) {
+            if (resource instanceof FileRandomAccessResource) {
+                FileChannel channel = ((FileRandomAccessResource) resource).getChannel();
+                channel.position(e.ol.getOffset());
+                e.table.transferSignal(e.signal, channel, e.ol.getLength());
+            } else {
+                byte[] bytes = new byte[e.ol.getLength()];
+                if (bytes.length != resource.read(e.ol.getOffset(), bytes)) {
+                    throw new ReconException("Failed to read signal " + e.signal);
+                }
+                e.table.transferSignal(e.signal, Channels.newChannel(new ByteArrayInputStream(bytes)), bytes.length);
+            }
+        }
+        // Write
+        writer.close();
+        reader.close();
+    }
+
     public static void csv2wall(CSVParser reader, Function<String, String> headerExtractor, Function<String, Object> valueExtractor, WallWriter writer) throws ReconException, IOException {
         ReconTable table = writer.addTable("csv", Iterables.toArray(Iterables.transform(reader.getHeaderMap().keySet(), headerExtractor), String.class));
         writer.finalizeDefinitions();
         writer.flush();
+        int rows = 0;
         for (CSVRecord row : reader) {
             table.addRow(Iterators.toArray(Iterators.transform(row.iterator(), valueExtractor), Object.class));
-            writer.flush();
+            if (++rows % 4096 == 0) {
+                writer.flush();
+            }
         }
         writer.close();
     }
@@ -127,18 +360,65 @@ public class Meld {
         ReconTable table = writer.addTable("csv", Iterables.toArray(Iterables.transform(reader.getHeaderMap().keySet(), headerExtractor), String.class));
         writer.finalizeDefinitions();
         writer.flush();
-        List<CSVRecord> rows = reader.getRecords();
-        for (String column : reader.getHeaderMap().keySet()) {
-            List<Object> values = new ArrayList<>(rows.size());
-            rows.stream().map((row) -> row.get(column)).forEachOrdered((entry) -> {
-                values.add(valueExtractor.apply(entry));
-            });
-            table.setSignal(headerExtractor.apply(column), values.toArray());
+        // Read the records once, keeping only the converted values of each column
+        List<String> columns = new ArrayList<>(reader.getHeaderMap().keySet());
+        List<List<Object>> values = new ArrayList<>(columns.size());
+        for (String column : columns) {
+            values.add(new ArrayList<>());
+        }
+        for (CSVRecord row : reader) {
+            for (int i = 0; i < columns.size(); i++) {
+                values.get(i).add(valueExtractor.apply(row.get(columns.get(i))));
+            }
+        }
+        for (int i = 0; i < columns.size(); i++) {
+            table.setSignal(headerExtractor.apply(columns.get(i)), values.get(i).toArray());
+            values.set(i, null);
             writer.flush();
         }
         writer.close();
     }
 
+    /**
+     * Imports a delimited file of numbers with a header line into a table
+     * named csv, parsing it in parallel straight into columns of doubles.
+     *
+     * @param csv
+     * @param delimiter
+     * @param headerExtractor
+     * @param writer
+     * @throws IOException
+     * @throws ReconException
+     * @see CSVImporter
+     */
+    public static void csv2meld(File csv, char delimiter, Function<String, String> headerExtractor, MeldWriter writer) throws IOException, ReconException {
+        CSVImporter importer = new CSVImporter();
+        importer.setDelimiter(delimiter);
+        importer.setHeaderExtractor(headerExtractor);
+        importer.importMeld(csv, writer);
+    }
+
+    /**
+     * Exports the signals of a meld table as delimited text, for example CSV
+     * with ',' or TSV with '\t'
+     *
+     * @param meld
+     * @param table
+     * @param signals
+     * @param delimiter
+     * @param out
+     * @throws IOException
+     * @throws ReconException
+     * @see CSVExporter
+     */
+    public static void meld2csv(File meld, String table, List<String> signals, char delimiter, File out) throws IOException, ReconException {
+        try (MeldReader reader = new MeldReader(meld)) {
+            CSVExporter exporter = new CSVExporter();
+            exporter.setDelimiter(delimiter);
+            exporter.export(reader.findTable(table), signals, out);
+        }
+    }
+
     public static Function<String, String> defaultHeaderExtractor() {
         return Functions.identity();
     }
@@ -146,4 +426,17 @@ public class Meld {
     public static Function<String, Object> defaultValueExtractor() {
         return (String f) -> Double.valueOf(f);
     }
+
+    private static class ExtractedSignal {
+
+        private final MeldWriter.MeldTableWriter table;
+        private final String signal;
+        private final OffsetLength ol;
+
+        ExtractedSignal(MeldWriter.MeldTableWriter table, String signal, OffsetLength ol) {
+            this.table = table;
+            this.signal = signal;
+            this.ol = ol;
+        }
+    }
 }
@@ -24,18 +24,39 @@
 package com.github.harmanpa.jrecon;
 
 import com.github.harmanpa.jrecon.exceptions.ReconException;
+import com.github.harmanpa.jrecon.io.AsyncIO;
 import com.github.harmanpa.jrecon.io.FileRandomAccessResource;
+import com.github.harmanpa.jrecon.io.MappedFileRandomAccessResource;
 import com.github.harmanpa.jrecon.io.RandomAccessResource;
 import com.github.harmanpa.jrecon.utils.Compression;
+import com.github.harmanpa.jrecon.utils.NameTrie;
+import com.github.harmanpa.jrecon.utils.PackedDoubles;
 import com.github.harmanpa.jrecon.utils.Transforms;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import com.google.common.collect.ObjectArrays;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 import org.msgpack.core.MessagePack;
 import org.msgpack.core.MessageUnpacker;
 
@@ -45,20 +66,104 @@ import org.msgpack.core.MessageUnpacker;
  */
 public class MeldReader extends ReconReader {
 
+    private static final int MAX_COALESCED_LENGTH = 64 * 1024 * 1024;
     private final RandomAccessResource resource;
+    private int coalesceGap = 8 * 1024;
+    private int headerPrefetch = 64 * 1024;
+    private byte[] headerPrefix;
+    private boolean lazyHeader = false;
+    private byte[] headerBytes;
+    private SignalCache signalCache;
 
     public MeldReader(File file) throws FileNotFoundException {
         this(new FileRandomAccessResource(file));
     }
     
     public MeldReader(RandomAccessResource resource) {
+        this(resource, null);
+    }
+
+    /**
+     * Creates a reader which keeps decoded signals in the given cache, which
+     * may be shared with other readers of the same file.
+     *
+     * @param resource
+     * @param signalCache
+     */
+    public MeldReader(RandomAccessResource resource, SignalCache signalCache) {
         this.resource = resource;
+        this.signalCache = signalCache;
+        if (signalCache != null) {
+            signalCache.retain();
+        }
     }
 
     public RandomAccessResource getResource() {
         return resource;
     }
 
+    public SignalCache getSignalCache() {
+        return signalCache;
+    }
+
+    public void setSignalCache(SignalCache signalCache) {
+        if (this.signalCache != null) {
+            this.signalCache.release();
+        }
+        this.signalCache = signalCache;
+        if (signalCache != null) {
+            signalCache.retain();
+        }
+    }
+
+    public int getCoalesceGap() {
+        return coalesceGap;
+    }
+
+    /**
+     * Sets the number of unwanted bytes that may lie between two signals for
+     * them to be fetched with a single read when reading several signals at
+     * once. Larger values mean fewer, larger reads, which suits remote
+     * resources.
+     *
+     * @param coalesceGap
+     */
+    public void setCoalesceGap(int coalesceGap) {
+        this.coalesceGap = coalesceGap;
+    }
+
+    public int getHeaderPrefetch() {
+        return headerPrefetch;
+    }
+
+    /**
+     * Sets the number of bytes fetched by the first read of the file. When the
+     * whole header lies within them it is parsed without a second read, which
+     * saves a round trip on remote resources. Defaults to 64 KB.
+     *
+     * @param headerPrefetch
+     */
+    public void setHeaderPrefetch(int headerPrefetch) {
+        this.headerPrefetch = headerPrefetch;
+    }
+
+    public boolean isLazyHeader() {
+        return lazyHeader;
+    }
+
+    /**
+     * In lazy mode reading the header only locates the definition of each
+     * table. The signal names and offsets of a table are decoded when first
+     * needed, and the metadata of each signal only when it is requested, which
+     * makes opening melds with very many signals much cheaper. Must be set
+     * before the header is read.
+     *
+     * @param lazyHeader
+     */
+    public void setLazyHeader(boolean lazyHeader) {
+        this.lazyHeader = lazyHeader;
+    }
+
     @Override
     protected final String getFileTypeString() {
         return "recon:meld:v01";
@@ -66,18 +171,33 @@ public class MeldReader extends ReconReader {
 
     @Override
     protected final byte[] readFixedHeaderBytes() throws IOException {
-        byte[] fixed = new byte[18];
-        if (18 != this.resource.read(0L, fixed)) {
+        byte[] prefix = new byte[Math.max(18, headerPrefetch)];
+        int n = this.resource.read(0L, prefix);
+        if (n < 18) {
             throw new IOException("Could not read fixed header");
         }
-        return fixed;
+        headerPrefix = n == prefix.length ? prefix : Arrays.copyOf(prefix, n);
+        return Arrays.copyOf(prefix, 18);
     }
 
     @Override
     protected final byte[] readVariableHeaderBytes(int size) throws IOException {
         byte[] variableHeaderBytes = new byte[size];
-        if (size != this.resource.read(18L, variableHeaderBytes)) {
-            throw new IOException("Could not read variable header");
+        // Use whatever part of the header was fetched along with the fixed header
+        int prefetched = headerPrefix == null ? 0 : Math.max(0, Math.min(size, headerPrefix.length - 18));
+        if (prefetched > 0) {
+            System.arraycopy(headerPrefix, 18, variableHeaderBytes, 0, prefetched);
+        }
+        headerPrefix = null;
+        if (prefetched < size) {
+            byte[] remainder = new byte[size - prefetched];
+            if (remainder.length != this.resource.read(18L + prefetched, remainder)) {
+                throw new IOException("Could not read variable header");
+            }
+            System.arraycopy(remainder, 0, variableHeaderBytes, prefetched, remainder.length);
+        }
+        if (lazyHeader) {
+            headerBytes = variableHeaderBytes;
         }
         return variableHeaderBytes;
     }
@@ -86,9 +206,10 @@ public class MeldReader extends ReconReader {
     protected final ReconTable visitTable(String name, MessageUnpacker unpacker) throws IOException {
         Map<String, Object> tableMeta = new HashMap<>();
         Map<String, Map<String, Object>> signalMeta = new HashMap<>();
-        List<String> signals = new ArrayList<>();
-        Map<String, OffsetLength> offsets = new HashMap<>();
-        Map<String, String> transforms = new HashMap<>();
+        TableIndex index = new TableIndex();
+        int varsPosition = -1;
+        int toffPosition = -1;
+        int vmetaPosition = -1;
         int mapLength = unpacker.unpackMapHeader();
         for (int i = 0; i < mapLength; i++) {
             String entryName = unpacker.unpackString();
@@ -99,53 +220,69 @@ public class MeldReader extends ReconReader {
                     tableMeta.putAll(visitMetaMap(unpacker));
                     break;
                 case "vars":
-                    {
-                        int nSignals = unpacker.unpackArrayHeader();
-                        for (int j = 0; j < nSignals; j++) {
-                            signals.add(unpacker.unpackString());
-                        }       break;
+                    if (lazyHeader) {
+                        varsPosition = skipSection(unpacker);
+                    } else {
+                        index.visitSignals(unpacker);
                     }
+                    break;
                 case "toff":
-                    int nVariables = unpacker.unpackMapHeader();
-                    for (int j = 0; j < nVariables; j++) {
-                        String variable = unpacker.unpackString();
-                        int index = 0;
-                        int length = 0;
-                        String transform = "";
-                        int nData = unpacker.unpackMapHeader();
-                        for (int k = 0; k < nData; k++) {
-                            String variableData = unpacker.unpackString();
-                            if (null != variableData) switch (variableData) {
-                                case "i":
-                                    index = unpacker.unpackInt();
-                                    break;
-                                case "l":
-                                    length = unpacker.unpackInt();
-                                    break;
-                                case "t":
-                                    transform = unpacker.unpackString();
-                                    break;
-                                default:
-                                    break;
-                            }
-                        }
-                        offsets.put(variable, new OffsetLength(index, length));
-                        transforms.put(variable, transform);
-                    }   break;
+                    if (lazyHeader) {
+                        toffPosition = skipSection(unpacker);
+                    } else {
+                        index.visitOffsets(unpacker);
+                    }
+                    break;
                 case "vmeta":
-                    {
+                    if (lazyHeader) {
+                        vmetaPosition = skipSection(unpacker);
+                    } else {
                         int nSignals = unpacker.unpackMapHeader();
                         for (int j = 0; j < nSignals; j++) {
                             String signal = unpacker.unpackString();
                             Map<String, Object> map = visitMetaMap(unpacker);
                             signalMeta.put(signal, map);
-                        }       break;
+                        }
                     }
+                    break;
                 default:
                     throw new IOException("Unknown field " + entryName + " in defintion of table " + name);
             }
         }
-        return new MeldTableReader(name, signals.toArray(new String[0]), offsets, transforms, tableMeta, signalMeta);
+        if (lazyHeader) {
+            final byte[] header = headerBytes;
+            final int vars = varsPosition;
+            final int toff = toffPosition;
+            return new MeldTableReader(name, tableMeta, Suppliers.memoize(() -> {
+                TableIndex lazyIndex = new TableIndex();
+                try {
+                    if (vars >= 0) {
+                        try (MessageUnpacker sectionUnpacker = newHeaderUnpacker(header, vars)) {
+                            lazyIndex.visitSignals(sectionUnpacker);
+                        }
+                    }
+                    if (toff >= 0) {
+                        try (MessageUnpacker sectionUnpacker = newHeaderUnpacker(header, toff)) {
+                            lazyIndex.visitOffsets(sectionUnpacker);
+                        }
+                    }
+                } catch (IOException ex) {
+                    throw new UncheckedIOException("Could not read definition of table " + name, ex);
+                }
+                return lazyIndex.build();
+            }), new LazySignalMeta(header, vmetaPosition));
+        }
+        return new MeldTableReader(name, tableMeta, Suppliers.ofInstance(index.build()), signalMeta::get);
+    }
+
+    private static int skipSection(MessageUnpacker unpacker) throws IOException {
+        int position = (int) unpacker.getTotalReadBytes();
+        unpacker.skipValue();
+        return position;
+    }
+
+    private static MessageUnpacker newHeaderUnpacker(byte[] header, int position) {
+        return MessagePack.newDefaultUnpacker(header, position, header.length - position);
     }
 
     @Override
@@ -177,29 +314,309 @@ public class MeldReader extends ReconReader {
     }
 
     protected <T> T[] readSignal(Class<T> t, OffsetLength offsetLength) throws ReconException {
+        try {
+            return decodeSignal(t, readSignalBuffer(offsetLength));
+        } catch (IOException ex) {
+            throw new ReconException("Failed to read signal", ex);
+        }
+    }
+
+    /**
+     * Reads a numeric signal into a primitive array, without boxing.
+     *
+     * @param offsetLength
+     * @return
+     * @throws ReconException
+     */
+    protected double[] readDoubleSignal(OffsetLength offsetLength) throws ReconException {
+        try {
+            return decodeDoubleSignal(readSignalBuffer(offsetLength));
+        } catch (IOException ex) {
+            throw new ReconException("Failed to read signal", ex);
+        }
+    }
+
+    private ByteBuffer readSignalBuffer(OffsetLength offsetLength) throws ReconException, IOException {
         if (offsetLength.getOffset() == 0 || offsetLength.getLength() == 0) {
             throw new ReconException("Cannot read signal as offset and length invalid " + offsetLength);
         }
+        if (resource instanceof MappedFileRandomAccessResource) {
+            return ((MappedFileRandomAccessResource) resource).slice(offsetLength.getOffset(), offsetLength.getLength());
+        }
+        byte[] bytes = new byte[offsetLength.getLength()];
+        if (offsetLength.getLength() == resource.read(offsetLength.getOffset(), bytes)) {
+            return ByteBuffer.wrap(bytes);
+        }
+        throw new ReconException("Failed to read signal at location");
+    }
+
+    /**
+     * Reads a signal of a table, from the signal cache if there is one.
+     * Signals sharing the same data, such as aliases, share a cache entry.
+     *
+     * @param <T>
+     * @param t
+     * @param table
+     * @param offsetLength
+     * @return
+     * @throws ReconException
+     */
+    protected <T> T[] readSignal(Class<T> t, String table, OffsetLength offsetLength) throws ReconException {
+        if (signalCache == null) {
+            return readSignal(t, offsetLength);
+        }
+        return copySignal(t, signalCache.get(table, offsetLength, () -> readSignal(Object.class, offsetLength)));
+    }
+
+    /**
+     * Copies cached data, which is an array of float64 values if it was read
+     * as one, and otherwise of boxed values
+     */
+    private static <T> T[] copySignal(Class<T> t, Object data) {
+        if (data instanceof double[]) {
+            double[] values = (double[]) data;
+            T[] out = ObjectArrays.newArray(t, values.length);
+            for (int i = 0; i < values.length; i++) {
+                out[i] = (T) Double.valueOf(values[i]);
+            }
+            return out;
+        }
+        Object[] values = (Object[]) data;
+        T[] out = ObjectArrays.newArray(t, values.length);
+        System.arraycopy(values, 0, out, 0, values.length);
+        return out;
+    }
+
+    /**
+     * Reads a signal to put in the signal cache, as an array of float64
+     * values if it holds them, which also serves boxed reads, and otherwise
+     * as boxed values
+     */
+    private Object readCachedSignal(OffsetLength offsetLength) throws ReconException {
         try {
-            byte[] bytes = new byte[offsetLength.getLength()];
-            if (offsetLength.getLength() == resource.read(offsetLength.getOffset(), bytes)) {
-                if (isCompressed()) {
-                    bytes = Compression.decompress(bytes);
+            ByteBuffer data = uncompressSignal(readSignalBuffer(offsetLength));
+            double[] out = PackedDoubles.unpack(data);
+            return out == null ? unpackSignal(Object.class, data) : out;
+        } catch (IOException ex) {
+            throw new ReconException("Failed to read signal", ex);
+        }
+    }
+
+    /**
+     * Reads the data of several signals, merging signals which are adjacent or
+     * within the coalesce gap of each other in the file into a single range,
+     * then reading all ranges with one batched read of the resource. Each
+     * returned buffer covers exactly the data of its signal.
+     *
+     * @param offsetLengths
+     * @return
+     * @throws ReconException
+     */
+    protected Map<OffsetLength, ByteBuffer> readSignalBytes(Collection<OffsetLength> offsetLengths) throws ReconException {
+        Map<OffsetLength, ByteBuffer> out = new HashMap<>();
+        if (resource instanceof MappedFileRandomAccessResource) {
+            // Nothing to gain by merging reads, use views of the mapping
+            return sliceSignalBytes(sortSignalReads(offsetLengths));
+        }
+        List<List<OffsetLength>> groups = groupSignalReads(sortSignalReads(offsetLengths));
+        long[] locations = new long[groups.size()];
+        byte[][] bytes = new byte[groups.size()][];
+        for (int i = 0; i < locations.length; i++) {
+            locations[i] = groups.get(i).get(0).getOffset();
+            bytes[i] = newGroupBytes(groups.get(i));
+        }
+        try {
+            // Remote resources may fetch all the groups in one request
+            int[] read = resource.read(locations, bytes);
+            for (int i = 0; i < locations.length; i++) {
+                if (read[i] != bytes[i].length) {
+                    throw new ReconException("Failed to read signals at location");
                 }
-                T[] out;
-                try (MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(bytes)) {
-                    int arrayLength = unpacker.unpackArrayHeader();
-                    out = ObjectArrays.newArray(t, arrayLength);
-                    for (int i = 0; i < arrayLength; i++) {
-                        out[i] = (T) readObject(unpacker);
+                splitGroup(groups.get(i), bytes[i], out);
+            }
+        } catch (IOException ex) {
+            throw new ReconException("Failed to read signals", ex);
+        }
+        return out;
+    }
+
+    /**
+     * Reads as {@link #readSignalBytes(java.util.Collection)}, issuing the
+     * merged reads concurrently through
+     * {@link RandomAccessResource#readAsync(long, byte[])}.
+     *
+     * @param offsetLengths
+     * @return
+     */
+    protected CompletableFuture<Map<OffsetLength, ByteBuffer>> readSignalBytesAsync(Collection<OffsetLength> offsetLengths) {
+        try {
+            if (resource instanceof MappedFileRandomAccessResource) {
+                return CompletableFuture.completedFuture(sliceSignalBytes(sortSignalReads(offsetLengths)));
+            }
+            List<List<OffsetLength>> groups = groupSignalReads(sortSignalReads(offsetLengths));
+            Map<OffsetLength, ByteBuffer> out = new ConcurrentHashMap<>();
+            CompletableFuture<?>[] reads = new CompletableFuture<?>[groups.size()];
+            for (int i = 0; i < reads.length; i++) {
+                List<OffsetLength> group = groups.get(i);
+                byte[] bytes = newGroupBytes(group);
+                reads[i] = resource.readAsync(group.get(0).getOffset(), bytes).thenAccept((Integer n) -> {
+                    if (n != bytes.length) {
+                        throw new CompletionException(new ReconException("Failed to read signals at location"));
                     }
+                    splitGroup(group, bytes, out);
+                });
+            }
+            return CompletableFuture.allOf(reads).thenApply((Void v) -> out);
+        } catch (ReconException ex) {
+            return AsyncIO.failed(ex);
+        }
+    }
+
+    private static TreeSet<OffsetLength> sortSignalReads(Collection<OffsetLength> offsetLengths) throws ReconException {
+        TreeSet<OffsetLength> sorted = new TreeSet<>((OffsetLength a, OffsetLength b) -> a.getOffset() != b.getOffset()
+                ? Integer.compare(a.getOffset(), b.getOffset()) : Integer.compare(a.getLength(), b.getLength()));
+        for (OffsetLength ol : offsetLengths) {
+            if (ol.getOffset() == 0 || ol.getLength() == 0) {
+                throw new ReconException("Cannot read signal as offset and length invalid " + ol);
+            }
+            sorted.add(ol);
+        }
+        return sorted;
+    }
+
+    private Map<OffsetLength, ByteBuffer> sliceSignalBytes(Collection<OffsetLength> sorted) throws ReconException {
+        Map<OffsetLength, ByteBuffer> out = new HashMap<>();
+        try {
+            for (OffsetLength ol : sorted) {
+                out.put(ol, ((MappedFileRandomAccessResource) resource).slice(ol.getOffset(), ol.getLength()));
+            }
+        } catch (IOException ex) {
+            throw new ReconException("Failed to read signals", ex);
+        }
+        return out;
+    }
+
+    private List<List<OffsetLength>> groupSignalReads(Collection<OffsetLength> sorted) {
+        List<List<OffsetLength>> groups = new ArrayList<>();
+        List<OffsetLength> group = new ArrayList<>();
+        long groupEnd = 0;
+        for (OffsetLength ol : sorted) {
+            long end = (long) ol.getOffset() + ol.getLength();
+            if (!group.isEmpty()
+                    && (ol.getOffset() > groupEnd + coalesceGap || Math.max(end, groupEnd) - group.get(0).getOffset() > MAX_COALESCED_LENGTH)) {
+                groups.add(group);
+                group = new ArrayList<>();
+            }
+            group.add(ol);
+            groupEnd = group.size() == 1 ? end : Math.max(groupEnd, end);
+        }
+        if (!group.isEmpty()) {
+            groups.add(group);
+        }
+        return groups;
+    }
+
+    private static byte[] newGroupBytes(List<OffsetLength> group) {
+        long end = 0;
+        for (OffsetLength ol : group) {
+            end = Math.max(end, (long) ol.getOffset() + ol.getLength());
+        }
+        return new byte[(int) (end - group.get(0).getOffset())];
+    }
+
+    private static void splitGroup(List<OffsetLength> group, byte[] bytes, Map<OffsetLength, ByteBuffer> out) {
+        int start = group.get(0).getOffset();
+        for (OffsetLength ol : group) {
+            out.put(ol, ByteBuffer.wrap(bytes, ol.getOffset() - start, ol.getLength()).slice());
+        }
+    }
+
+    /**
+     * Decodes the data of a signal from the remaining bytes of the buffer.
+     *
+     * @param <T>
+     * @param t
+     * @param bytes
+     * @return
+     * @throws IOException
+     */
+    protected <T> T[] decodeSignal(Class<T> t, ByteBuffer bytes) throws IOException {
+        ByteBuffer data = uncompressSignal(bytes);
+        if (t.isAssignableFrom(Double.class)) {
+            double[] doubles = PackedDoubles.unpack(data);
+            if (doubles != null) {
+                T[] out = ObjectArrays.newArray(t, doubles.length);
+                for (int i = 0; i < doubles.length; i++) {
+                    out[i] = (T) Double.valueOf(doubles[i]);
                 }
                 return out;
             }
-            throw new ReconException("Failed to read signal at location");
-        } catch (IOException ex) {
-            throw new ReconException("Failed to read signal", ex);
         }
+        return unpackSignal(t, data);
+    }
+
+    private <T> T[] unpackSignal(Class<T> t, ByteBuffer data) throws IOException {
+        T[] out;
+        try (MessageUnpacker unpacker = newSignalUnpacker(data)) {
+            int arrayLength = unpacker.unpackArrayHeader();
+            out = ObjectArrays.newArray(t, arrayLength);
+            for (int i = 0; i < arrayLength; i++) {
+                out[i] = (T) readObject(unpacker);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Decodes the data of a numeric signal from the remaining bytes of the
+     * buffer into a primitive array. Arrays of float64 values, which most
+     * signals are, are read directly, others through the generic decoder.
+     *
+     * @param bytes
+     * @return
+     * @throws IOException
+     */
+    protected double[] decodeDoubleSignal(ByteBuffer bytes) throws IOException {
+        ByteBuffer data = uncompressSignal(bytes);
+        double[] out = PackedDoubles.unpack(data);
+        return out == null ? toDoubles(unpackSignal(Object.class, data)) : out;
+    }
+
+    private static double[] toDoubles(Object[] data) throws IOException {
+        double[] out = new double[data.length];
+        for (int i = 0; i < data.length; i++) {
+            if (!(data[i] instanceof Number)) {
+                throw new IOException("Signal is not numeric, found " + data[i]);
+            }
+            out[i] = ((Number) data[i]).doubleValue();
+        }
+        return out;
+    }
+
+    private ByteBuffer uncompressSignal(ByteBuffer bytes) throws IOException {
+        if (!isCompressed()) {
+            return bytes;
+        }
+        if (bytes.hasArray()) {
+            return ByteBuffer.wrap(Compression.decompress(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining()));
+        }
+        byte[] compressed = new byte[bytes.remaining()];
+        bytes.duplicate().get(compressed);
+        return ByteBuffer.wrap(Compression.decompress(compressed));
+    }
+
+    private MessageUnpacker newSignalUnpacker(ByteBuffer bytes) throws IOException {
+        if (bytes.hasArray()) {
+            return MessagePack.newDefaultUnpacker(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+        }
+        if (bytes.isDirect()) {
+            // Direct and mapped buffers are read in place
+            return MessagePack.newDefaultUnpacker(bytes.slice());
+        }
+        // Read-only heap buffers expose no array, so are copied
+        byte[] copy = new byte[bytes.remaining()];
+        bytes.duplicate().get(copy);
+        return MessagePack.newDefaultUnpacker(copy);
     }
 
     protected Map<String, Object> readObject(OffsetLength offsetLength) throws ReconException {
@@ -223,18 +640,38 @@ public class MeldReader extends ReconReader {
 
     @Override
     public void close() throws IOException {
+        if (signalCache != null) {
+            signalCache.release();
+            signalCache = null;
+        }
         resource.close();
     }
 
     class MeldTableReader extends ReconTableReader {
 
-        private final Map<String, OffsetLength> offsets;
-        private final Map<String, String> transforms;
+        private final Supplier<TableIndex> index;
+        private final Function<String, Map<String, Object>> signalMeta;
 
-        MeldTableReader(String name, String[] signals, Map<String, OffsetLength> offsets, Map<String, String> transforms, Map<String, Object> meta, Map<String, Map<String, Object>> signalMeta) {
-            super(name, signals, meta, signalMeta);
-            this.offsets = offsets;
-            this.transforms = transforms;
+        MeldTableReader(String name, Map<String, Object> meta, Supplier<TableIndex> index, Function<String, Map<String, Object>> signalMeta) {
+            super(name, meta);
+            this.index = index;
+            this.signalMeta = signalMeta;
+        }
+
+        @Override
+        public String[] getSignals() {
+            return index.get().getSignals();
+        }
+
+        @Override
+        public NameTrie getSignalTree() {
+            return index.get().getNames();
+        }
+
+        @Override
+        public Map<String, Object> getSignalMeta(String signal) {
+            Map<String, Object> out = signalMeta.apply(signal);
+            return out == null ? new HashMap<>() : out;
         }
 
         @Override
@@ -249,20 +686,435 @@ public class MeldReader extends ReconReader {
 
         @Override
         public Object[] getSignal(String signal) throws ReconException {
-            OffsetLength ol = offsets.get(signal);
+            OffsetLength ol = getSignalOffsetLength(signal);
             if (ol == null) {
                 throw new ReconException("Signal " + signal + " not found");
             }
-            return Transforms.applyArray(Object.class, readSignal(Object.class, ol), transforms.containsKey(signal) ? transforms.get(signal) : "");
+            return Transforms.compile(getSignalTransform(signal)).applyInPlace(readSignal(Object.class, getName(), ol));
         }
 
         @Override
         public <T> T[] getSignal(String signal, Class<T> c) throws ReconException {
-            OffsetLength ol = offsets.get(signal);
+            OffsetLength ol = getSignalOffsetLength(signal);
+            if (ol == null) {
+                throw new ReconException("Signal " + signal + " not found");
+            }
+            return Transforms.compile(getSignalTransform(signal)).applyInPlace(readSignal(c, getName(), ol));
+        }
+
+        /**
+         * Reads a numeric signal straight into a primitive array, using the
+         * signal cache only if the signal is already in it.
+         *
+         * @param signal
+         * @return
+         * @throws ReconException
+         */
+        @Override
+        public double[] getDoubleSignal(String signal) throws ReconException {
+            OffsetLength ol = getSignalOffsetLength(signal);
             if (ol == null) {
                 throw new ReconException("Signal " + signal + " not found");
             }
-            return Transforms.applyArray(c, readSignal(c, ol), transforms.containsKey(signal) ? transforms.get(signal) : "");
+            if (signalCache == null) {
+                double[] out = readDoubleSignal(ol);
+                Transforms.compile(getSignalTransform(signal)).applyInPlace(out);
+                return out;
+            }
+            Object cached = signalCache.get(getName(), ol, () -> readCachedSignal(ol));
+            double[] out;
+            try {
+                out = cached instanceof double[] ? ((double[]) cached).clone() : toDoubles((Object[]) cached);
+            } catch (IOException ex) {
+                throw new ReconException("Failed to read signal " + signal, ex);
+            }
+            Transforms.compile(getSignalTransform(signal)).applyInPlace(out);
+            return out;
+        }
+
+        /**
+         * Returns the number of values of a signal if it can be read by row,
+         * the meld being uncompressed and the signal holding float64 values,
+         * otherwise -1. Only the array header is read.
+         *
+         * @param signal
+         * @return
+         * @throws ReconException
+         */
+        int getPackedSignalLength(String signal) throws ReconException {
+            OffsetLength ol = getSignalOffsetLength(signal);
+            if (ol == null) {
+                throw new ReconException("Signal " + signal + " not found");
+            }
+            ByteBuffer head = readPackedHeader(ol);
+            return head == null ? -1 : PackedDoubles.count(head, ol.getLength());
+        }
+
+        /**
+         * Reads the values of a numeric signal from row from to row to. When
+         * the meld is uncompressed and the signal holds float64 values, which
+         * have a fixed stride, only those rows are read, otherwise the whole
+         * signal is.
+         *
+         * @param signal
+         * @param from
+         * @param to
+         * @return
+         * @throws ReconException
+         */
+        double[] getDoubleSignal(String signal, int from, int to) throws ReconException {
+            OffsetLength ol = getSignalOffsetLength(signal);
+            if (ol == null) {
+                throw new ReconException("Signal " + signal + " not found");
+            }
+            ByteBuffer head = readPackedHeader(ol);
+            if (head != null && from >= 0 && to <= PackedDoubles.count(head, ol.getLength())) {
+                try {
+                    long start = ol.getOffset() + PackedDoubles.headerLength(head);
+                    byte[] bytes = new byte[(int) (PackedDoubles.offset(to) - PackedDoubles.offset(from))];
+                    double[] out = new double[to - from];
+                    if (bytes.length == resource.read(start + PackedDoubles.offset(from), bytes)
+                            && PackedDoubles.unpack(ByteBuffer.wrap(bytes), out, 0, out.length)) {
+                        Transforms.compile(getSignalTransform(signal)).applyInPlace(out);
+                        return out;
+                    }
+                } catch (IOException ex) {
+                    throw new ReconException("Failed to read signal " + signal, ex);
+                }
+            }
+            // Values of other types, which may still be numeric
+            return Arrays.copyOfRange(getDoubleSignal(signal), from, to);
+        }
+
+        /**
+         * Returns the start of a signal's data if it may be read by row, being
+         * uncompressed and of the length of an array of float64 values
+         */
+        private ByteBuffer readPackedHeader(OffsetLength ol) throws ReconException {
+            if (isCompressed()) {
+                return null;
+            }
+            try {
+                byte[] bytes = new byte[Math.min(5, ol.getLength())];
+                if (bytes.length != resource.read(ol.getOffset(), bytes)) {
+                    throw new ReconException("Failed to read signal at location");
+                }
+                ByteBuffer head = ByteBuffer.wrap(bytes);
+                return PackedDoubles.count(head, ol.getLength()) < 0 ? null : head;
+            } catch (IOException ex) {
+                throw new ReconException("Failed to read signal", ex);
+            }
+        }
+
+        /**
+         * Reads several signals with as few reads as possible, then decodes
+         * them in parallel.
+         *
+         * @param <T>
+         * @param signals
+         * @param c
+         * @return
+         * @throws ReconException
+         */
+        @Override
+        public <T> Map<String, T[]> getSignals(Collection<String> signals, Class<T> c) throws ReconException {
+            SignalBatch<T> batch = new SignalBatch<>(signals, c);
+            return batch.complete(readSignalBytes(batch.getMissing()));
+        }
+
+        /**
+         * Reads as {@link #getSignals(java.util.Collection, java.lang.Class)}
+         * without blocking, decoding on the thread which completes the reads.
+         *
+         * @param <T>
+         * @param signals
+         * @param c
+         * @return
+         */
+        @Override
+        public <T> CompletableFuture<Map<String, T[]>> getSignalsAsync(Collection<String> signals, Class<T> c) {
+            SignalBatch<T> batch;
+            try {
+                batch = new SignalBatch<>(signals, c);
+            } catch (ReconException ex) {
+                return AsyncIO.failed(ex);
+            }
+            return readSignalBytesAsync(batch.getMissing()).thenApply((Map<OffsetLength, ByteBuffer> bytes) -> {
+                try {
+                    return batch.complete(bytes);
+                } catch (ReconException ex) {
+                    throw new CompletionException(ex);
+                }
+            });
+        }
+
+        @Override
+        public <T> CompletableFuture<T[]> getSignalAsync(String signal, Class<T> c) {
+            return getSignalsAsync(Collections.singletonList(signal), c).thenApply((Map<String, T[]> data) -> data.get(signal));
+        }
+
+        OffsetLength getSignalOffsetLength(String signal) {
+            return index.get().getOffsetLength(signal);
+        }
+
+        String getSignalTransform(String signal) {
+            return index.get().getTransform(signal);
+        }
+
+        /**
+         * The state of a read of several signals, holding any signals found in
+         * the signal cache and the locations of those which must be read.
+         */
+        private class SignalBatch<T> {
+
+            private final Class<T> c;
+            private final SignalCache cache;
+            private final List<String> names;
+            private final List<OffsetLength> ols;
+            private final Object[] decoded;
+            private final Transforms.Transform[] transforms;
+            private final List<Integer> missing;
+
+            SignalBatch(Collection<String> signals, Class<T> c) throws ReconException {
+                this.c = c;
+                this.cache = signalCache;
+                this.names = new ArrayList<>(signals);
+                this.ols = new ArrayList<>(names.size());
+                this.decoded = new Object[names.size()];
+                this.transforms = new Transforms.Transform[names.size()];
+                this.missing = new ArrayList<>(names.size());
+                for (int i = 0; i < names.size(); i++) {
+                    OffsetLength ol = getSignalOffsetLength(names.get(i));
+                    if (ol == null) {
+                        throw new ReconException("Signal " + names.get(i) + " not found");
+                    }
+                    ols.add(ol);
+                    transforms[i] = Transforms.compile(getSignalTransform(names.get(i)));
+                    Object cached = cache == null ? null : cache.getIfPresent(getName(), ol);
+                    if (cached == null) {
+                        missing.add(i);
+                    } else {
+                        decoded[i] = transforms[i].applyInPlace(copySignal(c, cached));
+                    }
+                }
+            }
+
+            List<OffsetLength> getMissing() {
+                List<OffsetLength> out = new ArrayList<>(missing.size());
+                for (int i : missing) {
+                    out.add(ols.get(i));
+                }
+                return out;
+            }
+
+            Map<String, T[]> complete(Map<OffsetLength, ByteBuffer> bytes) throws ReconException {
+                // Aliases share the data of their base signal, which is decoded once
+                Map<OffsetLength, List<Integer>> readers = new LinkedHashMap<>();
+                for (int i : missing) {
+                    readers.computeIfAbsent(ols.get(i), (OffsetLength ol) -> new ArrayList<>(1)).add(i);
+                }
+                AtomicReference<Exception> failure = new AtomicReference<>();
+                readers.entrySet().parallelStream().forEach((Map.Entry<OffsetLength, List<Integer>> entry) -> {
+                    try {
+                        ByteBuffer buffer = bytes.get(entry.getKey()).duplicate();
+                        List<Integer> is = entry.getValue();
+                        // Transformed on the decoding thread while the fresh array is hot
+                        if (cache == null && is.size() == 1) {
+                            decoded[is.get(0)] = transforms[is.get(0)].applyInPlace(decodeSignal(c, buffer));
+                        } else {
+                            Object[] data = decodeSignal(Object.class, buffer);
+                            for (int i : is) {
+                                if (cache != null) {
+                                    cache.put(getName(), entry.getKey(), data);
+                                }
+                                decoded[i] = transforms[i].applyInPlace(copySignal(c, data));
+                            }
+                        }
+                    } catch (IOException | ReconException ex) {
+                        failure.compareAndSet(null, ex);
+                    }
+                });
+                if (failure.get() != null) {
+                    throw new ReconException("Failed to read signals", failure.get());
+                }
+                Map<String, T[]> out = new LinkedHashMap<>();
+                for (int i = 0; i < names.size(); i++) {
+                    out.put(names.get(i), (T[]) decoded[i]);
+                }
+                return out;
+            }
+        }
+    }
+
+    /**
+     * The signal names, data locations and transforms of a table. Aliases
+     * share the data location of the signal they refer to. Names are held once, in a trie, and everything else in arrays indexed by
+     * position in the trie. The array of names is rebuilt from the trie when
+     * asked for, and kept only while memory allows.
+     */
+    static final class TableIndex {
+
+        private String[] signals = new String[0];
+        private List<String> variables = new ArrayList<>();
+        private List<int[]> locations = new ArrayList<>();
+        private List<String> variableTransforms = new ArrayList<>();
+        private NameTrie names;
+        private int nSignals;
+        private String[] duplicated;
+        private volatile SoftReference<String[]> signalNames = new SoftReference<>(null);
+        private int[] offsets;
+        private int[] lengths;
+        private String[] transforms;
+
+        void visitSignals(MessageUnpacker unpacker) throws IOException {
+            int nSignals = unpacker.unpackArrayHeader();
+            signals = new String[nSignals];
+            for (int j = 0; j < nSignals; j++) {
+                signals[j] = unpacker.unpackString();
+            }
+        }
+
+        void visitOffsets(MessageUnpacker unpacker) throws IOException {
+            int nVariables = unpacker.unpackMapHeader();
+            for (int j = 0; j < nVariables; j++) {
+                String variable = unpacker.unpackString();
+                int index = 0;
+                int length = 0;
+                String transform = "";
+                int nData = unpacker.unpackMapHeader();
+                for (int k = 0; k < nData; k++) {
+                    String variableData = unpacker.unpackString();
+                    if (null != variableData) switch (variableData) {
+                        case "i":
+                            index = unpacker.unpackInt();
+                            break;
+                        case "l":
+                            length = unpacker.unpackInt();
+                            break;
+                        case "t":
+                            transform = unpacker.unpackString();
+                            break;
+                        default:
+                            unpacker.skipValue();
+                            break;
+                    }
+                }
+                variables.add(variable);
+                locations.add(new int[]{index, length});
+                variableTransforms.add(transform);
+            }
+        }
+
+        /**
+         * Builds the trie and the arrays once both the names and offsets have
+         * been visited, in whichever order, and drops the decoded strings
+         *
+         * @return
+         */
+        TableIndex build() {
+            List<String> all = new ArrayList<>(signals.length + variables.size());
+            all.addAll(Arrays.asList(signals));
+            all.addAll(variables);
+            names = new NameTrie(all);
+            nSignals = signals.length;
+            if (new HashSet<>(Arrays.asList(signals)).size() != signals.length) {
+                // Names repeated in the header are returned as they were
+                duplicated = signals;
+            }
+            offsets = new int[names.size()];
+            lengths = new int[names.size()];
+            transforms = new String[names.size()];
+            Arrays.fill(offsets, -1);
+            for (int j = 0; j < variables.size(); j++) {
+                int i = names.indexOf(variables.get(j));
+                offsets[i] = locations.get(j)[0];
+                lengths[i] = locations.get(j)[1];
+                transforms[i] = variableTransforms.get(j).isEmpty() ? null : variableTransforms.get(j);
+            }
+            signals = null;
+            variables = null;
+            locations = null;
+            variableTransforms = null;
+            return this;
+        }
+
+        NameTrie getNames() {
+            return names;
+        }
+
+        String[] getSignals() {
+            if (duplicated != null) {
+                return duplicated;
+            }
+            String[] out = signalNames.get();
+            if (out == null) {
+                out = new String[nSignals];
+                for (int i = 0; i < nSignals; i++) {
+                    out[i] = names.getName(i);
+                }
+                signalNames = new SoftReference<>(out);
+            }
+            return out;
+        }
+
+        OffsetLength getOffsetLength(String signal) {
+            int i = names.indexOf(signal);
+            return i < 0 || offsets[i] < 0 ? null : new OffsetLength(offsets[i], lengths[i]);
+        }
+
+        String getTransform(String signal) {
+            int i = names.indexOf(signal);
+            return i < 0 || transforms[i] == null ? "" : transforms[i];
+        }
+    }
+
+    /**
+     * Decodes the metadata of individual signals from the retained header on
+     * request. The first request locates the metadata of every signal of the
+     * table without decoding it.
+     */
+    private final class LazySignalMeta implements Function<String, Map<String, Object>> {
+
+        private final byte[] header;
+        private final int position;
+        private final Supplier<Map<String, Integer>> positions;
+        private final ConcurrentMap<String, Map<String, Object>> decoded = new ConcurrentHashMap<>();
+
+        LazySignalMeta(byte[] header, int position) {
+            this.header = header;
+            this.position = position;
+            this.positions = Suppliers.memoize(this::locate);
+        }
+
+        private Map<String, Integer> locate() {
+            Map<String, Integer> out = new HashMap<>();
+            if (position >= 0) {
+                try (MessageUnpacker unpacker = newHeaderUnpacker(header, position)) {
+                    int nSignals = unpacker.unpackMapHeader();
+                    for (int j = 0; j < nSignals; j++) {
+                        String signal = unpacker.unpackString();
+                        out.put(signal, position + skipSection(unpacker));
+                    }
+                } catch (IOException ex) {
+                    throw new UncheckedIOException("Could not read signal metadata", ex);
+                }
+            }
+            return out;
+        }
+
+        @Override
+        public Map<String, Object> apply(String signal) {
+            Integer signalPosition = positions.get().get(signal);
+            if (signalPosition == null) {
+                return null;
+            }
+            return decoded.computeIfAbsent(signal, (String s) -> {
+                try (MessageUnpacker unpacker = newHeaderUnpacker(header, signalPosition)) {
+                    return visitMetaMap(unpacker);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException("Could not read metadata of signal " + s, ex);
+                }
+            });
         }
     }
 
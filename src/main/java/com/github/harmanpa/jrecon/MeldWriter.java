@@ -27,12 +27,16 @@ import com.github.harmanpa.jrecon.exceptions.FinalizedException;
 import com.github.harmanpa.jrecon.exceptions.ReconException;
 import com.github.harmanpa.jrecon.exceptions.TransposedException;
 import com.github.harmanpa.jrecon.utils.Compression;
+import com.github.harmanpa.jrecon.utils.DoubleColumn;
 import com.github.harmanpa.jrecon.utils.ExpandableByteBuffer;
+import com.github.harmanpa.jrecon.utils.Transforms;
 import com.google.common.collect.ImmutableMap;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
@@ -50,10 +54,12 @@ public class MeldWriter extends ReconWriter {
     private int maximumHeaderSize;
     private RandomAccessFile raf;
     private final boolean comp;
+    private final MessageBufferPacker dataPacker;
 
     public MeldWriter(File file, boolean compressed) {
         super(file);
         this.comp = compressed;
+        this.dataPacker = MessagePack.newDefaultBufferPacker();
     }
 
     public MeldWriter(File file) {
@@ -83,7 +89,12 @@ public class MeldWriter extends ReconWriter {
             return;
         }
         int lengthDifference = 0;
-        bufferPacker.packMapHeader(3);
+        bufferPacker.packMapHeader(comp ? 4 : 3);
+        // Write compression flag, only needed if set
+        if (comp) {
+            bufferPacker.packString("comp");
+            bufferPacker.packBoolean(true);
+        }
         // Write file meta
         bufferPacker.packString("fmeta");
         packMeta(bufferPacker, getFileMeta());
@@ -105,8 +116,9 @@ public class MeldWriter extends ReconWriter {
             bufferPacker.packMapHeader(table.getSignals().length);
             for (String signal : table.getSignals()) {
                 OffsetLength ol = ((MeldTableWriter) table).getSignalOffsetLength(signal);
-                String transform = ((MeldTableWriter) table).getSignalTransform(signal);
+                String transform = ((MeldTableWriter) table).getBaseTransform(signal);
                 bufferPacker.packString(signal);
+                // Aliases take the location of the data of their base signal
                 bufferPacker.packMapHeader(3);
                 bufferPacker.packString("i");
                 lengthDifference += writeIntegerByteDifference(bufferPacker, ol.getOffset());
@@ -212,9 +224,14 @@ public class MeldWriter extends ReconWriter {
 
     @Override
     public void close() throws IOException {
-        super.close();
-        raf.close();
-        raf = null;
+        try {
+            super.close();
+        } finally {
+            if (raf != null) {
+                raf.close();
+                raf = null;
+            }
+        }
     }
 
     private int writeIntegerByteDifference(MessageBufferPacker packer, int value) throws IOException {
@@ -224,6 +241,25 @@ public class MeldWriter extends ReconWriter {
         return diff;
     }
 
+    /**
+     * Appends the data packed into the data packer, compressed if this meld
+     * is, and clears the packer for reuse.
+     *
+     * @return the location and length of the data
+     * @throws IOException
+     */
+    private OffsetLength appendData() throws IOException {
+        int offset = offset();
+        byte[] bytes = dataPacker.toByteArray();
+        dataPacker.clear();
+        if (isCompressed()) {
+            bytes = Compression.compress(bytes);
+        }
+        buffer.put(bytes);
+        setDefinitionsDirty();
+        return new OffsetLength(offset, bytes.length);
+    }
+
     private int offset() throws IOException {
         int offset = buffer.position();
         if (raf != null) {
@@ -236,11 +272,13 @@ public class MeldWriter extends ReconWriter {
 
         private final Map<String, OffsetLength> offsetLengths;
         private final Map<String, String> transforms;
+        private final Map<String, String> aliases;
 
         public MeldTableWriter(String name, Iterable<String> signals) {
             super(name, signals);
             this.offsetLengths = new HashMap<>();
             this.transforms = new HashMap<>();
+            this.aliases = new HashMap<>();
         }
 
         @Override
@@ -254,31 +292,149 @@ public class MeldWriter extends ReconWriter {
             checkSignalExistence(of, true);
             checkSignalExistence(alias, false);
             addSignal(alias);
-            transforms.put(alias, transform);
+            transforms.put(alias, transform == null ? "" : transform);
+            aliases.put(alias, of);
         }
 
         @Override
         public void setSignal(String signal, Object... data) throws ReconException {
+            writeSignal(signal, data);
+        }
+
+        /**
+         * Writes the data of a signal from a primitive array, without boxing.
+         *
+         * @param signal
+         * @param data
+         * @throws ReconException
+         */
+        @Override
+        public void setSignal(String signal, double[] data) throws ReconException {
+            writeSignal(signal, data);
+        }
+
+        /**
+         * Writes the data of a signal from a column, streaming its blocks to
+         * the file so that the column need not be held in memory as a whole.
+         * Compressed melds compress the signal as a whole, so hold its encoded
+         * data in memory.
+         *
+         * @param signal
+         * @param data
+         * @throws ReconException
+         */
+        void setSignal(String signal, DoubleColumn data) throws ReconException {
             checkFinalized();
-            if (offsetLengths.containsKey(signal) && offsetLengths.get(signal).getLength() == 0 && offsetLengths.get(signal).getOffset() == 0) {
+            checkSignalExistence(signal, true);
+            checkNotAlias(signal);
+            if (offsetLengths.containsKey(signal)) {
                 throw new FinalizedException("Signal already written");
             }
+            if (data.size() > Integer.MAX_VALUE) {
+                throw new ReconException("Signal " + signal + " has too many values");
+            }
             try {
-                int offset = offset();
-                MessageBufferPacker packer = MessagePack.newDefaultBufferPacker();
-                packer.packValue(objectToValue(data));
-                byte[] bytes = packer.toByteArray();
+                dataPacker.packArrayHeader((int) data.size());
                 if (isCompressed()) {
-                    bytes = Compression.compress(bytes);
+                    data.forEachBlock((double[] values, int length) -> {
+                        for (int i = 0; i < length; i++) {
+                            dataPacker.packDouble(values[i]);
+                        }
+                    });
+                    offsetLengths.put(signal, appendData());
+                    return;
+                }
+                int offset = offset();
+                long[] length = new long[1];
+                RandomAccessFile randomAccessFile = getRandomAccessFile();
+                data.forEachBlock((double[] values, int n) -> {
+                    for (int i = 0; i < n; i++) {
+                        dataPacker.packDouble(values[i]);
+                    }
+                    byte[] bytes = dataPacker.toByteArray();
+                    dataPacker.clear();
+                    buffer.put(bytes);
+                    length[0] += bytes.length;
+                    if (buffer.position() >= ExpandableByteBuffer.CHUNK_SIZE * 4) {
+                        buffer.writeToRandomAccessFile(randomAccessFile);
+                    }
+                });
+                if (length[0] == 0) {
+                    byte[] bytes = dataPacker.toByteArray();
+                    dataPacker.clear();
+                    buffer.put(bytes);
+                    length[0] = bytes.length;
                 }
-                offsetLengths.put(signal, new OffsetLength(offset, bytes.length));
-                buffer.put(bytes);
+                if (offset + length[0] > Integer.MAX_VALUE) {
+                    throw new ReconException("Signal " + signal + " is too large");
+                }
+                offsetLengths.put(signal, new OffsetLength(offset, (int) length[0]));
                 setDefinitionsDirty();
             } catch (IOException ex) {
+                dataPacker.clear();
+                throw new ReconException("Could not write signal " + signal, ex);
+            }
+        }
+
+        private void writeSignal(String signal, Object data) throws ReconException {
+            checkFinalized();
+            checkNotAlias(signal);
+            if (offsetLengths.containsKey(signal) && offsetLengths.get(signal).getLength() == 0 && offsetLengths.get(signal).getOffset() == 0) {
+                throw new FinalizedException("Signal already written");
+            }
+            try {
+                packObject(dataPacker, data);
+                offsetLengths.put(signal, appendData());
+            } catch (IOException ex) {
+                dataPacker.clear();
                 throw new ReconException("Could not write signal " + getName(), ex);
             }
         }
 
+        /**
+         * Writes the already encoded (and compressed, if this meld is
+         * compressed) data of a signal by transferring length bytes directly
+         * from the source channel to the file.
+         *
+         * @param signal
+         * @param source
+         * @param length
+         * @throws ReconException
+         */
+        void transferSignal(String signal, ReadableByteChannel source, int length) throws ReconException {
+            checkFinalized();
+            checkSignalExistence(signal, true);
+            checkNotAlias(signal);
+            if (offsetLengths.containsKey(signal)) {
+                throw new FinalizedException("Signal already written");
+            }
+            try {
+                RandomAccessFile randomAccessFile = getRandomAccessFile();
+                buffer.writeToRandomAccessFile(randomAccessFile);
+                long position = randomAccessFile.getFilePointer();
+                FileChannel channel = randomAccessFile.getChannel();
+                long transferred = 0;
+                while (transferred < length) {
+                    long n = channel.transferFrom(source, position + transferred, length - transferred);
+                    if (n <= 0) {
+                        throw new IOException("Source ended after " + transferred + " of " + length + " bytes");
+                    }
+                    transferred += n;
+                }
+                randomAccessFile.seek(position + length);
+                offsetLengths.put(signal, new OffsetLength((int) position, length));
+                setDefinitionsDirty();
+            } catch (IOException ex) {
+                throw new ReconException("Could not transfer signal " + signal, ex);
+            }
+        }
+
+        void setSignalTransform(String signal, String transform) throws ReconException {
+            checkNotFinalized();
+            checkSignalExistence(signal, true);
+            transforms.put(signal, transform);
+        }
+
         @Override
         public Alias[] getAliases() {
             return new Alias[0];
@@ -290,12 +446,59 @@ public class MeldWriter extends ReconWriter {
         }
 
         protected OffsetLength getSignalOffsetLength(String signal) {
-            if (offsetLengths.containsKey(signal)) {
-                return offsetLengths.get(signal);
+            String base = getSignalBase(signal);
+            if (offsetLengths.containsKey(base)) {
+                return offsetLengths.get(base);
             }
             return new OffsetLength(0, 0);
         }
 
+        /**
+         * Returns the signal holding the data of an alias, following aliases
+         * of aliases, or the signal itself if it is not an alias.
+         *
+         * @param signal
+         * @return
+         */
+        protected String getSignalBase(String signal) {
+            String base = signal;
+            for (int i = 0; i <= aliases.size() && aliases.containsKey(base); i++) {
+                base = aliases.get(base);
+            }
+            return base;
+        }
+
+        /**
+         * Returns the transform from the data of the base of a signal to the
+         * signal, composing the transforms of aliases of aliases.
+         *
+         * @param signal
+         * @return
+         * @throws IOException
+         */
+        protected String getBaseTransform(String signal) throws IOException {
+            if (!aliases.containsKey(signal)) {
+                return getSignalTransform(signal);
+            }
+            try {
+                Transforms.Transform out = Transforms.compile(getSignalTransform(signal));
+                String of = signal;
+                for (int i = 0; i <= aliases.size() && aliases.containsKey(of); i++) {
+                    of = aliases.get(of);
+                    out = Transforms.compile(getSignalTransform(of)).andThen(out);
+                }
+                return out.toString();
+            } catch (ReconException ex) {
+                throw new IOException("Could not compose transforms of " + signal, ex);
+            }
+        }
+
+        private void checkNotAlias(String signal) throws ReconException {
+            if (aliases.containsKey(signal)) {
+                throw new ReconException("Signal " + signal + " is an alias of " + aliases.get(signal) + ", whose data it shares");
+            }
+        }
+
         protected String getSignalTransform(String signal) {
             if (transforms.containsKey(signal)) {
                 return transforms.get(signal);
@@ -331,21 +534,14 @@ public class MeldWriter extends ReconWriter {
                 throw new FinalizedException("Object already written");
             }
             try {
-                int offset = offset();
-                MessageBufferPacker packer = MessagePack.newDefaultBufferPacker();
-                packer.packMapHeader(fieldData.size());
+                dataPacker.packMapHeader(fieldData.size());
                 for (Map.Entry<String, Object> entry : fieldData.entrySet()) {
-                    packer.packString(entry.getKey());
-                    packer.packValue(objectToValue(entry.getValue()));
+                    dataPacker.packString(entry.getKey());
+                    packObject(dataPacker, entry.getValue());
                 }
-                byte[] bytes = packer.toByteArray();
-                if (isCompressed()) {
-                    bytes = Compression.compress(bytes);
-                }
-                ol = new OffsetLength(offset, bytes.length);
-                buffer.put(bytes);
-                setDefinitionsDirty();
+                ol = appendData();
             } catch (IOException ex) {
+                dataPacker.clear();
                 throw new ReconException("Could not write object " + getName(), ex);
             }
         }
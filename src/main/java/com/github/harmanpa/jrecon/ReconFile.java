@@ -66,7 +66,23 @@ public abstract class ReconFile implements Closeable {
         return null;
     }
 
+    /**
+     * Returns an index of the signals and aliases of all tables, or null if
+     * the tables may still change. The default implementation returns null.
+     *
+     * @return
+     * @throws ReconException
+     */
+    protected SignalIndex getSignalIndex() throws ReconException {
+        return null;
+    }
+
     public final ReconTable findTableForSignal(String name) throws ReconException {
+        SignalIndex index = getSignalIndex();
+        if (index != null) {
+            SignalIndex.Entry entry = index.get(name);
+            return entry == null ? null : entry.getTable();
+        }
         for (Entry<String, ReconTable> entry : getTables().entrySet()) {
             for (String sig : entry.getValue().getSignals()) {
                 if (name.equals(sig)) {
@@ -26,6 +26,7 @@ package com.github.harmanpa.jrecon;
 import com.github.harmanpa.jrecon.exceptions.FinalizedException;
 import com.github.harmanpa.jrecon.exceptions.ReadOnlyException;
 import com.github.harmanpa.jrecon.exceptions.ReconException;
+import com.github.harmanpa.jrecon.utils.NameTrie;
 import com.google.common.collect.ImmutableMap;
 import java.io.IOException;
 import java.io.Serializable;
@@ -56,6 +57,7 @@ public abstract class ReconReader extends ReconFile implements Serializable {
     private Map<String, Object> meta;
     private boolean comp = false;
     private boolean headerRead = false;
+    private volatile SignalIndex signalIndex;
 
     private int readFixedHeader() throws IOException {
         byte[] fixed = readFixedHeaderBytes();
@@ -285,6 +287,23 @@ public abstract class ReconReader extends ReconFile implements Serializable {
         }
     }
 
+    /**
+     * Returns the index of the signals and aliases of all tables, built on
+     * first use.
+     *
+     * @return
+     * @throws ReconException
+     */
+    @Override
+    public SignalIndex getSignalIndex() throws ReconException {
+        SignalIndex index = signalIndex;
+        if (index == null) {
+            index = new SignalIndex(getTables().values());
+            signalIndex = index;
+        }
+        return index;
+    }
+
     @Override
     public final void flush() throws IOException {
     }
@@ -326,6 +345,7 @@ public abstract class ReconReader extends ReconFile implements Serializable {
         private final String[] signals;
         private final Map<String, Object> meta;
         private final Map<String, Map<String, Object>> signalMeta;
+        private volatile NameTrie signalTree;
 
         public ReconTableReader(String name, String[] signals, Map<String, Object> meta, Map<String, Map<String, Object>> signalMeta) {
             this.name = name;
@@ -339,8 +359,19 @@ public abstract class ReconReader extends ReconFile implements Serializable {
             return name;
         }
 
+        /**
+         * Subclasses which only decode their signals on demand override
+         * {@link #getSignals()} and {@link #getSignalMeta(java.lang.String)}.
+         *
+         * @param name
+         * @param meta
+         */
+        protected ReconTableReader(String name, Map<String, Object> meta) {
+            this(name, null, meta, ImmutableMap.of());
+        }
+
         @Override
-        public final String[] getSignals() {
+        public String[] getSignals() {
             return signals;
         }
 
@@ -349,8 +380,24 @@ public abstract class ReconReader extends ReconFile implements Serializable {
             return meta;
         }
 
+        /**
+         * Returns the tree of signal and alias names, built on first use.
+         * Subclasses which already hold such a tree return it instead.
+         *
+         * @return
+         */
+        @Override
+        public NameTrie getSignalTree() {
+            NameTrie tree = signalTree;
+            if (tree == null) {
+                tree = new NameTrie(getVariables());
+                signalTree = tree;
+            }
+            return tree;
+        }
+
         @Override
-        public final Map<String, Object> getSignalMeta(String signal) {
+        public Map<String, Object> getSignalMeta(String signal) {
             return signalMeta.containsKey(signal) ? signalMeta.get(signal) : new HashMap<>();
         }
 
@@ -24,8 +24,14 @@
 package com.github.harmanpa.jrecon;
 
 import com.github.harmanpa.jrecon.exceptions.ReconException;
+import com.github.harmanpa.jrecon.io.AsyncIO;
+import com.github.harmanpa.jrecon.utils.NameTrie;
 import java.io.Serializable;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  *
@@ -43,6 +49,27 @@ public interface ReconTable extends Serializable {
 
     public Map<String, Object> getTableMeta();
 
+    /**
+     * Returns a tree of the dotted names of the signals and aliases of the
+     * table, for hierarchical browsing and pattern queries.
+     *
+     * @return
+     */
+    public default NameTrie getSignalTree() {
+        return new NameTrie(getVariables());
+    }
+
+    /**
+     * Returns the signals and aliases matching a glob pattern, see
+     * {@link NameTrie#glob(java.lang.String)}.
+     *
+     * @param glob
+     * @return
+     */
+    public default List<String> findSignals(String glob) {
+        return getSignalTree().glob(glob);
+    }
+
     public Map<String, Object> getSignalMeta(String signal);
 
     public void addRow(Object... data) throws ReconException;
@@ -58,8 +85,96 @@ public interface ReconTable extends Serializable {
     public void addAlias(String alias, String of, String transform) throws ReconException;
     
     public void setSignal(String signal, Object... data) throws ReconException;
+
+    /**
+     * Sets the data of a signal from a primitive array.
+     *
+     * @param signal
+     * @param data
+     * @throws ReconException
+     */
+    public default void setSignal(String signal, double[] data) throws ReconException {
+        Object[] boxed = new Object[data.length];
+        for (int i = 0; i < data.length; i++) {
+            boxed[i] = data[i];
+        }
+        setSignal(signal, boxed);
+    }
     
     public Object[] getSignal(String signal) throws ReconException;
     
-    public <T> T[] getSignal(String signal, Class<T> c) throws ReconException;    
+    public <T> T[] getSignal(String signal, Class<T> c) throws ReconException;
+
+    /**
+     * Reads a numeric signal into a primitive array.
+     *
+     * @param signal
+     * @return
+     * @throws ReconException
+     */
+    public default double[] getDoubleSignal(String signal) throws ReconException {
+        Number[] data = getSignal(signal, Number.class);
+        double[] out = new double[data.length];
+        for (int i = 0; i < data.length; i++) {
+            out[i] = data[i].doubleValue();
+        }
+        return out;
+    }
+
+    public default Map<String, Object[]> getSignals(Collection<String> signals) throws ReconException {
+        return getSignals(signals, Object.class);
+    }
+
+    /**
+     * Reads several signals at once, returned in the order requested.
+     * Implementations may combine the reads of the individual signals.
+     *
+     * @param <T>
+     * @param signals
+     * @param c
+     * @return
+     * @throws ReconException
+     */
+    public default <T> Map<String, T[]> getSignals(Collection<String> signals, Class<T> c) throws ReconException {
+        Map<String, T[]> out = new LinkedHashMap<>();
+        for (String signal : signals) {
+            out.put(signal, getSignal(signal, c));
+        }
+        return out;
+    }
+
+    public default CompletableFuture<Object[]> getSignalAsync(String signal) {
+        return getSignalAsync(signal, Object.class);
+    }
+
+    /**
+     * Reads a signal without blocking the calling thread. The future completes
+     * exceptionally with a ReconException as cause if the read fails. Unless
+     * overridden the read runs on the shared executor of {@link AsyncIO}.
+     *
+     * @param <T>
+     * @param signal
+     * @param c
+     * @return
+     */
+    public default <T> CompletableFuture<T[]> getSignalAsync(String signal, Class<T> c) {
+        return AsyncIO.supplyAsync(() -> getSignal(signal, c), AsyncIO.getExecutor());
+    }
+
+    public default CompletableFuture<Map<String, Object[]>> getSignalsAsync(Collection<String> signals) {
+        return getSignalsAsync(signals, Object.class);
+    }
+
+    /**
+     * Reads several signals without blocking the calling thread, as
+     * {@link #getSignals(java.util.Collection, java.lang.Class)}.
+     *
+     * @param <T>
+     * @param signals
+     * @param c
+     * @return
+     */
+    public default <T> CompletableFuture<Map<String, T[]>> getSignalsAsync(Collection<String> signals, Class<T> c) {
+        return AsyncIO.supplyAsync(() -> getSignals(signals, c), AsyncIO.getExecutor());
+    }
 }
@@ -37,8 +37,6 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.lang.reflect.Array;
 import java.math.BigInteger;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -48,6 +46,7 @@ import java.util.Map;
 import java.util.Set;
 import org.msgpack.core.MessageBufferPacker;
 import org.msgpack.core.MessagePack;
+import org.msgpack.core.MessagePacker;
 import org.msgpack.value.Value;
 import org.msgpack.value.ValueFactory;
 
@@ -71,7 +70,7 @@ public abstract class ReconWriter extends ReconFile {
         this.tables = Maps.newHashMap();
         this.objects = Maps.newHashMap();
         this.meta = Maps.newHashMap();
-        this.buffer = new ExpandableByteBuffer(ByteBuffer.allocate(8 * 1024 * 1024).order(ByteOrder.BIG_ENDIAN));
+        this.buffer = new ExpandableByteBuffer(ExpandableByteBuffer.getSharedPool(false));
         this.bufferPacker = MessagePack.newDefaultBufferPacker();
     }
 
@@ -197,14 +196,98 @@ public abstract class ReconWriter extends ReconFile {
 
     @Override
     public void close() throws IOException {
-        flush();
+        try {
+            flush();
+        } finally {
+            buffer.release();
+        }
     }
 
     protected void packMeta(MessageBufferPacker packer, Map<String, Object> meta) throws IOException {
         packer.packMapHeader(meta.size());
         for (Map.Entry<String, Object> entry : meta.entrySet()) {
             packer.packString(entry.getKey());
-            packer.packValue(objectToValue(entry.getValue()));
+            packObject(packer, entry.getValue());
+        }
+    }
+
+    /**
+     * Packs an object directly, without building a tree of values. Primitive
+     * and boxed arrays are packed with a loop specialised to their type, and
+     * other arrays element by element. Floating point values are packed as
+     * float64, as {@link #objectToValue(java.lang.Object)} does.
+     *
+     * @param packer
+     * @param object
+     * @throws IOException
+     */
+    protected static void packObject(MessagePacker packer, Object object) throws IOException {
+        if (object instanceof double[]) {
+            double[] array = (double[]) object;
+            packer.packArrayHeader(array.length);
+            for (double v : array) {
+                packer.packDouble(v);
+            }
+        } else if (object instanceof float[]) {
+            float[] array = (float[]) object;
+            packer.packArrayHeader(array.length);
+            for (float v : array) {
+                packer.packDouble(v);
+            }
+        } else if (object instanceof int[]) {
+            int[] array = (int[]) object;
+            packer.packArrayHeader(array.length);
+            for (int v : array) {
+                packer.packInt(v);
+            }
+        } else if (object instanceof long[]) {
+            long[] array = (long[]) object;
+            packer.packArrayHeader(array.length);
+            for (long v : array) {
+                packer.packLong(v);
+            }
+        } else if (object instanceof boolean[]) {
+            boolean[] array = (boolean[]) object;
+            packer.packArrayHeader(array.length);
+            for (boolean v : array) {
+                packer.packBoolean(v);
+            }
+        } else if (object instanceof Double[]) {
+            Double[] array = (Double[]) object;
+            packer.packArrayHeader(array.length);
+            for (Double v : array) {
+                packer.packDouble(v);
+            }
+        } else if (object instanceof Object[]) {
+            Object[] array = (Object[]) object;
+            packer.packArrayHeader(array.length);
+            for (Object v : array) {
+                packObject(packer, v);
+            }
+        } else if (object instanceof Double || object instanceof Float) {
+            packer.packDouble(((Number) object).doubleValue());
+        } else if (object instanceof Integer || object instanceof Short || object instanceof Byte) {
+            packer.packInt(((Number) object).intValue());
+        } else if (object instanceof Long) {
+            packer.packLong((Long) object);
+        } else if (object instanceof Boolean) {
+            packer.packBoolean((Boolean) object);
+        } else if (object instanceof String) {
+            packer.packString((String) object);
+        } else if (object instanceof BigInteger) {
+            packer.packBigInteger((BigInteger) object);
+        } else if (object instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) object;
+            packer.packMapHeader(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                packObject(packer, entry.getKey());
+                packObject(packer, entry.getValue());
+            }
+        } else if (object != null && object.getClass().isArray()) {
+            // short[], byte[] and char[]
+            packer.packValue(objectToValue(object));
+        } else {
+            throw new IOException("Unsupported type in serialization: " + (object == null ? null : object.getClass()));
         }
     }
 
@@ -223,6 +306,8 @@ public abstract class ReconWriter extends ReconFile {
         VALUECONVERTERS.put(Long.class, (v) -> ValueFactory.newInteger((Long) v));
         VALUECONVERTERS.put(Short.class, (v) -> ValueFactory.newInteger((Short) v));
         VALUECONVERTERS.put(Byte.class, (v) -> ValueFactory.newInteger((Byte) v));
+        VALUECONVERTERS.put(boolean.class, (v) -> ValueFactory.newBoolean((boolean) v));
+        VALUECONVERTERS.put(Boolean.class, (v) -> ValueFactory.newBoolean((Boolean) v));
         VALUECONVERTERS.put(BigInteger.class, (v) -> ValueFactory.newInteger((BigInteger) v));
         VALUECONVERTERS.put(String.class, (v) -> ValueFactory.newString((String) v));
         VALUECONVERTERS.put(Map.class, (v) -> {
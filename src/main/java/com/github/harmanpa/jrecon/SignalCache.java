@@ -0,0 +1,172 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 CyDesign Limited
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.harmanpa.jrecon;
+
+import com.github.harmanpa.jrecon.exceptions.ReconException;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import java.lang.reflect.Array;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A cache of decoded signal data, bounded by the approximate memory used by
+ * the cached arrays, from which the least recently used signals are evicted.
+ * A cache may be shared by several {@link MeldReader}s of the same file, and
+ * is emptied when the last of them is closed.
+ *
+ * @author pete
+ */
+public class SignalCache {
+
+    private final Cache<Key, Object> signals;
+    private final AtomicInteger readers;
+
+    /**
+     *
+     * @param maximumSize approximate maximum memory used by cached signals in
+     * bytes
+     */
+    public SignalCache(long maximumSize) {
+        this.signals = CacheBuilder.newBuilder()
+                .maximumWeight(maximumSize)
+                .weigher((Key key, Object data) -> weigh(data))
+                .recordStats()
+                .build();
+        this.readers = new AtomicInteger();
+    }
+
+    Object get(String table, OffsetLength location, Callable<Object> loader) throws ReconException {
+        try {
+            return signals.get(new Key(table, location), loader);
+        } catch (ExecutionException | UncheckedExecutionException ex) {
+            if (ex.getCause() instanceof ReconException) {
+                throw (ReconException) ex.getCause();
+            }
+            throw new ReconException("Failed to read signal of " + table, ex.getCause());
+        }
+    }
+
+    Object getIfPresent(String table, OffsetLength location) {
+        return signals.getIfPresent(new Key(table, location));
+    }
+
+    void put(String table, OffsetLength location, Object data) {
+        signals.put(new Key(table, location), data);
+    }
+
+    void retain() {
+        readers.incrementAndGet();
+    }
+
+    void release() {
+        if (readers.decrementAndGet() <= 0) {
+            invalidate();
+        }
+    }
+
+    /**
+     * Discards all cached signals
+     */
+    public void invalidate() {
+        signals.invalidateAll();
+    }
+
+    public long size() {
+        return signals.size();
+    }
+
+    public CacheStats getStats() {
+        return signals.stats();
+    }
+
+    public long getHitCount() {
+        return signals.stats().hitCount();
+    }
+
+    public long getMissCount() {
+        return signals.stats().missCount();
+    }
+
+    /**
+     * Estimates the memory used by an array, including boxed elements.
+     *
+     * @param data
+     * @return
+     */
+    static int weigh(Object data) {
+        Class<?> type = data.getClass().getComponentType();
+        long elementSize;
+        if (type == double.class || type == long.class) {
+            elementSize = 8;
+        } else if (type == int.class || type == float.class) {
+            elementSize = 4;
+        } else if (type == short.class || type == char.class) {
+            elementSize = 2;
+        } else if (type == byte.class || type == boolean.class) {
+            elementSize = 1;
+        } else {
+            // Reference plus a boxed value
+            elementSize = 20;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, 16 + elementSize * Array.getLength(data));
+    }
+
+    /**
+     * Signals are keyed by the location of their data, which aliases share
+     */
+    private static final class Key {
+
+        private final String table;
+        private final OffsetLength location;
+
+        Key(String table, OffsetLength location) {
+            this.table = table;
+            this.location = location;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = 5;
+            hash = 59 * hash + table.hashCode();
+            hash = 59 * hash + location.hashCode();
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == null) {
+                return false;
+            }
+            if (getClass() != obj.getClass()) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return table.equals(other.table) && location.equals(other.location);
+        }
+    }
+}
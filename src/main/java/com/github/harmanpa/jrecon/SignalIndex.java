@@ -0,0 +1,148 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 CyDesign Limited
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.harmanpa.jrecon;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A hash index from every signal and alias name in a set of tables to the
+ * table it is found in, the column of the signal holding its data and the
+ * transform applied to it. Where a name appears more than once the first
+ * table wins, and within a table signals take precedence over aliases, as for
+ * {@link ReconFile#findTableForSignal(java.lang.String)}.
+ * <p>
+ * Each table is indexed when a lookup first reaches it, so a name found in an
+ * early table does not decode the definitions of later ones.
+ *
+ * @author pete
+ */
+public class SignalIndex {
+
+    private final ReconTable[] tables;
+    private final Map<String, Entry>[] entries;
+
+    @SuppressWarnings("unchecked")
+    public SignalIndex(Collection<ReconTable> tables) {
+        this.tables = tables.toArray(new ReconTable[0]);
+        this.entries = new Map[this.tables.length];
+    }
+
+    private synchronized Map<String, Entry> getEntries(int i) {
+        if (entries[i] == null) {
+            entries[i] = index(tables[i]);
+        }
+        return entries[i];
+    }
+
+    private static Map<String, Entry> index(ReconTable table) {
+        String[] signals = table.getSignals();
+        Alias[] aliases = table.getAliases();
+        Map<String, Entry> out = new HashMap<>((signals.length + aliases.length) * 2);
+        for (int i = 0; i < signals.length; i++) {
+            String transform = table instanceof MeldReader.MeldTableReader
+                    ? ((MeldReader.MeldTableReader) table).getSignalTransform(signals[i]) : "";
+            out.putIfAbsent(signals[i], new Entry(table, i, transform));
+        }
+        for (Alias alias : aliases) {
+            // Aliases of aliases take the column their alias resolved to
+            Entry of = out.get(alias.getOf());
+            int column = of == null ? -1 : of.getColumn();
+            out.putIfAbsent(alias.getAlias(), new Entry(table, column, alias.getTransform() == null ? "" : alias.getTransform()));
+        }
+        return out;
+    }
+
+    /**
+     * Returns the entry for a signal or alias, or null if there is none
+     *
+     * @param name
+     * @return
+     */
+    public Entry get(String name) {
+        for (int i = 0; i < tables.length; i++) {
+            Entry entry = getEntries(i).get(name);
+            if (entry != null) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    public boolean contains(String name) {
+        return get(name) != null;
+    }
+
+    /**
+     * Returns the number of distinct names, which indexes every table
+     *
+     * @return
+     */
+    public int size() {
+        Set<String> names = new HashSet<>();
+        for (int i = 0; i < tables.length; i++) {
+            names.addAll(getEntries(i).keySet());
+        }
+        return names.size();
+    }
+
+    public static class Entry {
+
+        private final ReconTable table;
+        private final int column;
+        private final String transform;
+
+        Entry(ReconTable table, int column, String transform) {
+            this.table = table;
+            this.column = column;
+            this.transform = transform;
+        }
+
+        public ReconTable getTable() {
+            return table;
+        }
+
+        /**
+         * Returns the index within the signals of the table of the signal
+         * holding the data, or -1 if an alias refers to an unknown signal
+         *
+         * @return
+         */
+        public int getColumn() {
+            return column;
+        }
+
+        public String getTransform() {
+            return transform;
+        }
+
+        @Override
+        public String toString() {
+            return "Entry{" + "table=" + table.getName() + ", column=" + column + ", transform=" + transform + '}';
+        }
+    }
+}
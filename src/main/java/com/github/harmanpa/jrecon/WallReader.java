@@ -24,6 +24,9 @@
 package com.github.harmanpa.jrecon;
 
 import com.github.harmanpa.jrecon.exceptions.ReconException;
+import com.github.harmanpa.jrecon.io.RandomAccessResource;
+import com.github.harmanpa.jrecon.io.RandomAccessResourceInputStream;
+import com.github.harmanpa.jrecon.utils.NameTrie;
 import com.github.harmanpa.jrecon.utils.Transforms;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
@@ -59,6 +62,10 @@ public class WallReader extends ReconReader {
         this(new FileInputStream(file));
     }
 
+    public WallReader(RandomAccessResource resource) throws IOException {
+        this(new RandomAccessResourceInputStream(resource));
+    }
+
     public WallReader(InputStream stream) throws IOException {
         this.stream = stream;
     }
@@ -237,11 +244,54 @@ public class WallReader extends ReconReader {
 
     class WallTableReader extends ReconTableReader {
 
+        /**
+         * Marks names not yet given a column, as unresolved aliases have -1
+         */
+        private static final int NO_COLUMN = Integer.MIN_VALUE;
         private final Alias[] aliases;
+        private final NameTrie names;
+        /**
+         * The column and transform of each signal and alias, by position in
+         * the tree of names
+         */
+        private final int[] columns;
+        private final String[] transforms;
 
         WallTableReader(String name, String[] signals, Alias[] aliases, Map<String, Object> meta, Map<String, Map<String, Object>> signalMeta) {
             super(name, signals, meta, signalMeta);
             this.aliases = aliases;
+            this.names = getSignalTree();
+            this.columns = new int[names.size()];
+            this.transforms = new String[names.size()];
+            Arrays.fill(columns, NO_COLUMN);
+            for (int i = 0; i < signals.length; i++) {
+                int index = names.indexOf(signals[i]);
+                if (columns[index] == NO_COLUMN) {
+                    columns[index] = i;
+                }
+            }
+            for (Alias alias : aliases) {
+                int index = names.indexOf(alias.getAlias());
+                if (columns[index] == NO_COLUMN) {
+                    columns[index] = resolveAlias(alias, 0);
+                    transforms[index] = alias.getTransform();
+                }
+            }
+        }
+
+        private int resolveAlias(Alias alias, int depth) {
+            int index = names.indexOf(alias.getOf());
+            if (index >= 0 && columns[index] != NO_COLUMN) {
+                return columns[index];
+            }
+            if (depth < aliases.length) {
+                for (Alias other : aliases) {
+                    if (alias.getOf().equals(other.getAlias())) {
+                        return resolveAlias(other, depth + 1);
+                    }
+                }
+            }
+            return -1;
         }
 
         @Override
@@ -265,8 +315,7 @@ public class WallReader extends ReconReader {
 
         @Override
         public <T> T[] getSignal(String signal, Class<T> c) throws ReconException {
-            int index = getSignalIndex(signal);
-            return getSignal(index, c);
+            return getColumn(getSignalIndex(signal), getSignalTransform(signal), c);
         }
 
         protected Object[] getSignal(int index) throws ReconException {
@@ -274,16 +323,20 @@ public class WallReader extends ReconReader {
         }
 
         protected <T> T[] getSignal(int index, Class<T> c) throws ReconException {
+            return getColumn(index, "", c);
+        }
+
+        private <T> T[] getColumn(int index, String transform, Class<T> c) throws ReconException {
             if (index < 0) {
                 throw new ReconException("Attempting to load non-existent signal");
             }
             String signal = getSignalName(index);
+            Transforms.Transform compiled = Transforms.compile(transform);
             try {
                 List<T> out = new ArrayList<>(readRows().size());
-                String transform = getSignalTransform(signal);
                 for (Row row : readRows()) {
                     if (getName().equals(row.getName())) {
-                        out.add(Transforms.apply(c, (T) row.getColumn(index), transform));
+                        out.add(compiled.apply((T) row.getColumn(index)));
                     }
                 }
                 return Iterables.toArray(out, c);
@@ -293,30 +346,17 @@ public class WallReader extends ReconReader {
         }
 
         protected int getSignalIndex(String signal) {
-            for (int i = 0; i < getSignals().length; i++) {
-                if (signal.equals(getSignals()[i])) {
-                    return i;
-                }
-            }
-            for (Alias alias : getAliases()) {
-                if (signal.equals(alias.getAlias())) {
-                    return getSignalIndex(alias.getOf());
-                }
-            }
-            return -1;
+            int index = names.indexOf(signal);
+            return index < 0 || columns[index] == NO_COLUMN ? -1 : columns[index];
         }
 
         private String getSignalTransform(String signal) {
-            for (Alias alias : getAliases()) {
-                if (signal.equals(alias.getAlias())) {
-                    return alias.getTransform();
-                }
-            }
-            return "";
+            int index = names.indexOf(signal);
+            return index < 0 || transforms[index] == null ? "" : transforms[index];
         }
 
         private String getSignalName(int index) throws ReconException {
-            if (index > getSignals().length) {
+            if (index >= getSignals().length) {
                 throw new ReconException("Attempting to load non-existent signal");
             }
             return getSignals()[index];
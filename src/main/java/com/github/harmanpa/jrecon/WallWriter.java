@@ -146,7 +146,7 @@ public class WallWriter extends ReconWriter {
             try {
                 bufferPacker.packMapHeader(1);
                 bufferPacker.packString(getName());
-                bufferPacker.packValue(objectToValue(data));
+                packObject(bufferPacker, data);
                 byte[] bytes = bufferPacker.toByteArray();
                 buffer.putInteger(bytes.length);
                 buffer.put(bytes);
@@ -206,7 +206,7 @@ public class WallWriter extends ReconWriter {
                 bufferPacker.packString(getName());
                 bufferPacker.packMapHeader(1);
                 bufferPacker.packString(name);
-                bufferPacker.packValue(objectToValue(value));
+                packObject(bufferPacker, value);
                 byte[] bytes = bufferPacker.toByteArray();
                 buffer.putInteger(bytes.length);
                 buffer.put(bytes);
@@ -0,0 +1,136 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 CyDesign Limited
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.harmanpa.jrecon.io;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Support for the asynchronous read methods. Resources and tables without a
+ * non-blocking implementation run their blocking reads on a shared pool of
+ * daemon threads, rather than the common fork join pool, so that slow reads
+ * cannot starve unrelated parallel computations.
+ * <p>
+ * The pool has a fixed number of threads, set by the system property
+ * jrecon.io.threads, and further reads wait in its queue. A task running on it
+ * must therefore never block waiting for another task on it.
+ *
+ * @author pete
+ */
+public final class AsyncIO {
+
+    public static final int DEFAULT_THREADS = Math.max(8, 2 * Runtime.getRuntime().availableProcessors());
+    private static final ThreadPoolExecutor EXECUTOR = newExecutor(Integer.getInteger("jrecon.io.threads", DEFAULT_THREADS), "jrecon-io-%d");
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("jrecon-io-timer-%d")
+            .setDaemon(true)
+            .build());
+
+    private AsyncIO() {
+    }
+
+    /**
+     * Returns the executor used for blocking reads by default
+     *
+     * @return
+     */
+    public static Executor getExecutor() {
+        return EXECUTOR;
+    }
+
+    /**
+     * Creates a pool of at most the given number of daemon threads, which
+     * exit when idle, queueing any further tasks
+     *
+     * @param threads
+     * @param nameFormat
+     * @return
+     */
+    public static ThreadPoolExecutor newExecutor(int threads, String nameFormat) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                new ThreadFactoryBuilder()
+                        .setNameFormat(nameFormat)
+                        .setDaemon(true)
+                        .build());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Runs a short action after a delay on a shared timer thread. The action
+     * must not block.
+     *
+     * @param action
+     * @param delay
+     * @param unit
+     * @return
+     */
+    public static ScheduledFuture<?> schedule(Runnable action, long delay, TimeUnit unit) {
+        return TIMER.schedule(action, delay, unit);
+    }
+
+    /**
+     * Runs a blocking call on the given executor. A checked exception thrown
+     * by the call completes the future exceptionally with a
+     * {@link CompletionException} whose cause is that exception.
+     *
+     * @param <T>
+     * @param callable
+     * @param executor
+     * @return
+     */
+    public static <T> CompletableFuture<T> supplyAsync(Callable<T> callable, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return callable.call();
+            } catch (RuntimeException ex) {
+                throw ex;
+            } catch (Exception ex) {
+                throw new CompletionException(ex);
+            }
+        }, executor);
+    }
+
+    /**
+     * Returns a future already completed exceptionally
+     *
+     * @param <T>
+     * @param ex
+     * @return
+     */
+    public static <T> CompletableFuture<T> failed(Throwable ex) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(ex);
+        return future;
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 CyDesign Limited
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.harmanpa.jrecon.io;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * A {@link RandomAccessResource} which serves reads from fixed size, aligned
+ * blocks of another resource, keeping the most recently used blocks up to a
+ * maximum total size. Blocks may be held on or off the Java heap. Reads of
+ * the same blocks by concurrent callers only load each block once, while
+ * different blocks are loaded concurrently.
+ *
+ * @author pete
+ */
+public class CachedRandomAccessResource implements RandomAccessResource {
+
+    public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+    private final RandomAccessResource resource;
+    private final int blockSize;
+    private final boolean direct;
+    private final Cache<Long, ByteBuffer> blocks;
+
+    public CachedRandomAccessResource(RandomAccessResource resource, long maximumSize) {
+        this(resource, DEFAULT_BLOCK_SIZE, maximumSize, false);
+    }
+
+    /**
+     *
+     * @param resource resource to cache
+     * @param blockSize size of each block, ideally a multiple of the page size
+     * @param maximumSize maximum total size of the cached blocks in bytes
+     * @param direct true to allocate blocks outside of the Java heap
+     */
+    public CachedRandomAccessResource(RandomAccessResource resource, int blockSize, long maximumSize, boolean direct) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("Block size must be positive");
+        }
+        this.resource = resource;
+        this.blockSize = blockSize;
+        this.direct = direct;
+        this.blocks = CacheBuilder.newBuilder()
+                .maximumWeight(maximumSize)
+                .weigher((Long index, ByteBuffer block) -> block.capacity())
+                .recordStats()
+                .build();
+    }
+
+    public RandomAccessResource getResource() {
+        return resource;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    @Override
+    public boolean canWrite() {
+        return resource.canWrite();
+    }
+
+    @Override
+    public int read(long location, byte[] bytes) throws IOException {
+        int read = 0;
+        while (read < bytes.length) {
+            long position = location + read;
+            ByteBuffer block = getBlock(position / blockSize);
+            int offset = (int) (position % blockSize);
+            if (offset >= block.limit()) {
+                break;
+            }
+            int n = Math.min(block.limit() - offset, bytes.length - read);
+            ByteBuffer view = block.duplicate();
+            view.position(offset);
+            view.get(bytes, read, n);
+            read += n;
+            if (block.limit() < blockSize) {
+                break;
+            }
+        }
+        return read == 0 && bytes.length > 0 ? -1 : read;
+    }
+
+    private ByteBuffer getBlock(long index) throws IOException {
+        try {
+            return blocks.get(index, () -> loadBlock(index));
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        }
+    }
+
+    private ByteBuffer loadBlock(long index) throws IOException {
+        byte[] bytes = new byte[blockSize];
+        // A short read is not the end of the resource, as a block shorter than
+        // the block size is taken to be the last
+        int n = 0;
+        while (n < blockSize) {
+            byte[] rest = n == 0 ? bytes : new byte[blockSize - n];
+            int read = resource.read(index * blockSize + n, rest);
+            if (read <= 0) {
+                break;
+            }
+            if (rest != bytes) {
+                System.arraycopy(rest, 0, bytes, n, read);
+            }
+            n += read;
+        }
+        ByteBuffer block = direct ? ByteBuffer.allocateDirect(n) : ByteBuffer.allocate(n);
+        block.put(bytes, 0, n);
+        block.flip();
+        return block;
+    }
+
+    @Override
+    public void write(long location, byte[] bytes) throws IOException {
+        resource.write(location, bytes);
+        long last = bytes.length == 0 ? location / blockSize : (location + bytes.length - 1) / blockSize;
+        for (long index = location / blockSize; index <= last; index++) {
+            blocks.invalidate(index);
+        }
+    }
+
+    /**
+     * Discards all cached blocks
+     */
+    public void invalidate() {
+        blocks.invalidateAll();
+    }
+
+    public CacheStats getStats() {
+        return blocks.stats();
+    }
+
+    public long getHitCount() {
+        return blocks.stats().hitCount();
+    }
+
+    public long getMissCount() {
+        return blocks.stats().missCount();
+    }
+
+    @Override
+    public void close() throws IOException {
+        blocks.invalidateAll();
+        resource.close();
+    }
+}
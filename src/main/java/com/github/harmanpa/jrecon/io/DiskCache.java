@@ -0,0 +1,267 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 CyDesign Limited
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.harmanpa.jrecon.io;
+
+import com.google.common.hash.Hashing;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A directory of cached blocks of remote resources, shared by any number of
+ * {@link DiskCachedRandomAccessResource}s. Each version of a resource has its
+ * own subdirectory of block files. When the total size of the blocks exceeds
+ * the maximum the least recently used blocks are deleted. The cache persists
+ * between runs; its contents are indexed when it is created, deleting files
+ * left by writes which never finished and directories left empty.
+ *
+ * @author pete
+ */
+public class DiskCache {
+
+    /**
+     * Age in milliseconds after which temporary files and empty directories,
+     * which another process sharing the cache may still be writing, are
+     * deleted when the cache is indexed
+     */
+    private static final long STALE_AGE = 60 * 60 * 1000;
+
+    private final Path directory;
+    private final long maximumSize;
+    private final LinkedHashMap<Path, Long> blocks = new LinkedHashMap<>(16, 0.75f, true);
+    private long size;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     *
+     * @param directory cache directory, created if it does not exist
+     * @param maximumSize maximum total size of the cached blocks in bytes
+     * @throws IOException
+     */
+    public DiskCache(File directory, long maximumSize) throws IOException {
+        this.directory = directory.toPath();
+        this.maximumSize = maximumSize;
+        Files.createDirectories(this.directory);
+        index();
+    }
+
+    private void index() throws IOException {
+        List<Path> found = new ArrayList<>();
+        long stale = System.currentTimeMillis() - STALE_AGE;
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory, Files::isDirectory)) {
+            for (Path entry : entries) {
+                boolean empty = true;
+                try (DirectoryStream<Path> entryBlocks = Files.newDirectoryStream(entry)) {
+                    for (Path block : entryBlocks) {
+                        if (!block.getFileName().toString().endsWith(".tmp")) {
+                            found.add(block);
+                        } else if (Files.getLastModifiedTime(block).toMillis() < stale) {
+                            // Left by a write which never finished
+                            Files.deleteIfExists(block);
+                            continue;
+                        }
+                        empty = false;
+                    }
+                }
+                if (empty && Files.getLastModifiedTime(entry).toMillis() < stale) {
+                    deleteQuietly(entry);
+                }
+            }
+        }
+        // Oldest first, so they are evicted first
+        Map<Path, Long> modified = new LinkedHashMap<>();
+        for (Path block : found) {
+            modified.put(block, Files.getLastModifiedTime(block).toMillis());
+        }
+        found.sort((Path a, Path b) -> Long.compare(modified.get(a), modified.get(b)));
+        for (Path block : found) {
+            long length = Files.size(block);
+            blocks.put(block, length);
+            size += length;
+        }
+        evict();
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException ex) {
+            // In use again
+        }
+    }
+
+    public File getDirectory() {
+        return directory.toFile();
+    }
+
+    public long getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * Returns the total size of the cached blocks in bytes
+     *
+     * @return
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Deletes all cached blocks
+     *
+     * @throws IOException
+     */
+    public synchronized void clear() throws IOException {
+        for (Path block : blocks.keySet()) {
+            Files.deleteIfExists(block);
+        }
+        blocks.clear();
+        size = 0;
+    }
+
+    byte[] get(String key, long index) throws IOException {
+        Path block = getBlockPath(key, index);
+        synchronized (this) {
+            if (blocks.get(block) == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+        }
+        try {
+            byte[] data = Files.readAllBytes(block);
+            hits.incrementAndGet();
+            return data;
+        } catch (NoSuchFileException ex) {
+            // Evicted since
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    void put(String key, long index, byte[] data) throws IOException {
+        Path block = getBlockPath(key, index);
+        Files.createDirectories(block.getParent());
+        Path temp = Files.createTempFile(block.getParent(), block.getFileName().toString(), ".tmp");
+        Files.write(temp, data);
+        Files.move(temp, block, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        synchronized (this) {
+            Long previous = blocks.put(block, (long) data.length);
+            size += data.length - (previous == null ? 0 : previous);
+            evict();
+        }
+    }
+
+    /**
+     * Deletes all blocks of one version of a resource
+     *
+     * @param key
+     * @throws IOException
+     */
+    synchronized void remove(String key) throws IOException {
+        Path entry = directory.resolve(key);
+        Iterator<Map.Entry<Path, Long>> it = blocks.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Path, Long> block = it.next();
+            if (block.getKey().getParent().equals(entry)) {
+                Files.deleteIfExists(block.getKey());
+                size -= block.getValue();
+                it.remove();
+            }
+        }
+    }
+
+    private void evict() throws IOException {
+        Iterator<Map.Entry<Path, Long>> it = blocks.entrySet().iterator();
+        while (size > maximumSize && it.hasNext()) {
+            Map.Entry<Path, Long> block = it.next();
+            Files.deleteIfExists(block.getKey());
+            size -= block.getValue();
+            it.remove();
+        }
+    }
+
+    /**
+     * Returns the validator last seen for a resource, or null
+     *
+     * @param name
+     * @return
+     * @throws IOException
+     */
+    synchronized String getValidator(String name) throws IOException {
+        Path file = directory.resolve(hash(name) + ".properties");
+        if (!Files.exists(file)) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (InputStream is = Files.newInputStream(file)) {
+            properties.load(is);
+        }
+        return properties.getProperty("validator");
+    }
+
+    synchronized void setValidator(String name, String validator) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("name", name);
+        properties.setProperty("validator", validator);
+        try (OutputStream os = Files.newOutputStream(directory.resolve(hash(name) + ".properties"))) {
+            properties.store(os, null);
+        }
+    }
+
+    static String key(String name, String validator) {
+        return hash(name + "\n" + validator);
+    }
+
+    private static String hash(String value) {
+        return Hashing.sha256().hashString(value, StandardCharsets.UTF_8).toString();
+    }
+
+    private Path getBlockPath(String key, long index) {
+        return directory.resolve(key).resolve(Long.toString(index));
+    }
+}
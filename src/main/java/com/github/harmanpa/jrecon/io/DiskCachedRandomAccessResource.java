@@ -0,0 +1,221 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 CyDesign Limited
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.harmanpa.jrecon.io;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * A {@link RandomAccessResource} which keeps fixed size, aligned blocks of a
+ * remote resource in a {@link DiskCache}, so that data once fetched is read
+ * from local disk, also after a restart. Blocks are keyed by the URI and the
+ * ETag or Last-Modified date of the resource. On first use the cached version
+ * is validated with a conditional HEAD request, which transfers no data if it
+ * is still current; if the resource has changed the old blocks are discarded.
+ * If the server cannot be reached the cached blocks are used as they are.
+ * Resources whose server provides no validator are not cached. Missing blocks
+ * are fetched with a single batched read.
+ *
+ * @author pete
+ */
+public class DiskCachedRandomAccessResource implements RandomAccessResource {
+
+    private final HttpRandomAccessResource resource;
+    private final DiskCache cache;
+    private final int blockSize;
+    private transient boolean validated;
+    private transient String key;
+
+    public DiskCachedRandomAccessResource(HttpRandomAccessResource resource, DiskCache cache) {
+        this(resource, cache, CachedRandomAccessResource.DEFAULT_BLOCK_SIZE);
+    }
+
+    public DiskCachedRandomAccessResource(HttpRandomAccessResource resource, DiskCache cache, int blockSize) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("Block size must be positive");
+        }
+        this.resource = resource;
+        this.cache = cache;
+        this.blockSize = blockSize;
+    }
+
+    public HttpRandomAccessResource getResource() {
+        return resource;
+    }
+
+    public DiskCache getCache() {
+        return cache;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    @Override
+    public boolean canWrite() {
+        return false;
+    }
+
+    /**
+     * Returns the cache key of the current version of the resource, or null
+     * if it cannot be cached
+     */
+    private synchronized String getKey() throws IOException {
+        if (!validated) {
+            String name = resource.getUri().toString();
+            String previous = cache.getValidator(name);
+            String validator;
+            try {
+                validator = resource.getValidator(previous);
+            } catch (IOException ex) {
+                if (previous == null) {
+                    throw ex;
+                }
+                // Offline, use what we have
+                validator = previous;
+            }
+            if (previous != null && !previous.equals(validator)) {
+                cache.remove(DiskCache.key(name, previous));
+            }
+            if (validator != null && !validator.equals(previous)) {
+                cache.setValidator(name, validator);
+            }
+            key = validator == null ? null : DiskCache.key(name, validator);
+            validated = true;
+        }
+        return key;
+    }
+
+    @Override
+    public int read(long location, byte[] bytes) throws IOException {
+        return read(new long[]{location}, new byte[][]{bytes})[0];
+    }
+
+    @Override
+    public int[] read(long[] locations, byte[][] bytes) throws IOException {
+        if (locations.length != bytes.length) {
+            throw new IllegalArgumentException("Number of locations and buffers differ");
+        }
+        String k = getKey();
+        if (k == null) {
+            return resource.read(locations, bytes);
+        }
+        TreeSet<Long> needed = new TreeSet<>();
+        for (int i = 0; i < locations.length; i++) {
+            if (bytes[i].length > 0) {
+                for (long index = locations[i] / blockSize; index <= (locations[i] + bytes[i].length - 1) / blockSize; index++) {
+                    needed.add(index);
+                }
+            }
+        }
+        Map<Long, byte[]> blocks = new HashMap<>();
+        List<Long> missing = new ArrayList<>();
+        for (long index : needed) {
+            byte[] block = cache.get(k, index);
+            if (block == null) {
+                missing.add(index);
+            } else {
+                blocks.put(index, block);
+            }
+        }
+        fetch(k, missing, blocks);
+        int[] out = new int[locations.length];
+        for (int i = 0; i < locations.length; i++) {
+            out[i] = copy(locations[i], bytes[i], blocks);
+        }
+        return out;
+    }
+
+    /**
+     * Fetches the missing blocks, merging runs of consecutive blocks into
+     * single ranges
+     */
+    private void fetch(String k, List<Long> missing, Map<Long, byte[]> blocks) throws IOException {
+        if (missing.isEmpty()) {
+            return;
+        }
+        List<long[]> runs = new ArrayList<>();
+        for (long index : missing) {
+            long[] last = runs.isEmpty() ? null : runs.get(runs.size() - 1);
+            if (last != null && last[1] == index - 1) {
+                last[1] = index;
+            } else {
+                runs.add(new long[]{index, index});
+            }
+        }
+        long[] locations = new long[runs.size()];
+        byte[][] buffers = new byte[runs.size()][];
+        for (int i = 0; i < locations.length; i++) {
+            locations[i] = runs.get(i)[0] * blockSize;
+            buffers[i] = new byte[(int) ((runs.get(i)[1] - runs.get(i)[0] + 1) * blockSize)];
+        }
+        int[] read = resource.read(locations, buffers);
+        for (int i = 0; i < locations.length; i++) {
+            int n = Math.max(read[i], 0);
+            for (long index = runs.get(i)[0]; index <= runs.get(i)[1]; index++) {
+                int offset = (int) ((index - runs.get(i)[0]) * blockSize);
+                if (offset >= n) {
+                    break;
+                }
+                byte[] block = Arrays.copyOfRange(buffers[i], offset, Math.min(n, offset + blockSize));
+                cache.put(k, index, block);
+                blocks.put(index, block);
+            }
+        }
+    }
+
+    private int copy(long location, byte[] bytes, Map<Long, byte[]> blocks) {
+        int read = 0;
+        while (read < bytes.length) {
+            long position = location + read;
+            byte[] block = blocks.get(position / blockSize);
+            int offset = (int) (position % blockSize);
+            if (block == null || offset >= block.length) {
+                break;
+            }
+            int n = Math.min(block.length - offset, bytes.length - read);
+            System.arraycopy(block, offset, bytes, read, n);
+            read += n;
+            if (block.length < blockSize) {
+                break;
+            }
+        }
+        return read == 0 && bytes.length > 0 ? -1 : read;
+    }
+
+    @Override
+    public void write(long location, byte[] bytes) throws IOException {
+        throw new UnsupportedOperationException("Write not supported");
+    }
+
+    @Override
+    public void close() throws IOException {
+        resource.close();
+    }
+}
@@ -27,19 +27,36 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 /**
+ * Reads and writes a local file using positional reads and writes on its
+ * channel, which do not share a file pointer, so a single instance may be
+ * read by many threads at once without locking. Note that interrupting a
+ * thread while it reads closes the channel for all threads. Asynchronous reads
+ * use an {@link AsynchronousFileChannel}, opened on first use.
  *
  * @author pete
  */
 public class FileRandomAccessResource implements RandomAccessResource {
 
+    private final File path;
     private final RandomAccessFile file;
+    private final FileChannel channel;
     private final boolean canWrite;
+    private volatile AsynchronousFileChannel asyncChannel;
 
     public FileRandomAccessResource(File file) throws FileNotFoundException {
+        this.path = file;
         this.canWrite = file.canWrite();
         this.file = new RandomAccessFile(file, canWrite ? "rw" : "r");
+        this.channel = this.file.getChannel();
     }
 
     @Override
@@ -49,18 +66,96 @@ public class FileRandomAccessResource implements RandomAccessResource {
 
     @Override
     public int read(long location, byte[] bytes) throws IOException {
-        this.file.seek(location);
-        return this.file.read(bytes);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            if (this.channel.read(buffer, location + buffer.position()) < 0) {
+                break;
+            }
+        }
+        return buffer.position() == 0 && bytes.length > 0 ? -1 : buffer.position();
+    }
+
+    @Override
+    public CompletableFuture<Integer> readAsync(long location, byte[] bytes) {
+        CompletableFuture<Integer> future = new CompletableFuture<>();
+        try {
+            readAsync(getAsynchronousChannel(), location, ByteBuffer.wrap(bytes), future);
+        } catch (IOException | RuntimeException ex) {
+            future.completeExceptionally(ex);
+        }
+        return future;
+    }
+
+    /**
+     * The read does not need a thread to wait, so the executor is not used.
+     *
+     * @param location
+     * @param bytes
+     * @param executor
+     * @return
+     */
+    @Override
+    public CompletableFuture<Integer> readAsync(long location, byte[] bytes, Executor executor) {
+        return readAsync(location, bytes);
+    }
+
+    private static void readAsync(AsynchronousFileChannel channel, long location, ByteBuffer buffer, CompletableFuture<Integer> future) {
+        channel.read(buffer, location + buffer.position(), null, new CompletionHandler<Integer, Void>() {
+            @Override
+            public void completed(Integer n, Void attachment) {
+                if (n >= 0 && buffer.hasRemaining()) {
+                    readAsync(channel, location, buffer, future);
+                } else {
+                    future.complete(buffer.position() == 0 && buffer.capacity() > 0 ? -1 : buffer.position());
+                }
+            }
+
+            @Override
+            public void failed(Throwable ex, Void attachment) {
+                future.completeExceptionally(ex);
+            }
+        });
+    }
+
+    private AsynchronousFileChannel getAsynchronousChannel() throws IOException {
+        AsynchronousFileChannel out = asyncChannel;
+        if (out == null) {
+            synchronized (this) {
+                out = asyncChannel;
+                if (out == null) {
+                    out = AsynchronousFileChannel.open(path.toPath(), StandardOpenOption.READ);
+                    asyncChannel = out;
+                }
+            }
+        }
+        return out;
     }
 
     @Override
     public void write(long location, byte[] bytes) throws IOException {
-        this.file.seek(location);
-        this.file.write(bytes);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            this.channel.write(buffer, location + buffer.position());
+        }
+    }
+
+    /**
+     * Returns the channel of the underlying file, for direct channel to
+     * channel transfers
+     *
+     * @return
+     */
+    public FileChannel getChannel() {
+        return this.channel;
     }
 
     @Override
     public void close() throws IOException {
+        synchronized (this) {
+            if (asyncChannel != null) {
+                asyncChannel.close();
+            }
+        }
         this.file.close();
     }
 
@@ -24,24 +24,159 @@
 package com.github.harmanpa.jrecon.io;
 
 import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.Uninterruptibles;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Serializable;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.http.Header;
+import org.apache.http.HeaderElement;
 import org.apache.http.HttpEntity;
-import org.apache.http.HttpResponse;
-import org.apache.http.client.HttpClient;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.util.EntityUtils;
 
 /**
+ * Reads a remote resource with HTTP range requests. Connections are kept
+ * alive in a pool and reused by subsequent reads, so that only the first read
+ * pays for connection setup. The pool is created on first use and shut down
+ * by {@link #close()}. Batched reads of several ranges are made with a single
+ * multi-range request, answered with a multipart/byteranges response. If the
+ * server does not honour multi-range requests the ranges are read one by one
+ * from then on.
+ * <p>
+ * Large reads may be split into chunks fetched concurrently, and requests
+ * may be hedged: if a request takes longer than a percentile of recent
+ * request latencies a duplicate is sent, and whichever answers first is used.
+ * Both are off by default. Requests run on a pool with a thread for each
+ * connection, so that asynchronous reads never hold other threads waiting.
  *
  * @author pete
  */
 public class HttpRandomAccessResource implements RandomAccessResource {
 
+    public static final int DEFAULT_MAX_CONNECTIONS = 8;
+    public static final int DEFAULT_TIMEOUT = 30000;
+    /**
+     * Limits the length of the Range header, which servers restrict
+     */
+    public static final int MAX_RANGES_PER_REQUEST = 128;
     private final URI uri;
+    private final int maxConnections;
+    private final int connectTimeout;
+    private final int socketTimeout;
+    private transient PoolingHttpClientConnectionManager connectionManager;
+    private transient CloseableHttpClient client;
+    private transient ThreadPoolExecutor fetchExecutor;
+    private transient boolean closed;
+    private volatile boolean multiRange = true;
+    private volatile int parallelism = 1;
+    private volatile int minimumChunkSize = 1024 * 1024;
+    private volatile double hedgePercentile = 0;
+    private final LatencyTracker latencies = new LatencyTracker();
+    private final AtomicInteger hedges = new AtomicInteger();
 
     public HttpRandomAccessResource(URI uri) {
+        this(uri, DEFAULT_MAX_CONNECTIONS, DEFAULT_TIMEOUT, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     *
+     * @param uri
+     * @param maxConnections maximum number of connections to the server
+     * @param connectTimeout connection timeout in milliseconds
+     * @param socketTimeout timeout waiting for data in milliseconds
+     */
+    public HttpRandomAccessResource(URI uri, int maxConnections, int connectTimeout, int socketTimeout) {
         this.uri = uri;
+        this.maxConnections = maxConnections;
+        this.connectTimeout = connectTimeout;
+        this.socketTimeout = socketTimeout;
+    }
+
+    public URI getUri() {
+        return uri;
+    }
+
+    public boolean isMultiRange() {
+        return multiRange;
+    }
+
+    /**
+     * Sets whether batched reads use multi-range requests. This is switched
+     * off automatically if the server is found not to support them.
+     *
+     * @param multiRange
+     */
+    public void setMultiRange(boolean multiRange) {
+        this.multiRange = multiRange;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets the maximum number of concurrent requests a single large read is
+     * split into. Chunks are at least the minimum chunk size.
+     *
+     * @param parallelism
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public int getMinimumChunkSize() {
+        return minimumChunkSize;
+    }
+
+    public void setMinimumChunkSize(int minimumChunkSize) {
+        this.minimumChunkSize = minimumChunkSize;
+    }
+
+    public double getHedgePercentile() {
+        return hedgePercentile;
+    }
+
+    /**
+     * Sets the percentile of recent request latencies, for example 95, after
+     * which a duplicate request is sent. Zero, the default, disables hedging.
+     *
+     * @param hedgePercentile
+     */
+    public void setHedgePercentile(double hedgePercentile) {
+        this.hedgePercentile = hedgePercentile;
+    }
+
+    /**
+     * Returns the number of duplicate requests sent
+     *
+     * @return
+     */
+    public int getHedgeCount() {
+        return hedges.get();
     }
 
     @Override
@@ -51,15 +186,352 @@ public class HttpRandomAccessResource implements RandomAccessResource {
 
     @Override
     public int read(long location, byte[] bytes) throws IOException {
+        if (bytes.length == 0) {
+            // A range can not be empty
+            return 0;
+        }
+        if (chunks(bytes.length) <= 1 && hedgeThreshold() < 0) {
+            int read = fetch(location, bytes, 0, bytes.length, new HttpGet(uri));
+            return read == 0 && bytes.length > 0 ? -1 : read;
+        }
+        return new ChunkedRead(location, bytes).await();
+    }
+
+    /**
+     * Reads without blocking. Requests run on a pool with a thread for each
+     * connection, and hedged requests are started by a timer, so no thread
+     * waits for another to finish.
+     *
+     * @param location
+     * @param bytes
+     * @return
+     */
+    @Override
+    public CompletableFuture<Integer> readAsync(long location, byte[] bytes) {
+        if (bytes.length == 0) {
+            return CompletableFuture.completedFuture(0);
+        }
+        return new ChunkedRead(location, bytes).future;
+    }
+
+    @Override
+    public CompletableFuture<Integer> readAsync(long location, byte[] bytes, Executor executor) {
+        return readAsync(location, bytes);
+    }
+
+    private int chunks(int length) {
+        return parallelism <= 1 ? 1 : (int) Math.min(parallelism, length / Math.max(1, minimumChunkSize));
+    }
+
+    /**
+     * Returns the time in nanoseconds after which a duplicate request is
+     * sent, or -1 if hedging is disabled or there are too few samples
+     */
+    private long hedgeThreshold() {
+        return hedgePercentile > 0 ? latencies.percentile(hedgePercentile) : -1;
+    }
+
+    /**
+     * Fetches a range, sending a duplicate request if hedging is enabled and
+     * the first is slow
+     */
+    private Fetch fetchAsync(long location, byte[] bytes, int offset, int length) {
+        long threshold = hedgeThreshold();
+        if (threshold < 0) {
+            return new Attempt(location, bytes, offset, length);
+        }
+        HedgedFetch fetch = new HedgedFetch(location, bytes, offset, length);
+        fetch.start(threshold);
+        return fetch;
+    }
+
+    /**
+     * Fetches a single range into part of an array. A range starting beyond
+     * the end of the resource reads nothing.
+     */
+    private int fetch(long location, byte[] bytes, int offset, int length, HttpGet get) throws IOException {
+        get.addHeader("Range", "bytes=" + Long.toString(location) + "-" + Long.toString(location + length - 1));
+        long start = System.nanoTime();
+        try (CloseableHttpResponse response = getClient().execute(get)) {
+            switch (response.getStatusLine().getStatusCode()) {
+                case 206:
+                    HttpEntity entity = response.getEntity();
+                    try {
+                        int n = ByteStreams.read(entity.getContent(), bytes, offset, length);
+                        latencies.record(System.nanoTime() - start);
+                        return n;
+                    } finally {
+                        // Consume any remainder so the connection returns to the pool
+                        EntityUtils.consumeQuietly(entity);
+                    }
+                case 416:
+                    return 0;
+                default:
+                    // Closing without consuming the body discards the connection
+                    throw new IOException(response.getStatusLine().getReasonPhrase());
+            }
+        }
+    }
+
+    @Override
+    public int[] read(long[] locations, byte[][] bytes) throws IOException {
+        if (locations.length != bytes.length) {
+            throw new IllegalArgumentException("Number of locations and buffers differ");
+        }
+        int[] out = new int[locations.length];
+        boolean[] done = new boolean[locations.length];
+        for (int i = 0; i < locations.length; i++) {
+            done[i] = bytes[i].length == 0;
+        }
+        if (multiRange && locations.length > 1) {
+            for (int start = 0; start < locations.length; start += MAX_RANGES_PER_REQUEST) {
+                RangesResult result = readRanges(locations, bytes, start, Math.min(locations.length, start + MAX_RANGES_PER_REQUEST), out, done);
+                if (result == RangesResult.UNSUPPORTED) {
+                    multiRange = false;
+                }
+                if (result != RangesResult.COMPLETE) {
+                    // The remaining ranges are read one by one
+                    break;
+                }
+            }
+        }
+        for (int i = 0; i < locations.length; i++) {
+            if (!done[i]) {
+                out[i] = read(locations[i], bytes[i]);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * The outcome of a multi-range request
+     */
+    private enum RangesResult {
+        /**
+         * All ranges were read
+         */
+        COMPLETE,
+        /**
+         * The server answered with the whole resource or a single range not
+         * covering them all, so does not support multi-range requests
+         */
+        UNSUPPORTED,
+        /**
+         * The server answered with an error, which may be transient
+         */
+        FAILED
+    }
+
+    /**
+     * Reads ranges start to end with one request
+     */
+    private RangesResult readRanges(long[] locations, byte[][] bytes, int start, int end, int[] out, boolean[] done) throws IOException {
+        StringBuilder range = new StringBuilder("bytes=");
+        int ranges = 0;
+        for (int i = start; i < end; i++) {
+            if (done[i]) {
+                continue;
+            }
+            if (ranges++ > 0) {
+                range.append(',');
+            }
+            range.append(locations[i]).append('-').append(locations[i] + bytes[i].length - 1);
+        }
+        if (ranges == 0) {
+            return RangesResult.COMPLETE;
+        }
         HttpGet get = new HttpGet(uri);
-        get.addHeader("Range", "bytes=" + Long.toString(location) + "-" + Integer.toString((int) location + bytes.length - 1));
-        HttpClient client = new DefaultHttpClient();
-        HttpResponse response = client.execute(get);
-        if (response.getStatusLine().getStatusCode() == 206) {
+        get.addHeader("Range", range.toString());
+        try (CloseableHttpResponse response = getClient().execute(get)) {
+            switch (response.getStatusLine().getStatusCode()) {
+                case 206:
+                    break;
+                case 200:
+                    // Closing without consuming the body discards the connection
+                    return RangesResult.UNSUPPORTED;
+                default:
+                    return RangesResult.FAILED;
+            }
             HttpEntity entity = response.getEntity();
-            return ByteStreams.read(entity.getContent(), bytes, 0, bytes.length);
+            String boundary = getBoundary(entity);
+            if (boundary == null) {
+                // A single range, either merged by the server or the first only
+                Header contentRange = response.getFirstHeader("Content-Range");
+                if (contentRange == null) {
+                    EntityUtils.consumeQuietly(entity);
+                    return RangesResult.UNSUPPORTED;
+                }
+                Part part = new Part(contentRange.getValue(), EntityUtils.toByteArray(entity));
+                boolean all = true;
+                for (int i = start; i < end; i++) {
+                    if (!done[i]) {
+                        all &= part.fill(locations[i], bytes[i], i, out, done);
+                    }
+                }
+                return all ? RangesResult.COMPLETE : RangesResult.UNSUPPORTED;
+            }
+            for (Part part : parseMultipart(EntityUtils.toByteArray(entity), boundary)) {
+                for (int i = start; i < end; i++) {
+                    if (!done[i]) {
+                        part.fill(locations[i], bytes[i], i, out, done);
+                    }
+                }
+            }
+            return RangesResult.COMPLETE;
         }
-        throw new IOException(response.getStatusLine().getReasonPhrase());
+    }
+
+    private static String getBoundary(HttpEntity entity) {
+        if (entity.getContentType() == null) {
+            return null;
+        }
+        for (HeaderElement element : entity.getContentType().getElements()) {
+            if ("multipart/byteranges".equalsIgnoreCase(element.getName())) {
+                NameValuePair boundary = element.getParameterByName("boundary");
+                return boundary == null ? null : boundary.getValue();
+            }
+        }
+        return null;
+    }
+
+    static List<Part> parseMultipart(byte[] body, String boundary) throws IOException {
+        byte[] delimiter = ("--" + boundary).getBytes(StandardCharsets.US_ASCII);
+        List<Part> parts = new ArrayList<>();
+        int position = indexOf(body, delimiter, 0);
+        while (position >= 0) {
+            position += delimiter.length;
+            if (position + 1 < body.length && body[position] == '-' && body[position + 1] == '-') {
+                break;
+            }
+            position = endOfLine(body, position);
+            String contentRange = null;
+            while (true) {
+                int next = endOfLine(body, position);
+                String line = new String(body, position, next - position, StandardCharsets.US_ASCII).trim();
+                position = next;
+                if (line.isEmpty()) {
+                    break;
+                }
+                int colon = line.indexOf(':');
+                if (colon > 0 && "Content-Range".equalsIgnoreCase(line.substring(0, colon).trim())) {
+                    contentRange = line.substring(colon + 1).trim();
+                }
+            }
+            if (contentRange == null) {
+                throw new IOException("Missing Content-Range in multipart response");
+            }
+            Part part = new Part(contentRange, null);
+            int length = (int) (part.last - part.first + 1);
+            if (position + length > body.length) {
+                throw new IOException("Truncated multipart response");
+            }
+            part.data = new byte[length];
+            System.arraycopy(body, position, part.data, 0, length);
+            parts.add(part);
+            position = indexOf(body, delimiter, position + length);
+        }
+        return parts;
+    }
+
+    private static int endOfLine(byte[] body, int position) throws IOException {
+        for (int i = position; i < body.length; i++) {
+            if (body[i] == '\n') {
+                return i + 1;
+            }
+        }
+        throw new IOException("Truncated multipart response");
+    }
+
+    private static int indexOf(byte[] body, byte[] target, int from) {
+        outer:
+        for (int i = from; i <= body.length - target.length; i++) {
+            for (int j = 0; j < target.length; j++) {
+                if (body[i + j] != target[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns a validator identifying the current version of the resource,
+     * from its strong ETag or otherwise its Last-Modified date, or null if the
+     * server provides neither. If a previous validator is given the request is
+     * conditional on it, and it is returned unchanged if the resource has not
+     * been modified.
+     *
+     * @param previous
+     * @return
+     * @throws IOException
+     */
+    public String getValidator(String previous) throws IOException {
+        HttpHead head = new HttpHead(uri);
+        if (previous != null && previous.startsWith("ETag:")) {
+            head.addHeader("If-None-Match", previous.substring(5));
+        } else if (previous != null && previous.startsWith("Last-Modified:")) {
+            head.addHeader("If-Modified-Since", previous.substring(14));
+        }
+        try (CloseableHttpResponse response = getClient().execute(head)) {
+            switch (response.getStatusLine().getStatusCode()) {
+                case 304:
+                    return previous;
+                case 200:
+                    Header etag = response.getFirstHeader("ETag");
+                    if (etag != null && !etag.getValue().startsWith("W/")) {
+                        return "ETag:" + etag.getValue();
+                    }
+                    Header lastModified = response.getFirstHeader("Last-Modified");
+                    return lastModified == null ? null : "Last-Modified:" + lastModified.getValue();
+                default:
+                    throw new IOException(response.getStatusLine().getReasonPhrase());
+            }
+        }
+    }
+
+    synchronized CloseableHttpClient getClient() throws IOException {
+        if (closed) {
+            throw new IOException("Resource is closed");
+        }
+        if (client == null) {
+            connectionManager = new PoolingHttpClientConnectionManager();
+            connectionManager.setMaxTotal(maxConnections);
+            connectionManager.setDefaultMaxPerRoute(maxConnections);
+            client = HttpClients.custom()
+                    .setConnectionManager(connectionManager)
+                    .setDefaultRequestConfig(RequestConfig.custom()
+                            .setConnectTimeout(connectTimeout)
+                            .setConnectionRequestTimeout(connectTimeout)
+                            .setSocketTimeout(socketTimeout)
+                            .build())
+                    .build();
+        }
+        return client;
+    }
+
+    /**
+     * Returns the pool requests run on, which has a thread for each
+     * connection and runs nothing that waits on another request
+     */
+    private synchronized Executor getFetchExecutor() throws IOException {
+        if (closed) {
+            throw new IOException("Resource is closed");
+        }
+        if (fetchExecutor == null) {
+            fetchExecutor = AsyncIO.newExecutor(maxConnections, "jrecon-http-%d");
+        }
+        return fetchExecutor;
+    }
+
+    /**
+     * Returns the state of the connection pool, or null if no request has
+     * been made
+     *
+     * @return
+     */
+    public synchronized PoolStats getPoolStats() {
+        return connectionManager == null ? null : connectionManager.getTotalStats();
     }
 
     @Override
@@ -68,7 +540,303 @@ public class HttpRandomAccessResource implements RandomAccessResource {
     }
 
     @Override
-    public void close() throws IOException {
+    public synchronized void close() throws IOException {
+        closed = true;
+        if (fetchExecutor != null) {
+            fetchExecutor.shutdown();
+            fetchExecutor = null;
+        }
+        if (client != null) {
+            client.close();
+            client = null;
+            connectionManager = null;
+        }
+    }
+
+    /**
+     * A part of a range response, from Content-Range bytes first-last/total
+     */
+    static class Part {
+
+        private final long first;
+        private final long last;
+        private final long total;
+        private byte[] data;
+
+        Part(String contentRange, byte[] data) throws IOException {
+            try {
+                String spec = contentRange.trim();
+                if (spec.startsWith("bytes")) {
+                    spec = spec.substring(5).trim();
+                }
+                int dash = spec.indexOf('-');
+                int slash = spec.indexOf('/');
+                this.first = Long.parseLong(spec.substring(0, dash).trim());
+                this.last = Long.parseLong(spec.substring(dash + 1, slash < 0 ? spec.length() : slash).trim());
+                String length = slash < 0 ? "*" : spec.substring(slash + 1).trim();
+                this.total = "*".equals(length) ? -1 : Long.parseLong(length);
+            } catch (RuntimeException ex) {
+                throw new IOException("Invalid Content-Range " + contentRange, ex);
+            }
+            this.data = data;
+        }
+
+        /**
+         * Copies the requested range if this part covers it, or covers it up
+         * to the end of the resource.
+         */
+        boolean fill(long location, byte[] bytes, int i, int[] out, boolean[] done) {
+            long end = first + data.length;
+            if (location < first || location >= end) {
+                return false;
+            }
+            int n = (int) Math.min(bytes.length, end - location);
+            if (n < bytes.length && end != total) {
+                return false;
+            }
+            System.arraycopy(data, (int) (location - first), bytes, 0, n);
+            out[i] = n;
+            done[i] = true;
+            return true;
+        }
+    }
+
+    /**
+     * A range being fetched into part of an array
+     */
+    private interface Fetch {
+
+        CompletableFuture<Integer> getFuture();
+
+        /**
+         * Stops the fetch early. Once its future has completed nothing more
+         * is written to the array.
+         */
+        void abort();
     }
 
+    /**
+     * A read split into chunks fetched concurrently. If a chunk fails the
+     * others are aborted, and the read completes with that failure only
+     * once every chunk has finished writing to the array.
+     */
+    private class ChunkedRead {
+
+        private final List<Fetch> chunks = new ArrayList<>();
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+        private final CompletableFuture<Integer> future;
+
+        ChunkedRead(long location, byte[] bytes) {
+            int length = bytes.length;
+            int n = chunks(length);
+            int chunk = n <= 1 ? length : (length + n - 1) / n;
+            for (int offset = 0; offset < length || chunks.isEmpty(); offset += chunk) {
+                chunks.add(fetchAsync(location + offset, bytes, offset, Math.min(chunk, length - offset)));
+            }
+            CompletableFuture<?>[] futures = new CompletableFuture<?>[chunks.size()];
+            for (int i = 0; i < futures.length; i++) {
+                futures[i] = chunks.get(i).getFuture().whenComplete((r, ex) -> {
+                    if (ex != null && failure.compareAndSet(null, ex)) {
+                        abort();
+                    }
+                });
+            }
+            this.future = CompletableFuture.allOf(futures).handle((v, ex) -> {
+                if (failure.get() != null) {
+                    throw failure.get() instanceof CompletionException
+                            ? (CompletionException) failure.get() : new CompletionException(failure.get());
+                }
+                int read = 0;
+                boolean complete = true;
+                for (int i = 0; i < chunks.size() && complete; i++) {
+                    int r = chunks.get(i).getFuture().join();
+                    read += r;
+                    complete = r == Math.min(chunk, length - i * chunk);
+                }
+                return read == 0 && length > 0 ? -1 : read;
+            });
+        }
+
+        void abort() {
+            for (Fetch chunk : chunks) {
+                chunk.abort();
+            }
+        }
+
+        /**
+         * Waits for the read. If interrupted the chunks are aborted, and
+         * waited for before returning.
+         */
+        int await() throws IOException {
+            try {
+                return future.get();
+            } catch (InterruptedException ex) {
+                abort();
+                for (Fetch chunk : chunks) {
+                    try {
+                        Uninterruptibles.getUninterruptibly(chunk.getFuture());
+                    } catch (ExecutionException | CancellationException ex2) {
+                        // Aborted
+                    }
+                }
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof IOException) {
+                    throw (IOException) ex.getCause();
+                }
+                throw new IOException(ex.getCause());
+            }
+        }
+    }
+
+    /**
+     * A request for a range, run on the pool of fetching threads
+     */
+    private class Attempt implements Fetch {
+
+        private final HttpGet get = new HttpGet(uri);
+        private final byte[] buffer;
+        private final CompletableFuture<Integer> future;
+
+        Attempt(long location, byte[] buffer, int offset, int length) {
+            this.buffer = buffer;
+            CompletableFuture<Integer> f;
+            try {
+                f = AsyncIO.supplyAsync(() -> fetch(location, buffer, offset, length, get), getFetchExecutor());
+            } catch (IOException | RejectedExecutionException ex) {
+                f = AsyncIO.failed(ex instanceof IOException ? ex : new IOException("Resource is closed", ex));
+            }
+            this.future = f;
+        }
+
+        @Override
+        public CompletableFuture<Integer> getFuture() {
+            return future;
+        }
+
+        @Override
+        public void abort() {
+            get.abort();
+        }
+    }
+
+    /**
+     * A range fetched by a first request and, if that fails or is still
+     * running after the threshold, a duplicate. Each request reads into its
+     * own buffer, and the first to succeed is copied out and the other
+     * aborted.
+     */
+    private class HedgedFetch implements Fetch {
+
+        private final long location;
+        private final byte[] bytes;
+        private final int offset;
+        private final int length;
+        private final List<Attempt> attempts = new ArrayList<>(2);
+        private final CompletableFuture<Integer> result = new CompletableFuture<>();
+        private ScheduledFuture<?> timer;
+        private int failures;
+
+        HedgedFetch(long location, byte[] bytes, int offset, int length) {
+            this.location = location;
+            this.bytes = bytes;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        synchronized void start(long threshold) {
+            attempt();
+            if (!result.isDone() && attempts.size() == 1) {
+                timer = AsyncIO.schedule(this::hedge, threshold, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        @Override
+        public CompletableFuture<Integer> getFuture() {
+            return result;
+        }
+
+        @Override
+        public synchronized void abort() {
+            if (result.isDone()) {
+                return;
+            }
+            if (timer != null) {
+                timer.cancel(false);
+            }
+            for (Attempt attempt : attempts) {
+                attempt.abort();
+            }
+            result.completeExceptionally(new InterruptedIOException("Aborted"));
+        }
+
+        private synchronized void attempt() {
+            Attempt attempt = new Attempt(location, new byte[length], 0, length);
+            attempts.add(attempt);
+            attempt.future.whenComplete((n, ex) -> completed(attempt, n, ex));
+        }
+
+        private synchronized void hedge() {
+            if (!result.isDone() && attempts.size() == 1) {
+                hedges.incrementAndGet();
+                attempt();
+            }
+        }
+
+        private synchronized void completed(Attempt attempt, Integer n, Throwable ex) {
+            if (result.isDone()) {
+                return;
+            }
+            if (ex == null) {
+                System.arraycopy(attempt.buffer, 0, bytes, offset, n);
+                if (timer != null) {
+                    timer.cancel(false);
+                }
+                for (Attempt other : attempts) {
+                    if (other != attempt) {
+                        other.abort();
+                    }
+                }
+                result.complete(n);
+            } else if (++failures == attempts.size()) {
+                if (attempts.size() == 1) {
+                    hedge();
+                } else {
+                    result.completeExceptionally(ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * The latencies of the most recent successful requests
+     */
+    private static final class LatencyTracker implements Serializable {
+
+        private static final int MINIMUM_SAMPLES = 10;
+        private final long[] samples = new long[128];
+        private int count;
+        private int next;
+
+        synchronized void record(long nanos) {
+            samples[next] = nanos;
+            next = (next + 1) % samples.length;
+            count = Math.min(count + 1, samples.length);
+        }
+
+        /**
+         * Returns the given percentile of recent latencies in nanoseconds, or
+         * -1 if there are too few samples
+         */
+        synchronized long percentile(double percentile) {
+            if (count < MINIMUM_SAMPLES) {
+                return -1;
+            }
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile / 100.0 * count) - 1;
+            return sorted[Math.max(0, Math.min(count - 1, index))];
+        }
+    }
 }
@@ -0,0 +1,140 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 CyDesign Limited
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.harmanpa.jrecon.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a local file through read-only memory mappings of the file, so reads
+ * are served from the page cache without a system call. Files larger than a
+ * single mapping allows are mapped in several segments.
+ *
+ * @author pete
+ */
+public class MappedFileRandomAccessResource implements RandomAccessResource {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 1 << 30;
+    private final long length;
+    private final int segmentSize;
+    private final MappedByteBuffer[] segments;
+    private volatile boolean closed;
+
+    public MappedFileRandomAccessResource(File file) throws IOException {
+        this(file, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public MappedFileRandomAccessResource(File file, int segmentSize) throws IOException {
+        if (segmentSize <= 0) {
+            throw new IllegalArgumentException("Segment size must be positive");
+        }
+        this.segmentSize = segmentSize;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            this.length = channel.size();
+            this.segments = new MappedByteBuffer[(int) ((length + segmentSize - 1) / segmentSize)];
+            for (int i = 0; i < segments.length; i++) {
+                long start = (long) i * segmentSize;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(segmentSize, length - start));
+            }
+        }
+        this.closed = false;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    @Override
+    public boolean canWrite() {
+        return false;
+    }
+
+    @Override
+    public int read(long location, byte[] bytes) throws IOException {
+        checkOpen();
+        if (location >= length) {
+            return bytes.length == 0 ? 0 : -1;
+        }
+        int n = (int) Math.min(bytes.length, length - location);
+        int read = 0;
+        while (read < n) {
+            long position = location + read;
+            ByteBuffer segment = segments[(int) (position / segmentSize)].duplicate();
+            segment.position((int) (position % segmentSize));
+            int count = Math.min(segment.remaining(), n - read);
+            segment.get(bytes, read, count);
+            read += count;
+        }
+        return read;
+    }
+
+    /**
+     * Returns a buffer of length bytes starting at location. The buffer is a
+     * read-only view of the mapping unless the range crosses from one segment
+     * into the next, in which case it is a heap copy private to the caller.
+     *
+     * @param location
+     * @param length
+     * @return
+     * @throws IOException
+     */
+    public ByteBuffer slice(long location, int length) throws IOException {
+        checkOpen();
+        if (location < 0 || length < 0 || location + length > this.length) {
+            throw new IOException("Range " + location + "+" + length + " is outside of the file");
+        }
+        int index = (int) (location / segmentSize);
+        int offset = (int) (location % segmentSize);
+        if (length == 0 || offset + length <= segments[index].limit()) {
+            ByteBuffer segment = segments[index].duplicate();
+            segment.position(offset);
+            segment.limit(offset + length);
+            return segment.slice();
+        }
+        byte[] bytes = new byte[length];
+        read(location, bytes);
+        return ByteBuffer.wrap(bytes);
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Resource is closed");
+        }
+    }
+
+    @Override
+    public void write(long location, byte[] bytes) throws IOException {
+        throw new UnsupportedOperationException("Write not supported");
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+    }
+}
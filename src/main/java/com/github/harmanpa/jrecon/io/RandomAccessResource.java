@@ -26,6 +26,8 @@ package com.github.harmanpa.jrecon.io;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 /**
  *
@@ -41,7 +43,9 @@ public interface RandomAccessResource extends Serializable, Closeable {
     public boolean canWrite();
 
     /**
-     * Reads bytes.length bytes into bytes, starting at location
+     * Reads bytes.length bytes into bytes, starting at location. Fewer bytes
+     * are only read if the end of the resource is reached. Implementations
+     * should allow concurrent reads from several threads.
      *
      * @param location
      * @param bytes
@@ -50,6 +54,54 @@ public interface RandomAccessResource extends Serializable, Closeable {
      */
     public int read(long location, byte[] bytes) throws IOException;
 
+    /**
+     * Reads several ranges, filling each of bytes with the data starting at
+     * the corresponding location. Implementations may fetch all the ranges at
+     * once, for example in a single remote request.
+     *
+     * @param locations
+     * @param bytes
+     * @return number of bytes read into each array
+     * @throws IOException
+     */
+    public default int[] read(long[] locations, byte[][] bytes) throws IOException {
+        if (locations.length != bytes.length) {
+            throw new IllegalArgumentException("Number of locations and buffers differ");
+        }
+        int[] out = new int[locations.length];
+        for (int i = 0; i < locations.length; i++) {
+            out[i] = read(locations[i], bytes[i]);
+        }
+        return out;
+    }
+
+    /**
+     * Reads as {@link #read(long, byte[])} without blocking the calling
+     * thread. The future completes with the number of bytes read, or
+     * exceptionally with the IOException as cause. Unless overridden the read
+     * runs on the shared executor of {@link AsyncIO}.
+     *
+     * @param location
+     * @param bytes
+     * @return
+     */
+    public default CompletableFuture<Integer> readAsync(long location, byte[] bytes) {
+        return readAsync(location, bytes, AsyncIO.getExecutor());
+    }
+
+    /**
+     * Reads as {@link #read(long, byte[])}, running the read on the given
+     * executor unless the implementation does not need a thread to wait.
+     *
+     * @param location
+     * @param bytes
+     * @param executor
+     * @return
+     */
+    public default CompletableFuture<Integer> readAsync(long location, byte[] bytes, Executor executor) {
+        return AsyncIO.supplyAsync(() -> read(location, bytes), executor);
+    }
+
     /**
      * Writes bytes.length bytes from bytes, starting at location
      *
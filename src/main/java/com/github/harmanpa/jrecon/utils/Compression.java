@@ -46,8 +46,12 @@ public class Compression {
     }
 
     public static byte[] decompress(byte[] data) throws IOException {
+        return decompress(data, 0, data.length);
+    }
+
+    public static byte[] decompress(byte[] data, int offset, int length) throws IOException {
         ByteArrayOutputStream baos;
-        try (InputStream is = new BZip2CompressorInputStream(new ByteArrayInputStream(data))) {
+        try (InputStream is = new BZip2CompressorInputStream(new ByteArrayInputStream(data, offset, length))) {
             baos = new ByteArrayOutputStream(128);
             int b;
             while ((b = is.read()) > -1) {
@@ -0,0 +1,140 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 CyDesign Limited
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.harmanpa.jrecon.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parses decimal numbers from ASCII bytes without allocating. Numbers with up
+ * to 15 significant digits and a decimal exponent within 22 of them, which
+ * covers almost all numbers written by simulation tools, are converted
+ * exactly with a single multiplication or division. Others, and special values
+ * such as NaN, are handed to {@link Double#parseDouble(java.lang.String)}.
+ *
+ * @author pete
+ */
+public class DecimalParser {
+
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static {
+        POWERS_OF_TEN[0] = 1.0;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10.0;
+        }
+    }
+
+    /**
+     * Parses the number held in bytes start (inclusive) to end (exclusive) of
+     * the buffer, which should already be trimmed.
+     *
+     * @param bytes
+     * @param start
+     * @param end
+     * @return
+     * @throws NumberFormatException
+     */
+    public static double parse(ByteBuffer bytes, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (bytes.get(i) == '-' || bytes.get(i) == '+')) {
+            negative = bytes.get(i) == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean any = false;
+        for (; i < end; i++) {
+            int d = bytes.get(i) - '0';
+            if (d < 0 || d > 9) {
+                break;
+            }
+            any = true;
+            if (digits > 0 || d != 0) {
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + d;
+                    digits++;
+                } else {
+                    exponent++;
+                    digits++;
+                }
+            }
+        }
+        if (i < end && bytes.get(i) == '.') {
+            for (i++; i < end; i++) {
+                int d = bytes.get(i) - '0';
+                if (d < 0 || d > 9) {
+                    break;
+                }
+                any = true;
+                if (digits > 0 || d != 0) {
+                    if (digits < 18) {
+                        mantissa = mantissa * 10 + d;
+                        exponent--;
+                    }
+                    digits++;
+                } else {
+                    exponent--;
+                }
+            }
+        }
+        if (any && i < end && (bytes.get(i) == 'e' || bytes.get(i) == 'E')) {
+            int j = i + 1;
+            boolean negativeExponent = false;
+            if (j < end && (bytes.get(j) == '-' || bytes.get(j) == '+')) {
+                negativeExponent = bytes.get(j) == '-';
+                j++;
+            }
+            int e = 0;
+            boolean anyExponent = false;
+            for (; j < end; j++) {
+                int d = bytes.get(j) - '0';
+                if (d < 0 || d > 9 || e > 100000) {
+                    break;
+                }
+                e = e * 10 + d;
+                anyExponent = true;
+            }
+            if (anyExponent) {
+                exponent += negativeExponent ? -e : e;
+                i = j;
+            }
+        }
+        if (!any || i != end || digits > 15 || exponent < -22 || exponent > 22) {
+            return slowParse(bytes, start, end);
+        }
+        double value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+        return negative ? -value : value;
+    }
+
+    private static double slowParse(ByteBuffer bytes, int start, int end) {
+        byte[] text = new byte[end - start];
+        for (int i = 0; i < text.length; i++) {
+            text[i] = bytes.get(start + i);
+        }
+        return Double.parseDouble(new String(text, StandardCharsets.US_ASCII));
+    }
+}
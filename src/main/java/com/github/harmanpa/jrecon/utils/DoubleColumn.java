@@ -0,0 +1,274 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 CyDesign Limited
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.harmanpa.jrecon.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A growable column of doubles, held in blocks so that growing never copies
+ * the values already added. Blocks start small and double in size up to
+ * {@link #BLOCK_SIZE}, so that many short columns stay small. Full blocks may
+ * be spilled to a temporary file once a {@link Spill} is over its memory
+ * limit, and columns may be joined without copying. This class is not thread-safe, although
+ * columns on different threads may share a spill.
+ *
+ * @author pete
+ */
+public class DoubleColumn {
+
+    public static final int BLOCK_SIZE = 64 * 1024;
+    public static final int MINIMUM_BLOCK_SIZE = 16;
+    private final Spill spill;
+    private final List<Block> blocks = new ArrayList<>();
+    private double[] current;
+    private int count;
+    private long size;
+    private int nextBlockSize = MINIMUM_BLOCK_SIZE;
+
+    public DoubleColumn() {
+        this(null);
+    }
+
+    /**
+     *
+     * @param spill where to spill full blocks, or null to keep all in memory
+     */
+    public DoubleColumn(Spill spill) {
+        this.spill = spill;
+    }
+
+    public void add(double value) throws IOException {
+        if (current == null) {
+            current = spill == null ? new double[nextBlockSize] : spill.allocate(nextBlockSize);
+            count = 0;
+            nextBlockSize = Math.min(BLOCK_SIZE, 2 * current.length);
+        }
+        current[count++] = value;
+        size++;
+        if (count == current.length) {
+            blocks.add(spill == null ? new Block(current, count) : spill.block(current, count));
+            current = null;
+        }
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Moves the values of another column onto the end of this one, leaving the
+     * other column empty.
+     *
+     * @param other
+     */
+    public void append(DoubleColumn other) {
+        completeBlock();
+        other.completeBlock();
+        blocks.addAll(other.blocks);
+        size += other.size;
+        other.blocks.clear();
+        other.size = 0;
+    }
+
+    private void completeBlock() {
+        if (current != null) {
+            blocks.add(new Block(current, count));
+            current = null;
+        }
+    }
+
+    /**
+     * Passes the values to the consumer a block at a time, reading spilled
+     * blocks back into a reused array.
+     *
+     * @param consumer
+     * @throws IOException
+     */
+    public void forEachBlock(BlockConsumer consumer) throws IOException {
+        double[] buffer = null;
+        for (Block block : blocks) {
+            if (block.data != null) {
+                consumer.accept(block.data, block.length);
+            } else {
+                if (buffer == null) {
+                    buffer = new double[BLOCK_SIZE];
+                }
+                spill.read(block, buffer);
+                consumer.accept(buffer, block.length);
+            }
+        }
+        if (current != null) {
+            consumer.accept(current, count);
+        }
+    }
+
+    public double[] toArray() throws IOException {
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IOException("Column of " + size + " values is too large for an array");
+        }
+        double[] out = new double[(int) size];
+        int[] position = new int[1];
+        forEachBlock((double[] data, int length) -> {
+            System.arraycopy(data, 0, out, position[0], length);
+            position[0] += length;
+        });
+        return out;
+    }
+
+    public interface BlockConsumer {
+
+        public void accept(double[] data, int length) throws IOException;
+    }
+
+    private static final class Block {
+
+        private final double[] data;
+        private final int length;
+        private final long position;
+
+        Block(double[] data, int length) {
+            this.data = data;
+            this.length = length;
+            this.position = -1;
+        }
+
+        Block(long position, int length) {
+            this.data = null;
+            this.length = length;
+            this.position = position;
+        }
+    }
+
+    /**
+     * A temporary file shared by columns, to which full blocks are written
+     * once the blocks held in memory by those columns exceed a limit. Blocks
+     * count against the limit from when they are allocated, and the blocks
+     * being filled are kept small enough that those of all the columns filled
+     * at once fit within it. The file is deleted on close.
+     */
+    public static final class Spill implements Closeable {
+
+        private final long memoryLimit;
+        private final AtomicLong inMemory = new AtomicLong();
+        private volatile int maximumBlockSize = BLOCK_SIZE;
+        private File file;
+        private FileChannel channel;
+        private long length;
+
+        /**
+         *
+         * @param memoryLimit bytes of blocks to hold in memory
+         */
+        public Spill(long memoryLimit) {
+            this.memoryLimit = memoryLimit;
+        }
+
+        /**
+         * Sets the number of columns which are filled at once, limiting the
+         * size of their blocks so that a block being filled by each of them
+         * fits within the memory limit, although never below
+         * {@link #MINIMUM_BLOCK_SIZE}.
+         *
+         * @param columns
+         */
+        public void setConcurrentColumns(long columns) {
+            long size = memoryLimit / 8 / Math.max(1, columns);
+            maximumBlockSize = (int) Math.max(MINIMUM_BLOCK_SIZE, Math.min(BLOCK_SIZE, size));
+        }
+
+        public long getInMemory() {
+            return inMemory.get();
+        }
+
+        double[] allocate(int size) {
+            double[] data = new double[Math.min(size, maximumBlockSize)];
+            inMemory.addAndGet(8L * data.length);
+            return data;
+        }
+
+        /**
+         * Keeps a full block in memory if within the limit, or otherwise
+         * writes it to the file and releases its memory
+         */
+        Block block(double[] data, int count) throws IOException {
+            if (inMemory.get() <= memoryLimit) {
+                return new Block(data, count);
+            }
+            inMemory.addAndGet(-8L * data.length);
+            ByteBuffer buffer = ByteBuffer.allocate(8 * count).order(ByteOrder.nativeOrder());
+            buffer.asDoubleBuffer().put(data, 0, count);
+            synchronized (this) {
+                if (channel == null) {
+                    file = File.createTempFile("jrecon", ".spill");
+                    file.deleteOnExit();
+                    channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+                }
+                long position = length;
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer, position + buffer.position());
+                }
+                length += buffer.capacity();
+                return new Block(position, count);
+            }
+        }
+
+        void read(Block block, double[] into) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(8 * block.length).order(ByteOrder.nativeOrder());
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, block.position + buffer.position()) < 0) {
+                    throw new IOException("Spill file ended early");
+                }
+            }
+            buffer.flip();
+            buffer.asDoubleBuffer().get(into, 0, block.length);
+        }
+
+        /**
+         * Returns the number of bytes spilled to disk
+         *
+         * @return
+         */
+        public synchronized long getSpilled() {
+            return length;
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (channel != null) {
+                channel.close();
+                channel = null;
+                file.delete();
+            }
+        }
+    }
+}
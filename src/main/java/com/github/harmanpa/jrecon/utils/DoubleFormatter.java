@@ -0,0 +1,276 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 CyDesign Limited
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.harmanpa.jrecon.utils;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Formats doubles as ASCII text into a byte array without allocating, with
+ * the fewest significant digits that parse back to exactly the same double.
+ * The digits are found with the Schubfach algorithm of Raffaello Giulietti,
+ * as used by Double.toString since Java 19. Values from 1e-6 up to 1e16 are
+ * written in plain notation, integers without a point, and others in
+ * scientific notation, such as 1.5E-7.
+ *
+ * @author pete
+ */
+public class DoubleFormatter {
+
+    /**
+     * The most bytes a formatted value may need
+     */
+    public static final int MAX_LENGTH = 32;
+    private static final int P = 53;
+    private static final int Q_MIN = -1074;
+    private static final long C_MIN = 1L << (P - 1);
+    private static final long C_TINY = 3;
+    private static final int K_MIN = -324;
+    private static final int K_MAX = 292;
+    private static final long MASK_63 = (1L << 63) - 1;
+    /**
+     * For each k, the 126 bit g = floor(10^-k 2^(125 - flog2pow10(-k))) + 1
+     * split into its high and low 63 bits
+     */
+    private static final long[] G = new long[2 * (K_MAX - K_MIN + 1)];
+
+    static {
+        for (int k = K_MIN; k <= K_MAX; k++) {
+            int e = -k;
+            int r = 125 - flog2pow10(e);
+            // A negative shift is a floored shift right
+            BigInteger g = (e >= 0
+                    ? BigInteger.TEN.pow(e).shiftLeft(r)
+                    : BigInteger.ONE.shiftLeft(r).divide(BigInteger.TEN.pow(-e))).add(BigInteger.ONE);
+            G[2 * (k - K_MIN)] = g.shiftRight(63).longValue();
+            G[2 * (k - K_MIN) + 1] = g.longValue() & MASK_63;
+        }
+    }
+
+    /**
+     * Writes the value into out at position, which must have room for
+     * {@link #MAX_LENGTH} bytes.
+     *
+     * @param value
+     * @param out
+     * @param position
+     * @return the position after the value
+     */
+    public static int format(double value, byte[] out, int position) {
+        long bits = Double.doubleToRawLongBits(value);
+        int bq = (int) (bits >>> (P - 1)) & 0x7FF;
+        long bc = bits & (C_MIN - 1);
+        if (bq == 0x7FF) {
+            return writeAscii(bc != 0 ? "NaN" : bits < 0 ? "-Infinity" : "Infinity", out, position);
+        }
+        if (bits < 0) {
+            out[position++] = '-';
+        }
+        if (bq != 0) {
+            int q = bq - 1075;
+            long c = C_MIN | bc;
+            if (0 < -q && -q < P) {
+                // Integers are exact
+                long f = c >> -q;
+                if (f << -q == c) {
+                    return writeDecimal(f, 0, out, position);
+                }
+            }
+            return toDecimal(q, c, 0, out, position);
+        }
+        if (bc != 0) {
+            // Subnormal, the smallest scaled up so as to have two digits
+            return bc < C_TINY
+                    ? toDecimal(Q_MIN, 10 * bc, -1, out, position)
+                    : toDecimal(Q_MIN, bc, 0, out, position);
+        }
+        out[position++] = '0';
+        return position;
+    }
+
+    private static int toDecimal(int q, long c, int dk, byte[] out, int position) {
+        int odd = (int) c & 0x1;
+        long cb = c << 2;
+        long cbr = cb + 2;
+        long cbl;
+        int k;
+        if (c != C_MIN | q == Q_MIN) {
+            cbl = cb - 2;
+            k = flog10pow2(q);
+        } else {
+            cbl = cb - 1;
+            k = flog10threeQuartersPow2(q);
+        }
+        int h = q + flog2pow10(-k) + 2;
+        long g1 = G[2 * (k - K_MIN)];
+        long g0 = G[2 * (k - K_MIN) + 1];
+        long vb = rop(g1, g0, cb << h);
+        long vbl = rop(g1, g0, cbl << h);
+        long vbr = rop(g1, g0, cbr << h);
+        long s = vb >> 2;
+        if (s >= 100) {
+            // Try one digit fewer
+            long sp10 = 10 * multiplyHigh(s, 115_292_150_460_684_698L << 4);
+            long tp10 = sp10 + 10;
+            boolean upin = vbl + odd <= sp10 << 2;
+            boolean wpin = (tp10 << 2) + odd <= vbr;
+            if (upin != wpin) {
+                return writeDecimal(upin ? sp10 : tp10, k, out, position);
+            }
+        }
+        long t = s + 1;
+        boolean uin = vbl + odd <= s << 2;
+        boolean win = (t << 2) + odd <= vbr;
+        if (uin != win) {
+            return writeDecimal(uin ? s : t, k + dk, out, position);
+        }
+        // Both or neither in the rounding interval, so take the closer
+        long cmp = vb - (s + t << 1);
+        return writeDecimal(cmp < 0 || cmp == 0 && (s & 0x1) == 0 ? s : t, k + dk, out, position);
+    }
+
+    /**
+     * Rounds the product of g and cp to odd
+     */
+    private static long rop(long g1, long g0, long cp) {
+        long x1 = multiplyHigh(g0, cp);
+        long y0 = g1 * cp;
+        long y1 = multiplyHigh(g1, cp);
+        long z = (y0 >>> 1) + x1;
+        long vbp = y1 + (z >>> 63);
+        return vbp | (z & MASK_63) + MASK_63 >>> 63;
+    }
+
+    /**
+     * The high 64 bits of the 128 bit product, as Math.multiplyHigh from
+     * Java 9
+     */
+    private static long multiplyHigh(long x, long y) {
+        long x1 = x >> 32;
+        long x2 = x & 0xFFFFFFFFL;
+        long y1 = y >> 32;
+        long y2 = y & 0xFFFFFFFFL;
+        long z2 = x2 * y2;
+        long t = x1 * y2 + (z2 >>> 32);
+        long z1 = t & 0xFFFFFFFFL;
+        long z0 = t >> 32;
+        z1 += x2 * y1;
+        return x1 * y1 + z0 + (z1 >> 32);
+    }
+
+    private static int flog10pow2(int e) {
+        return (int) (e * 661_971_961_083L >> 41);
+    }
+
+    private static int flog10threeQuartersPow2(int e) {
+        return (int) (e * 661_971_961_083L + -274_743_187_321L >> 41);
+    }
+
+    private static int flog2pow10(int e) {
+        return (int) (e * 913_124_641_741L >> 38);
+    }
+
+    /**
+     * Writes f 10^e, f being positive
+     */
+    private static int writeDecimal(long f, int e, byte[] out, int position) {
+        while (f % 10 == 0) {
+            f /= 10;
+            e++;
+        }
+        int digits = 1;
+        for (long m = f; m >= 10; m /= 10) {
+            digits++;
+        }
+        // The point follows the first point digits
+        int point = digits + e;
+        if (point > 16 || point < -5) {
+            // d.dddEn
+            int end = writeDigits(f, digits, out, position + 1);
+            out[position] = out[position + 1];
+            if (digits > 1) {
+                out[position + 1] = '.';
+            } else {
+                end--;
+            }
+            out[end++] = 'E';
+            int exponent = point - 1;
+            if (exponent < 0) {
+                out[end++] = '-';
+                exponent = -exponent;
+            }
+            return writeDigits(exponent, exponent >= 100 ? 3 : exponent >= 10 ? 2 : 1, out, end);
+        }
+        if (point <= 0) {
+            // 0.00ddd
+            out[position++] = '0';
+            out[position++] = '.';
+            for (int i = point; i < 0; i++) {
+                out[position++] = '0';
+            }
+            return writeDigits(f, digits, out, position);
+        }
+        if (e >= 0) {
+            // ddd000
+            position = writeDigits(f, digits, out, position);
+            for (int i = 0; i < e; i++) {
+                out[position++] = '0';
+            }
+            return position;
+        }
+        // ddd.ddd, writing the digits then opening a gap for the point
+        int end = writeDigits(f, digits, out, position);
+        int at = position + point;
+        System.arraycopy(out, at, out, at + 1, end - at);
+        out[at] = '.';
+        return end + 1;
+    }
+
+    private static int writeDigits(long m, int digits, byte[] out, int position) {
+        int end = position + digits;
+        for (int i = end - 1; i >= position; i--) {
+            out[i] = (byte) ('0' + (m % 10));
+            m /= 10;
+        }
+        return end;
+    }
+
+    private static int writeAscii(String text, byte[] out, int position) {
+        for (int i = 0; i < text.length(); i++) {
+            out[position++] = (byte) text.charAt(i);
+        }
+        return position;
+    }
+
+    /**
+     * Formats a value as a string, for convenience
+     *
+     * @param value
+     * @return
+     */
+    public static String toString(double value) {
+        byte[] out = new byte[MAX_LENGTH];
+        return new String(out, 0, format(value, out, 0), StandardCharsets.US_ASCII);
+    }
+}
@@ -28,20 +28,25 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.channels.ByteChannel;
-import java.util.Arrays;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * A utility class that represents an expandable {@link ByteBuffer}. This class
- * is a decorated ByteBuffer. There are two ways to create an instance of this
- * class: allocate a new buffer with a default amount of bytes (default
- * constructor), or to wrap around a different ByteBuffer instance. <p> The
- * internal ByteBuffer is always in write-mode (it's never flipped for reading,
- * except in {@link #getWritableBuffer()} and expands itself if data needs to be
- * written and the buffer is full. The buffer is expanded by a default amount of
- * bytes (specified by {@link #BUFFER_SIZE}). </p> <p> Custom
- * implementations/overriding methods are welcome! </p> <strong>This utility is
- * not thread-safe!</strong> <p> </p>
+ * A utility class that represents an expandable {@link ByteBuffer}. The data
+ * is held in a list of fixed size chunks, so the buffer grows by adding a
+ * chunk rather than by copying what has been written, and is written out with
+ * a single gathering write. Chunks come from a {@link Factory}, and are
+ * returned to it when the buffer is written out or released, so a pooling
+ * factory such as {@link #getSharedPool(boolean)} lets writers reuse each
+ * other's chunks. <p> Values are never split across chunks: if a value does
+ * not fit in the remainder of a chunk, it starts a new one. Only the written
+ * part of each chunk is ever read, so this leaves no gaps in the data. </p>
+ * <strong>This utility is not thread-safe!</strong>
  *
  * @author Martin Tuskevicius
  * @author Peter Harman
@@ -51,33 +56,62 @@ import java.util.Arrays;
 public class ExpandableByteBuffer {
 
     /**
-     * The default size of the buffer. This will be used in only two situations:
-     * to allocate a brand new buffer (in the constructor), or to expand an
-     * existing buffer by the amount specified by this constant.
+     * The default size of each chunk.
      */
-    private static final int BUFFER_SIZE = 1024;
+    public static final int CHUNK_SIZE = 256 * 1024;
+    private static final Pool HEAP_POOL = new Pool(false, ByteOrder.BIG_ENDIAN, CHUNK_SIZE, 64);
+    private static final Pool DIRECT_POOL = new Pool(true, ByteOrder.BIG_ENDIAN, CHUNK_SIZE, 64);
     private final Factory factory;
+    private final int chunkSize;
+    private final List<ByteBuffer> chunks;
     private ByteBuffer buf;
 
     /**
-     * Creates a new expandable {@link ByteBuffer} by allocating a new buffer
-     * with the default buffer size
+     * Creates a new expandable {@link ByteBuffer} whose chunks, of the default
+     * size, are created by the factory
+     *
      * @param factory
      */
     public ExpandableByteBuffer(Factory factory) {
+        this(factory, CHUNK_SIZE);
+    }
+
+    /**
+     * Creates a new expandable {@link ByteBuffer} whose chunks are created by
+     * the factory
+     *
+     * @param factory
+     * @param chunkSize
+     */
+    public ExpandableByteBuffer(Factory factory, int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive");
+        }
         this.factory = factory;
-        buf = factory.create(BUFFER_SIZE);
+        this.chunkSize = chunkSize;
+        this.chunks = new ArrayList<>();
     }
 
     /**
-     * Creates a new expandable {@link ByteBuffer}, initializing the ByteBuffer
-     * instance stored using the provided one.
+     * Creates a new expandable {@link ByteBuffer}, using the provided one as
+     * its first chunk. Further chunks are allocated in the same way.
      *
      * @param buf
      */
     public ExpandableByteBuffer(ByteBuffer buf) {
+        this(new DefaultFactory(buf.isDirect(), buf.order()));
         this.buf = buf;
-        this.factory = new DefaultFactory(buf.isDirect(), buf.order());
+        this.chunks.add(buf);
+    }
+
+    /**
+     * Returns a pool of default sized, big-endian chunks shared by all users
+     *
+     * @param direct true for chunks outside of the Java heap
+     * @return
+     */
+    public static Pool getSharedPool(boolean direct) {
+        return direct ? DIRECT_POOL : HEAP_POOL;
     }
 
     /**
@@ -96,12 +130,13 @@ public class ExpandableByteBuffer {
      * @param bytes
      */
     public void put(byte[] bytes) {
-        verifySize(bytes.length);
-        buf.put(bytes);
+        put(bytes, 0, bytes.length);
     }
 
     /**
-     * Puts an array of bytes from the specified offset into the buffer in the specified position.
+     * Puts an array of bytes from the specified offset into the buffer in the
+     * specified position, which must be within or at the end of the data
+     * already written.
      *
      * @param position
      * @param bytes
@@ -109,13 +144,24 @@ public class ExpandableByteBuffer {
      * @param length
      */
     public void put(int position, byte[] bytes, int offset, int length) {
-        if (length > buf.position()) {
-            verifySize(length - buf.position());
+        int start = 0;
+        for (ByteBuffer chunk : chunks) {
+            int end = start + chunk.position();
+            if (length > 0 && position < end) {
+                int n = Math.min(length, end - position);
+                ByteBuffer view = chunk.duplicate();
+                view.position(position - start);
+                view.put(bytes, offset, n);
+                position += n;
+                offset += n;
+                length -= n;
+            }
+            start = end;
+        }
+        if (position != start && length > 0) {
+            throw new IndexOutOfBoundsException("Position " + position + " is beyond the end of the buffer " + start);
         }
-        int pointer = buf.position();
-        buf.position(position);
-        buf.put(bytes, offset, length);
-        buf.position(pointer);
+        put(bytes, offset, length);
     }
 
     /**
@@ -126,18 +172,30 @@ public class ExpandableByteBuffer {
      * @param length
      */
     public void put(byte[] bytes, int offset, int length) {
-        verifySize(length);
-        buf.put(bytes, offset, length);
+        while (length > 0) {
+            verifySize(1);
+            int n = Math.min(buf.remaining(), length);
+            buf.put(bytes, offset, n);
+            offset += n;
+            length -= n;
+        }
     }
 
     /**
-     * Puts the data from another {@link ByteBuffer} into this buffer.
+     * Puts the remaining data from another {@link ByteBuffer} into this
+     * buffer.
      *
      * @param from
      */
     public void put(ByteBuffer from) {
-        verifySize(from.capacity() - from.remaining());
-        buf.put(from);
+        while (from.hasRemaining()) {
+            verifySize(1);
+            int n = Math.min(buf.remaining(), from.remaining());
+            ByteBuffer slice = from.duplicate();
+            slice.limit(slice.position() + n);
+            buf.put(slice);
+            from.position(from.position() + n);
+        }
     }
 
     /**
@@ -206,9 +264,8 @@ public class ExpandableByteBuffer {
      * @param c
      */
     public void putString(String c) {
-        verifySize(2 * c.length());
         for (int i = 0; i < c.length(); i++) {
-            buf.putChar(c.charAt(i));
+            putCharacter(c.charAt(i));
         }
     }
 
@@ -218,9 +275,8 @@ public class ExpandableByteBuffer {
      * @param s
      */
     public void putShortArray(short[] s) {
-        verifySize(2 * s.length);
         for (int i = 0; i < s.length; i++) {
-            buf.putShort(s[i]);
+            putShort(s[i]);
         }
     }
 
@@ -230,9 +286,8 @@ public class ExpandableByteBuffer {
      * @param i
      */
     public void putIntegerArray(int[] i) {
-        verifySize(4 * i.length);
         for (int z = 0; z < i.length; z++) {
-            buf.putInt(i[z]);
+            putInteger(i[z]);
         }
     }
 
@@ -242,9 +297,8 @@ public class ExpandableByteBuffer {
      * @param f
      */
     public void putFloatArray(float[] f) {
-        verifySize(4 * f.length);
         for (int i = 0; i < f.length; i++) {
-            buf.putFloat(f[i]);
+            putFloat(f[i]);
         }
     }
 
@@ -254,9 +308,8 @@ public class ExpandableByteBuffer {
      * @param d
      */
     public void putDoubleArray(double[] d) {
-        verifySize(8 * d.length);
         for (int i = 0; i < d.length; i++) {
-            buf.putDouble(d[i]);
+            putDouble(d[i]);
         }
     }
 
@@ -266,80 +319,150 @@ public class ExpandableByteBuffer {
      * @param l
      */
     public void putLongArray(long[] l) {
-        verifySize(8 * l.length);
         for (int i = 0; i < l.length; i++) {
-            buf.putLong(l[i]);
+            putLong(l[i]);
         }
     }
 
     /**
-     * Retrieves a read-only version of this buffer. <p> <i>Trying to manually
-     * prepare this buffer for writing is discouraged. If this buffer needs to
-     * be written, please use {@link #getWritableBuffer()}.</i> </p>
+     * Retrieves a read-only copy of the data in this buffer, positioned at its
+     * start.
      *
      * @return the buffer
      */
     public ByteBuffer getByteBuffer() {
-        return buf.asReadOnlyBuffer();
+        return getWritableBuffer().asReadOnlyBuffer();
     }
 
     /**
-     * Retrieves the writable version of this buffer. All the bytes from the
-     * internal {@link ByteBuffer} are taken and put into a byte array (with the
-     * size of the {@link ByteBuffer#position()}, and then the array is wrapped
-     * and returned (<tt>return ByteBuffer.wrap(array)</tt>). <p> <i>This is an
-     * optional method, this is just more convenient than doing so manually!</i>
-     * </p>
+     * Retrieves a copy of the data in this buffer, in a new heap buffer
+     * positioned at its start.
      *
      * @return a writable version of this buffer
      */
     public ByteBuffer getWritableBuffer() {
-        byte[] data = new byte[buf.position()];
-        buf.get(data);
-        return ByteBuffer.wrap(data);
+        ByteBuffer out = ByteBuffer.allocate(position());
+        for (ByteBuffer chunk : flipped()) {
+            out.put(chunk);
+        }
+        out.flip();
+        return out;
     }
 
     /**
-     * Checks if more space needs to be allocated.
+     * Makes sure a value of the given size fits in the current chunk, adding a
+     * new chunk if it does not.
      */
     private void verifySize(int amount) {
-        if (buf.remaining() >= amount) {
+        if (buf != null && buf.remaining() >= amount) {
             return;
         }
-        ByteBuffer buf2 = ByteBuffer.allocate(this.buf.position() + Math.max(BUFFER_SIZE, amount));
-        this.buf.flip();
-        buf2.put(this.buf);
-        this.buf = buf2;
+        buf = factory.create(Math.max(chunkSize, amount));
+        chunks.add(buf);
+    }
+
+    private ByteBuffer[] flipped() {
+        ByteBuffer[] out = new ByteBuffer[chunks.size()];
+        for (int i = 0; i < out.length; i++) {
+            out[i] = (ByteBuffer) chunks.get(i).duplicate().flip();
+        }
+        return out;
     }
 
-    public int writeToChannel(ByteChannel channel) throws IOException {
-        buf.flip();
-        int written = channel.write(buf);
-        buf.clear();
-        return written;
+    /**
+     * Writes the data to the channel, with a single gathering write if the
+     * channel supports it, and empties this buffer.
+     *
+     * @param channel
+     * @return the number of bytes written
+     * @throws IOException
+     */
+    public int writeToChannel(WritableByteChannel channel) throws IOException {
+        ByteBuffer[] data = flipped();
+        long written = 0;
+        if (channel instanceof GatheringByteChannel) {
+            long length = position();
+            while (written < length) {
+                written += ((GatheringByteChannel) channel).write(data);
+            }
+        } else {
+            for (ByteBuffer chunk : data) {
+                while (chunk.hasRemaining()) {
+                    written += channel.write(chunk);
+                }
+            }
+        }
+        clear();
+        return (int) written;
     }
 
     public void writeToRandomAccessFile(RandomAccessFile f) throws IOException {
-        buf.flip();
-        f.write(buf.array(), 0, buf.limit());
-        buf.clear();
+        // The channel shares the file pointer
+        writeToChannel(f.getChannel());
     }
 
     public long writeToRandomAccessResource(RandomAccessResource f, long location) throws IOException {
-        buf.flip();
-        long out = location + buf.limit();
-        f.write(location, Arrays.copyOfRange(buf.array(), 0, buf.limit()));
-        buf.clear();
-        return out;
+        for (ByteBuffer chunk : flipped()) {
+            byte[] bytes = new byte[chunk.remaining()];
+            chunk.get(bytes);
+            f.write(location, bytes);
+            location += bytes.length;
+        }
+        clear();
+        return location;
     }
 
+    /**
+     * Returns the number of bytes in the buffer
+     *
+     * @return
+     */
     public int position() {
-        return buf.position();
+        int position = 0;
+        for (ByteBuffer chunk : chunks) {
+            position += chunk.position();
+        }
+        return position;
+    }
+
+    /**
+     * Empties the buffer, keeping its first chunk and returning the others to
+     * the factory.
+     */
+    private void clear() {
+        while (chunks.size() > 1) {
+            factory.release(chunks.remove(chunks.size() - 1));
+        }
+        buf = chunks.isEmpty() ? null : chunks.get(0);
+        if (buf != null) {
+            buf.clear();
+        }
+    }
+
+    /**
+     * Discards the data and returns all chunks to the factory. The buffer may
+     * still be used afterwards.
+     */
+    public void release() {
+        for (ByteBuffer chunk : chunks) {
+            factory.release(chunk);
+        }
+        chunks.clear();
+        buf = null;
     }
 
     public interface Factory {
 
         public ByteBuffer create(int size);
+
+        /**
+         * Called with a buffer from {@link #create(int)} which is no longer
+         * used
+         *
+         * @param buffer
+         */
+        public default void release(ByteBuffer buffer) {
+        }
     }
 
     public static class DefaultFactory implements Factory {
@@ -361,4 +484,65 @@ public class ExpandableByteBuffer {
             }
         }
     }
+
+    /**
+     * A factory which keeps up to a maximum number of released chunks of one
+     * size for reuse. Buffers of other sizes are allocated and dropped as
+     * normal. This class is thread-safe.
+     */
+    public static class Pool extends DefaultFactory {
+
+        private final int chunkSize;
+        private final int maximumPooled;
+        private final Queue<ByteBuffer> pooled = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+        private final AtomicInteger reused = new AtomicInteger();
+
+        public Pool(boolean direct, ByteOrder byteOrder, int chunkSize, int maximumPooled) {
+            super(direct, byteOrder);
+            this.chunkSize = chunkSize;
+            this.maximumPooled = maximumPooled;
+        }
+
+        @Override
+        public ByteBuffer create(int size) {
+            if (size == chunkSize) {
+                ByteBuffer chunk = pooled.poll();
+                if (chunk != null) {
+                    this.size.decrementAndGet();
+                    reused.incrementAndGet();
+                    chunk.clear();
+                    return chunk;
+                }
+            }
+            return super.create(size);
+        }
+
+        @Override
+        public void release(ByteBuffer buffer) {
+            if (buffer.capacity() == chunkSize && size.incrementAndGet() <= maximumPooled) {
+                pooled.offer(buffer);
+            } else if (buffer.capacity() == chunkSize) {
+                size.decrementAndGet();
+            }
+        }
+
+        /**
+         * Returns the number of chunks held for reuse
+         *
+         * @return
+         */
+        public int getPooled() {
+            return size.get();
+        }
+
+        /**
+         * Returns the number of chunks which have been reused
+         *
+         * @return
+         */
+        public int getReused() {
+            return reused.get();
+        }
+    }
 }
@@ -0,0 +1,378 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 CyDesign Limited
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.harmanpa.jrecon.utils;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * A tree of dotted hierarchical names, such as Modelica variable names, in
+ * which each distinct path segment is held once however many names share it.
+ * Names may be enumerated by subtree, by glob pattern or by regular
+ * expression. Results are always in the order the names were given.
+ *
+ * @author pete
+ */
+public class NameTrie implements Serializable {
+
+    private final Node root = new Node(null, null);
+    private final Node[] nodes;
+    private int size;
+
+    public NameTrie(String... names) {
+        this(Arrays.asList(names));
+    }
+
+    public NameTrie(Collection<String> names) {
+        Map<String, String> segments = new HashMap<>();
+        Map<Node, Map<String, Node>> children = new HashMap<>();
+        for (String name : names) {
+            Node node = root;
+            for (String segment : split(name)) {
+                Map<String, Node> nodeChildren = children.computeIfAbsent(node, (Node n) -> new LinkedHashMap<>());
+                Node child = nodeChildren.get(segment);
+                if (child == null) {
+                    String shared = segments.putIfAbsent(segment, segment);
+                    child = new Node(node, shared == null ? segment : shared);
+                    nodeChildren.put(child.segment, child);
+                }
+                node = child;
+            }
+            if (node.index < 0) {
+                node.index = size++;
+            }
+        }
+        freeze(root, children);
+        nodes = new Node[size];
+        index(root);
+    }
+
+    private void index(Node node) {
+        if (node.index >= 0) {
+            nodes[node.index] = node;
+        }
+        if (node.children != null) {
+            for (Node child : node.children) {
+                index(child);
+            }
+        }
+    }
+
+    private static void freeze(Node node, Map<Node, Map<String, Node>> children) {
+        Map<String, Node> nodeChildren = children.get(node);
+        if (nodeChildren != null) {
+            node.children = nodeChildren.values().toArray(new Node[0]);
+            Arrays.sort(node.children, (Node a, Node b) -> a.segment.compareTo(b.segment));
+            for (Node child : node.children) {
+                freeze(child, children);
+            }
+        }
+    }
+
+    private static List<String> split(String name) {
+        List<String> out = new ArrayList<>();
+        int start = 0;
+        int dot;
+        while ((dot = name.indexOf('.', start)) >= 0) {
+            out.add(name.substring(start, dot));
+            start = dot + 1;
+        }
+        out.add(name.substring(start));
+        return out;
+    }
+
+    /**
+     * Returns the number of distinct names
+     *
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(String name) {
+        return indexOf(name) >= 0;
+    }
+
+    /**
+     * Returns the position of a name amongst the distinct names given, or -1
+     *
+     * @param name
+     * @return
+     */
+    public int indexOf(String name) {
+        Node node = find(name);
+        return node == null ? -1 : node.index;
+    }
+
+    /**
+     * Returns the name at a position amongst the distinct names given
+     *
+     * @param index
+     * @return
+     */
+    public String getName(int index) {
+        StringBuilder sb = new StringBuilder();
+        nodes[index].appendName(sb);
+        return sb.toString();
+    }
+
+    public List<String> getNames() {
+        return subtree(root);
+    }
+
+    /**
+     * Returns the segments immediately below a prefix, or the top level
+     * segments if the prefix is empty, in alphabetical order
+     *
+     * @param prefix
+     * @return
+     */
+    public List<String> getChildren(String prefix) {
+        Node node = prefix.isEmpty() ? root : find(prefix);
+        if (node == null || node.children == null) {
+            return Collections.emptyList();
+        }
+        List<String> out = new ArrayList<>(node.children.length);
+        for (Node child : node.children) {
+            out.add(child.segment);
+        }
+        return out;
+    }
+
+    /**
+     * Returns the prefix, if it is a name, and all names beneath it
+     *
+     * @param prefix
+     * @return
+     */
+    public List<String> subtree(String prefix) {
+        Node node = prefix.isEmpty() ? root : find(prefix);
+        return node == null ? Collections.emptyList() : subtree(node);
+    }
+
+    private List<String> subtree(Node node) {
+        TreeMap<Integer, Node> found = new TreeMap<>();
+        collect(node, found);
+        return names(found);
+    }
+
+    /**
+     * Returns the names matching a glob pattern of dotted segments. Within a
+     * segment * matches any characters and ? any single character, while a
+     * segment of ** matches any number of segments, including none, so
+     * axis1.gear.** matches axis1.gear and everything beneath it.
+     *
+     * @param glob
+     * @return
+     */
+    public List<String> glob(String glob) {
+        List<String> segments = split(glob);
+        Pattern[] patterns = new Pattern[segments.size()];
+        for (int i = 0; i < patterns.length; i++) {
+            String segment = segments.get(i);
+            if (!"**".equals(segment) && (segment.indexOf('*') >= 0 || segment.indexOf('?') >= 0)) {
+                patterns[i] = globToPattern(segment);
+            }
+        }
+        TreeMap<Integer, Node> found = new TreeMap<>();
+        glob(root, segments, patterns, 0, found);
+        return names(found);
+    }
+
+    private void glob(Node node, List<String> segments, Pattern[] patterns, int i, TreeMap<Integer, Node> found) {
+        if (i == segments.size()) {
+            if (node.index >= 0) {
+                found.put(node.index, node);
+            }
+            return;
+        }
+        String segment = segments.get(i);
+        if ("**".equals(segment)) {
+            glob(node, segments, patterns, i + 1, found);
+            if (node.children != null) {
+                for (Node child : node.children) {
+                    glob(child, segments, patterns, i, found);
+                }
+            }
+        } else if (patterns[i] == null) {
+            Node child = node.getChild(segment);
+            if (child != null) {
+                glob(child, segments, patterns, i + 1, found);
+            }
+        } else if (node.children != null) {
+            for (Node child : node.children) {
+                if (patterns[i].matcher(child.segment).matches()) {
+                    glob(child, segments, patterns, i + 1, found);
+                }
+            }
+        }
+    }
+
+    private static Pattern globToPattern(String glob) {
+        StringBuilder regex = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+        for (char c : glob.toCharArray()) {
+            if (c == '*' || c == '?') {
+                if (literal.length() > 0) {
+                    regex.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                regex.append(c == '*' ? ".*" : ".");
+            } else {
+                literal.append(c);
+            }
+        }
+        if (literal.length() > 0) {
+            regex.append(Pattern.quote(literal.toString()));
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    /**
+     * Returns the names which entirely match a regular expression
+     *
+     * @param regex
+     * @return
+     */
+    public List<String> matching(Pattern regex) {
+        List<String> out = new ArrayList<>();
+        for (String name : getNames()) {
+            if (regex.matcher(name).matches()) {
+                out.add(name);
+            }
+        }
+        return out;
+    }
+
+    private Node find(String name) {
+        Node node = root;
+        int start = 0;
+        while (node != null) {
+            int dot = name.indexOf('.', start);
+            int end = dot < 0 ? name.length() : dot;
+            node = node.getChild(name, start, end);
+            if (dot < 0) {
+                break;
+            }
+            start = dot + 1;
+        }
+        return node;
+    }
+
+    private static void collect(Node node, TreeMap<Integer, Node> found) {
+        if (node.index >= 0) {
+            found.put(node.index, node);
+        }
+        if (node.children != null) {
+            for (Node child : node.children) {
+                collect(child, found);
+            }
+        }
+    }
+
+    private static List<String> names(TreeMap<Integer, Node> found) {
+        List<String> out = new ArrayList<>(found.size());
+        StringBuilder sb = new StringBuilder();
+        for (Node node : found.values()) {
+            sb.setLength(0);
+            node.appendName(sb);
+            out.add(sb.toString());
+        }
+        return out;
+    }
+
+    private static final class Node implements Serializable {
+
+        private final Node parent;
+        private final String segment;
+        private Node[] children;
+        private int index = -1;
+
+        Node(Node parent, String segment) {
+            this.parent = parent;
+            this.segment = segment;
+        }
+
+        Node getChild(String segment) {
+            return getChild(segment, 0, segment.length());
+        }
+
+        /**
+         * Finds the child whose segment is the given part of a name, without
+         * copying it out
+         */
+        Node getChild(String name, int start, int end) {
+            if (children == null) {
+                return null;
+            }
+            int low = 0;
+            int high = children.length - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int cmp = compare(children[mid].segment, name, start, end);
+                if (cmp < 0) {
+                    low = mid + 1;
+                } else if (cmp > 0) {
+                    high = mid - 1;
+                } else {
+                    return children[mid];
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Compares as {@link String#compareTo(java.lang.String)} would with
+         * the substring start-end of name
+         */
+        private static int compare(String segment, String name, int start, int end) {
+            int n = Math.min(segment.length(), end - start);
+            for (int i = 0; i < n; i++) {
+                int cmp = segment.charAt(i) - name.charAt(start + i);
+                if (cmp != 0) {
+                    return cmp;
+                }
+            }
+            return segment.length() - (end - start);
+        }
+
+        void appendName(StringBuilder sb) {
+            if (parent != null && parent.segment != null) {
+                parent.appendName(sb);
+                sb.append('.');
+            }
+            sb.append(segment);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 CyDesign Limited
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.harmanpa.jrecon.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Decodes msgpack arrays whose elements are all float64 values, stored as a
+ * 0xcb tag followed by the 8 byte big-endian value, directly into a double
+ * array without unpacking each element as a value.
+ *
+ * @author pete
+ */
+public class PackedDoubles {
+
+    private static final byte FLOAT64 = (byte) 0xcb;
+    private static final int STRIDE = 9;
+
+    /**
+     * Decodes the msgpack array in the remaining bytes of the buffer if it
+     * only holds float64 values, otherwise returns null. The position of the
+     * buffer is not changed.
+     *
+     * @param bytes
+     * @return
+     */
+    public static double[] unpack(ByteBuffer bytes) {
+        ByteBuffer in = bytes.duplicate().order(ByteOrder.BIG_ENDIAN);
+        int length = count(in, in.remaining());
+        if (length < 0) {
+            return null;
+        }
+        double[] out = new double[length];
+        in.position(in.position() + headerLength(in));
+        return unpack(in, out, 0, length) ? out : null;
+    }
+
+    /**
+     * Returns the number of elements of the msgpack array of length bytes
+     * starting at the position of the buffer if that length is the length of
+     * an array of only float64 values, otherwise -1. Only the array header is
+     * read, so the elements are not checked.
+     *
+     * @param start at least the first 5 bytes of the array, or all if fewer
+     * @param length
+     * @return
+     */
+    public static int count(ByteBuffer start, long length) {
+        ByteBuffer in = start.duplicate().order(ByteOrder.BIG_ENDIAN);
+        int position = in.position();
+        int header = headerLength(in);
+        if (header < 0 || in.remaining() < header) {
+            return -1;
+        }
+        long count;
+        if (header == 1) {
+            count = in.get(position) & 0x0f;
+        } else if (header == 3) {
+            count = in.getShort(position + 1) & 0xffff;
+        } else {
+            count = in.getInt(position + 1) & 0xffffffffL;
+        }
+        return count <= Integer.MAX_VALUE && count * STRIDE == length - header ? (int) count : -1;
+    }
+
+    /**
+     * Returns the length of the header of the msgpack array at the position
+     * of the buffer, before its first element, or -1 if it is not an array
+     *
+     * @param start
+     * @return
+     */
+    public static int headerLength(ByteBuffer start) {
+        if (!start.hasRemaining()) {
+            return -1;
+        }
+        int tag = start.get(start.position()) & 0xff;
+        return (tag & 0xf0) == 0x90 ? 1 : tag == 0xdc ? 3 : tag == 0xdd ? 5 : -1;
+    }
+
+    /**
+     * Returns the offset of an element of an array of only float64 values from
+     * the end of the array header
+     *
+     * @param index
+     * @return
+     */
+    public static long offset(int index) {
+        return (long) index * STRIDE;
+    }
+
+    /**
+     * Decodes n float64 elements, from the position of the buffer, into out
+     * from offset, returning false if any element is not a float64.
+     *
+     * @param bytes
+     * @param out
+     * @param offset
+     * @param n
+     * @return
+     */
+    public static boolean unpack(ByteBuffer bytes, double[] out, int offset, int n) {
+        ByteBuffer in = bytes.order() == ByteOrder.BIG_ENDIAN ? bytes : bytes.duplicate().order(ByteOrder.BIG_ENDIAN);
+        int p = in.position();
+        if (in.remaining() < (long) n * STRIDE) {
+            return false;
+        }
+        for (int i = 0; i < n; i++, p += STRIDE) {
+            if (in.get(p) != FLOAT64) {
+                return false;
+            }
+            out[offset + i] = in.getDouble(p + 1);
+        }
+        return true;
+    }
+}
@@ -26,10 +26,16 @@ package com.github.harmanpa.jrecon.utils;
 import com.github.harmanpa.jrecon.exceptions.ReconException;
 import com.google.common.base.CharMatcher;
 import com.google.common.base.Splitter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ObjectArrays;
+import java.math.BigDecimal;
 import java.text.NumberFormat;
 import java.text.ParseException;
 import java.util.List;
+import java.util.Locale;
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.IntUnaryOperator;
 
 /**
  *
@@ -37,66 +43,48 @@ import java.util.List;
  */
 public class Transforms {
 
-    public static <T> T[] applyArray(Class<T> t, T[] obj, String transform) throws ReconException {
-        if ("inv".equals(transform)) {
-            T[] out = ObjectArrays.newArray(t, obj.length);
-            for (int i = 0; i < obj.length; i++) {
-                out[i] = inverse(obj[i]);
-            }
-            return out;
-        }
-        if (transform.startsWith("aff")) {
-            Number[] args = parseAffine(transform);
-            T[] out = ObjectArrays.newArray(t, obj.length);
-            for (int i = 0; i < obj.length; i++) {
-                out[i] = affine(obj[i], args[0], args[1]);
-            }
-            return out;
-        }
-        if ("".equals(transform)) {
-            return obj;
+    private static final Cache<String, Transform> COMPILED = CacheBuilder.newBuilder()
+            .maximumSize(10000)
+            .build();
+
+    /**
+     * Returns the compiled form of a transform string, parsing it only the
+     * first time it is seen.
+     *
+     * @param transform
+     * @return
+     * @throws ReconException
+     */
+    public static Transform compile(String transform) throws ReconException {
+        String key = transform == null ? "" : transform;
+        Transform out = COMPILED.getIfPresent(key);
+        if (out == null) {
+            out = parse(key);
+            COMPILED.put(key, out);
         }
-        throw new ReconException("Unsupported transform: " + transform);
+        return out;
     }
 
-    public static <T> T apply(Class<T> t, T obj, String transform) throws ReconException {
+    private static Transform parse(String transform) throws ReconException {
+        if ("".equals(transform)) {
+            return Transform.IDENTITY;
+        }
         if ("inv".equals(transform)) {
-            return inverse(obj);
+            return new Transform(transform, -1, 0, -1, 0, true);
         }
         if (transform.startsWith("aff")) {
             Number[] args = parseAffine(transform);
-            return affine(obj, args[0], args[1]);
-        }
-        if ("".equals(transform)) {
-            return obj;
+            return new Transform(transform, args[0].doubleValue(), args[1].doubleValue(), args[0].intValue(), args[1].intValue(), false);
         }
         throw new ReconException("Unsupported transform: " + transform);
     }
 
-    
-    @SuppressWarnings("UnnecessaryBoxing")
-    private static <T> T inverse(T obj) throws ReconException {
-        if (obj instanceof Double) {
-            return (T) Double.valueOf(-1.0 * ((Double) obj));
-        }
-        if (obj instanceof Integer) {
-            return (T) Integer.valueOf(-1 * ((Integer) obj));
-        }
-        if (obj instanceof Boolean) {
-            return (T) Boolean.valueOf(!((Boolean) obj));
-        }
-        throw new ReconException("Cannot invert " + obj);
+    public static <T> T[] applyArray(Class<T> t, T[] obj, String transform) throws ReconException {
+        return compile(transform).applyArray(t, obj);
     }
 
-    @SuppressWarnings("UnnecessaryBoxing")
-    private static <T> T affine(T obj, Number a, Number b) throws ReconException {
-        if (obj instanceof Double) {
-            return (T) Double.valueOf(b.doubleValue() + a.doubleValue() * ((Double) obj));
-        }
-        if (obj instanceof Integer) {
-            return (T) Integer.valueOf(b.intValue() + a.intValue() * ((Integer) obj));
-        }
-        throw new ReconException("Cannot apply affine transform to " + obj);
+    public static <T> T apply(Class<T> t, T obj, String transform) throws ReconException {
+        return compile(transform).apply(obj);
     }
 
     private static Number[] parseAffine(String transform) throws ReconException {
@@ -104,8 +92,10 @@ public class Transforms {
         Number[] out = new Number[2];
         if (strs.size() == 3) {
             try {
-                out[0] = NumberFormat.getInstance().parse(strs.get(1));
-                out[1] = NumberFormat.getInstance().parse(strs.get(2));
+                // Written in the same form whatever the locale
+                NumberFormat format = NumberFormat.getInstance(Locale.ROOT);
+                out[0] = format.parse(strs.get(1));
+                out[1] = format.parse(strs.get(2));
             } catch (ParseException ex) {
                 throw new ReconException("Could not parse " + transform, ex);
             }
@@ -113,4 +103,161 @@ public class Transforms {
         }
         throw new ReconException("Could not parse " + transform);
     }
+
+    /**
+     * A parsed transform, y = b + a * x, where inversion is a = -1, b = 0 that
+     * also negates booleans. Integers use the integer parts of a and b.
+     */
+    public static final class Transform {
+
+        public static final Transform IDENTITY = new Transform("", 1, 0, 1, 0, false);
+        private final String text;
+        private final double a;
+        private final double b;
+        private final int intA;
+        private final int intB;
+        private final boolean inverse;
+
+        Transform(String text, double a, double b, int intA, int intB, boolean inverse) {
+            this.text = text;
+            this.a = a;
+            this.b = b;
+            this.intA = intA;
+            this.intB = intB;
+            this.inverse = inverse;
+        }
+
+        public boolean isIdentity() {
+            return this == IDENTITY;
+        }
+
+        @SuppressWarnings("UnnecessaryBoxing")
+        public <T> T apply(T obj) throws ReconException {
+            if (isIdentity()) {
+                return obj;
+            }
+            if (obj instanceof Double) {
+                return (T) Double.valueOf(inverse ? -((Double) obj) : b + a * ((Double) obj));
+            }
+            if (obj instanceof Integer) {
+                return (T) Integer.valueOf(intB + intA * ((Integer) obj));
+            }
+            if (obj instanceof Boolean && inverse) {
+                return (T) Boolean.valueOf(!((Boolean) obj));
+            }
+            throw new ReconException("Cannot apply transform " + text + " to " + obj);
+        }
+
+        /**
+         * Returns a transformed copy of the array, or the array itself for
+         * the identity
+         *
+         * @param <T>
+         * @param t
+         * @param obj
+         * @return
+         * @throws ReconException
+         */
+        public <T> T[] applyArray(Class<T> t, T[] obj) throws ReconException {
+            if (isIdentity()) {
+                return obj;
+            }
+            return applyInPlace(ObjectArrays.newArray(t, obj.length), obj);
+        }
+
+        /**
+         * Transforms the elements of an array in place, for arrays which are
+         * not shared
+         *
+         * @param <T>
+         * @param obj
+         * @return
+         * @throws ReconException
+         */
+        public <T> T[] applyInPlace(T[] obj) throws ReconException {
+            return isIdentity() ? obj : applyInPlace(obj, obj);
+        }
+
+        private <T> T[] applyInPlace(T[] out, T[] obj) throws ReconException {
+            for (int i = 0; i < obj.length; i++) {
+                out[i] = apply(obj[i]);
+            }
+            return out;
+        }
+
+        public void applyInPlace(double[] data) {
+            if (!isIdentity()) {
+                if (inverse) {
+                    for (int i = 0; i < data.length; i++) {
+                        data[i] = -data[i];
+                    }
+                } else {
+                    for (int i = 0; i < data.length; i++) {
+                        data[i] = b + a * data[i];
+                    }
+                }
+            }
+        }
+
+        public void applyInPlace(int[] data) {
+            if (!isIdentity()) {
+                for (int i = 0; i < data.length; i++) {
+                    data[i] = intB + intA * data[i];
+                }
+            }
+        }
+
+        /**
+         * Returns the transform applying this one then after, such as for an
+         * alias of an alias. Booleans are only negated by a composition of
+         * inversions and transforms which leave values unchanged, and any
+         * other composition including an inversion rejects them.
+         *
+         * @param after
+         * @return
+         */
+        public Transform andThen(Transform after) {
+            if (isIdentity() || (after.inverse && isUnchanged())) {
+                return after;
+            }
+            if (after.isIdentity() || (inverse && after.isUnchanged())) {
+                return this;
+            }
+            if (inverse && after.inverse) {
+                return IDENTITY;
+            }
+            // after.b + after.a * (b + a * x)
+            double scale = after.a * a;
+            double offset = after.b + after.a * b;
+            return new Transform("aff(" + format(scale) + "," + format(offset) + ")",
+                    scale, offset, (int) scale, (int) offset, false);
+        }
+
+        /**
+         * Returns whether an affine transform leaves values unchanged
+         */
+        private boolean isUnchanged() {
+            return !inverse && a == 1 && b == 0 && intA == 1 && intB == 0;
+        }
+
+        private static String format(double value) {
+            return BigDecimal.valueOf(value).stripTrailingZeros().toPlainString();
+        }
+
+        public DoubleUnaryOperator toDoubleOperator() {
+            if (isIdentity()) {
+                return DoubleUnaryOperator.identity();
+            }
+            return inverse ? (double x) -> -x : (double x) -> b + a * x;
+        }
+
+        public IntUnaryOperator toIntOperator() {
+            return isIdentity() ? IntUnaryOperator.identity() : (int x) -> intB + intA * x;
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
 }
@@ -0,0 +1,185 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 CyDesign Limited
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.harmanpa.jrecon;
+
+import com.github.harmanpa.jrecon.exceptions.ReconException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author pete
+ */
+public class BatchConverterTest {
+
+    @Test
+    public void test() {
+        try {
+            File directory = Files.createTempDirectory("batch").toFile();
+            File nested = new File(directory, "nested");
+            nested.mkdirs();
+            for (int i = 0; i < 4; i++) {
+                writeWall(new File(i % 2 == 0 ? directory : nested, "test" + i + ".wll"), i);
+            }
+            Files.write(new File(directory, "notes.txt").toPath(), new byte[]{1});
+            File output = Files.createTempDirectory("melds").toFile();
+            BatchConverter converter = new BatchConverter();
+            converter.setParallelism(3);
+            converter.setOutputDirectory(output);
+            Map<File, File> files = converter.find(Arrays.asList(directory.getPath()));
+            Assert.assertEquals(4, files.size());
+            Assert.assertEquals(new File(output, "nested/test1.mld"), files.get(new File(nested, "test1.wll")));
+            // A glob finds only what it matches
+            Assert.assertEquals(2, converter.find(Arrays.asList(directory.getPath() + "/*.wll")).size());
+            Assert.assertEquals(4, converter.find(Arrays.asList(directory.getPath() + "/**.wll")).size());
+            Assert.assertEquals(2, converter.find(Arrays.asList(directory.getPath() + "/*")).size());
+
+            List<BatchConverter.Result> results = converter.convert(Arrays.asList(directory.getPath()), null);
+            for (BatchConverter.Result result : results) {
+                Assert.assertEquals(result.toString(), BatchConverter.Status.CONVERTED, result.getStatus());
+            }
+            for (int i = 0; i < 4; i++) {
+                try (MeldReader reader = new MeldReader(new File(output, (i % 2 == 0 ? "" : "nested/") + "test" + i + ".mld"))) {
+                    Assert.assertArrayEquals(new double[]{i, i + 1}, reader.findTable("T1").getDoubleSignal("x"), 0.0);
+                    Assert.assertArrayEquals(new double[]{-i, -i - 1}, reader.findTable("T1").getDoubleSignal("nx"), 0.0);
+                }
+            }
+            // Outputs newer than their inputs are up to date
+            assertStatuses(converter.convert(Arrays.asList(directory.getPath()), null), 0, 4);
+            File changed = new File(directory, "test2.wll");
+            writeWall(changed, 7);
+            changed.setLastModified(System.currentTimeMillis() + 10000);
+            assertStatuses(converter.convert(Arrays.asList(directory.getPath()), null), 1, 3);
+            // With hashes, only changes of content matter
+            converter.setHash(true);
+            assertStatuses(converter.convert(Arrays.asList(directory.getPath()), null), 4, 0);
+            new File(directory, "test0.wll").setLastModified(System.currentTimeMillis() + 20000);
+            writeWall(new File(nested, "test3.wll"), 9);
+            assertStatuses(converter.convert(Arrays.asList(directory.getPath()), null), 1, 3);
+            try (MeldReader reader = new MeldReader(new File(output, "nested/test3.mld"))) {
+                Assert.assertArrayEquals(new double[]{9, 10}, reader.findTable("T1").getDoubleSignal("x"), 0.0);
+            }
+            // Failures are reported rather than stopping the batch
+            Files.write(new File(directory, "broken.wll").toPath(), new byte[]{1, 2, 3});
+            converter.setForce(true);
+            results = converter.convert(Arrays.asList(directory.getPath()), null);
+            Assert.assertEquals(5, results.size());
+            Assert.assertEquals(BatchConverter.Status.FAILED, results.get(0).getStatus());
+            Assert.assertNotNull(results.get(0).getException());
+            assertStatuses(results.subList(1, 5), 4, 0);
+            // Failed conversions close their files
+            File fds = new File("/proc/self/fd");
+            if (fds.isDirectory()) {
+                int open = fds.list().length;
+                for (int i = 0; i < 20; i++) {
+                    Assert.assertEquals(BatchConverter.Status.FAILED, converter.convert(new File(directory, "broken.wll"), new File(output, "broken.mld")).getStatus());
+                }
+                Assert.assertTrue(fds.list().length < open + 5);
+            }
+            // Melds written next to their inputs are not taken as inputs
+            converter.setOutputDirectory(null);
+            converter.setForce(false);
+            Files.delete(new File(directory, "broken.wll").toPath());
+            assertStatuses(converter.convert(Arrays.asList(directory.getPath() + "/*"), null), 2, 0);
+            Assert.assertTrue(new File(directory, "test0.mld").isFile());
+            assertStatuses(converter.convert(Arrays.asList(directory.getPath() + "/*"), null), 0, 2);
+        } catch (ReconException | IOException ex) {
+            ex.printStackTrace();
+            Assert.fail(ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testOutputCollision() {
+        try {
+            File directory = Files.createTempDirectory("batch").toFile();
+            writeWall(new File(directory, "run.wll"), 1);
+            Files.write(new File(directory, "run.mat").toPath(), new byte[]{1});
+            BatchConverter converter = new BatchConverter();
+            try {
+                converter.find(Arrays.asList(directory.getPath()));
+                Assert.fail("Inputs converted to one output");
+            } catch (IOException ex) {
+                Assert.assertTrue(ex.getMessage(), ex.getMessage().contains("run.mld"));
+            }
+            Map<File, File> files = new LinkedHashMap<>();
+            files.put(new File(directory, "run.wll"), new File(directory, "run.mld"));
+            files.put(new File(directory, "run.mat"), new File(directory, "run.mld"));
+            try {
+                converter.convert(files, null);
+                Assert.fail("Inputs converted to one output");
+            } catch (IOException ex) {
+                Assert.assertFalse(new File(directory, "run.mld").exists());
+            }
+            // The same input found twice is not a collision
+            Assert.assertFalse(converter.find(Arrays.asList(directory.getPath() + "/*.wll", directory.getPath() + "/./run.wll")).isEmpty());
+        } catch (ReconException | IOException ex) {
+            ex.printStackTrace();
+            Assert.fail(ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testBatchArguments() {
+        Assert.assertFalse(Meld.batch(Arrays.asList("--threads")));
+        Assert.assertFalse(Meld.batch(Arrays.asList("--threads", "many", "run.wll")));
+        Assert.assertFalse(Meld.batch(Arrays.asList("--memory", "1.5", "run.wll")));
+        Assert.assertFalse(Meld.batch(Arrays.asList("--hash")));
+    }
+
+    private static void assertStatuses(List<BatchConverter.Result> results, int converted, int skipped) {
+        int c = 0;
+        int s = 0;
+        for (BatchConverter.Result result : results) {
+            if (result.getStatus() == BatchConverter.Status.CONVERTED) {
+                c++;
+            } else if (result.getStatus() == BatchConverter.Status.SKIPPED) {
+                s++;
+            } else {
+                Assert.fail(result.toString());
+            }
+        }
+        Assert.assertEquals(converted, c);
+        Assert.assertEquals(skipped, s);
+    }
+
+    private static void writeWall(File file, double x) throws IOException, ReconException {
+        // Walls are appended to, so replace any existing file
+        Files.deleteIfExists(file.toPath());
+        WallWriter wall = new WallWriter(file);
+        ReconTable t = wall.addTable("T1", new String[]{"time", "x"});
+        t.addAlias("nx", "x", "inv");
+        wall.finalizeDefinitions();
+        t.addRow(0.0, x);
+        t.addRow(1.0, x + 1);
+        wall.close();
+    }
+}
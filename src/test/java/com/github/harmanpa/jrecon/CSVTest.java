@@ -7,11 +7,26 @@ package com.github.harmanpa.jrecon;
 
 import com.github.harmanpa.jrecon.exceptions.ReconException;
 import com.github.harmanpa.jrecon.io.FileRandomAccessResource;
+import com.github.harmanpa.jrecon.utils.DoubleColumn;
+import com.github.harmanpa.jrecon.utils.DoubleFormatter;
 import com.google.common.base.Function;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.junit.Assert;
@@ -52,4 +67,281 @@ public class CSVTest {
         }
 
     }
+
+    @Test
+    public void testImporter() {
+        try {
+            File source = File.createTempFile("test", ".txt");
+            Files.copy(ClassLoader.getSystemResourceAsStream("Modelica.Mechanics.Rotational.Examples.CoupledClutches.txt"), source.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Function<String, String> headerExtractor = (String f1) -> f1.substring(0, f1.lastIndexOf('[')).trim();
+            File f1 = File.createTempFile("test", ".mld");
+            Meld.csv2meld(CSVFormat.newFormat('\t').withHeader().withIgnoreSurroundingSpaces().withIgnoreEmptyLines()
+                    .parse(new InputStreamReader(new FileInputStream(source), StandardCharsets.UTF_8)), headerExtractor, Meld.defaultValueExtractor(), new MeldWriter(f1));
+            File f2 = File.createTempFile("test", ".mld");
+            Meld.csv2meld(source, '\t', headerExtractor, new MeldWriter(f2));
+            ReconTable expected = new MeldReader(f1).findTable("csv");
+            ReconTable actual = new MeldReader(f2).findTable("csv");
+            Assert.assertArrayEquals(expected.getSignals(), actual.getSignals());
+            for (String signal : expected.getSignals()) {
+                Assert.assertArrayEquals(signal, expected.getSignal(signal), actual.getSignal(signal));
+            }
+            // Quoted names may contain delimiters and quotes
+            File quoted = File.createTempFile("test", ".csv");
+            Files.write(quoted.toPath(), "time, \"x[1,2]\" ,\"say \"\"hi\"\"\"\r\n0,1,2\r\n1,3,4\r\n".getBytes(StandardCharsets.US_ASCII));
+            try (DoubleColumn.Spill spill = new DoubleColumn.Spill(1024 * 1024)) {
+                Map<String, DoubleColumn> columns = new CSVImporter().read(quoted, spill);
+                Assert.assertEquals(Arrays.asList("time", "x[1,2]", "say \"hi\""), new ArrayList<>(columns.keySet()));
+                Assert.assertArrayEquals(new double[]{1, 3}, columns.get("x[1,2]").toArray(), 0.0);
+            }
+        } catch (ReconException | IOException ex) {
+            ex.printStackTrace();
+            Assert.fail(ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testImporterWideFile() {
+        try {
+            File csv = File.createTempFile("test", ".csv");
+            int columns = 5000;
+            int rows = 400;
+            try (Writer writer = Files.newBufferedWriter(csv.toPath(), StandardCharsets.US_ASCII)) {
+                for (int j = 0; j < columns; j++) {
+                    writer.write((j > 0 ? "," : "") + "c" + j);
+                }
+                writer.write("\n");
+                for (int i = 0; i < rows; i++) {
+                    for (int j = 0; j < columns; j++) {
+                        writer.write((j > 0 ? "," : "") + (i + j));
+                    }
+                    writer.write("\n");
+                }
+            }
+            CSVImporter importer = new CSVImporter();
+            importer.setParallelism(16);
+            importer.setMemoryLimit(32 * 1024 * 1024);
+            try (DoubleColumn.Spill spill = new DoubleColumn.Spill(importer.getMemoryLimit())) {
+                Map<String, DoubleColumn> read = importer.read(csv, spill);
+                // Partly filled blocks count too, and stay within the limit
+                Assert.assertTrue(spill.getInMemory() + " bytes in memory", spill.getInMemory() <= 2 * importer.getMemoryLimit());
+                Assert.assertEquals(columns, read.size());
+                double[] last = read.get("c" + (columns - 1)).toArray();
+                Assert.assertEquals(rows, last.length);
+                for (int i = 0; i < rows; i++) {
+                    Assert.assertEquals(i + columns - 1, last[i], 0.0);
+                }
+            }
+            csv.delete();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            Assert.fail(ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testImporterSpill() {
+        try {
+            File csv = File.createTempFile("test", ".csv");
+            Random random = new Random(1);
+            int n = 200000;
+            double[] x = new double[n];
+            try (Writer writer = Files.newBufferedWriter(csv.toPath(), StandardCharsets.US_ASCII)) {
+                writer.write("\"time\", x ,i\r\n");
+                for (int i = 0; i < n; i++) {
+                    x[i] = random.nextGaussian() * Math.pow(10, random.nextInt(40) - 20);
+                    writer.write(i * 0.001 + "," + x[i] + ", " + i + "\r\n");
+                }
+                writer.write("\n");
+            }
+            CSVImporter importer = new CSVImporter();
+            importer.setParallelism(3);
+            importer.setMemoryLimit(DoubleColumn.BLOCK_SIZE * 8);
+            try (DoubleColumn.Spill spill = new DoubleColumn.Spill(importer.getMemoryLimit())) {
+                Map<String, DoubleColumn> columns = importer.read(csv, spill);
+                Assert.assertEquals(Arrays.asList("time", "x", "i"), new ArrayList<>(columns.keySet()));
+                Assert.assertTrue(spill.getSpilled() > 0);
+                double[] time = columns.get("time").toArray();
+                Assert.assertArrayEquals(x, columns.get("x").toArray(), 0.0);
+                double[] i = columns.get("i").toArray();
+                Assert.assertEquals(n, time.length);
+                for (int j = 0; j < n; j++) {
+                    Assert.assertEquals(j * 0.001, time[j], 0.0);
+                    Assert.assertEquals(j, i[j], 0.0);
+                }
+            }
+            File m = File.createTempFile("test", ".mld");
+            importer.importMeld(csv, new MeldWriter(m));
+            MeldReader reader = new MeldReader(m);
+            Assert.assertArrayEquals(x, reader.findTable("csv").getDoubleSignal("x"), 0.0);
+            reader.close();
+        } catch (ReconException | IOException ex) {
+            ex.printStackTrace();
+            Assert.fail(ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testExporter() {
+        try {
+            File source = File.createTempFile("test", ".txt");
+            Files.copy(ClassLoader.getSystemResourceAsStream("Modelica.Mechanics.Rotational.Examples.CoupledClutches.txt"), source.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            File m = File.createTempFile("test", ".mld");
+            Meld.csv2meld(source, '\t', (String f1) -> f1.substring(0, f1.lastIndexOf('[')).trim(), new MeldWriter(m));
+            MeldReader reader = new MeldReader(m);
+            ReconTable table = reader.findTable("csv");
+            List<String> signals = Arrays.asList(table.getSignals());
+            File tsv = File.createTempFile("test", ".tsv");
+            CSVExporter exporter = new CSVExporter();
+            exporter.setDelimiter('\t');
+            exporter.setParallelism(3);
+            exporter.export(table, signals, tsv);
+            CSVImporter importer = new CSVImporter();
+            importer.setDelimiter('\t');
+            try (DoubleColumn.Spill spill = new DoubleColumn.Spill(importer.getMemoryLimit())) {
+                Map<String, DoubleColumn> columns = importer.read(tsv, spill);
+                Assert.assertEquals(signals, new ArrayList<>(columns.keySet()));
+                for (String signal : signals) {
+                    Assert.assertArrayEquals(signal, table.getDoubleSignal(signal), columns.get(signal).toArray(), 0.0);
+                }
+            }
+            // A time range selects the rows between its bounds
+            double[] time = table.getDoubleSignal("time");
+            exporter.setTimeRange("time", 0.5, 1.0);
+            File part = File.createTempFile("test", ".tsv");
+            exporter.export(table, signals.subList(1, 3), part);
+            List<String> lines = Files.readAllLines(part.toPath(), StandardCharsets.US_ASCII);
+            Assert.assertEquals(signals.get(1) + "\t" + signals.get(2), lines.get(0));
+            int rows = 0;
+            for (double t : time) {
+                if (t >= 0.5 && t <= 1.0) {
+                    rows++;
+                }
+            }
+            Assert.assertTrue(rows > 0);
+            Assert.assertEquals(rows + 1, lines.size());
+            reader.close();
+            // Names needing quotes survive a round trip
+            File m2 = File.createTempFile("test", ".mld");
+            MeldWriter writer = new MeldWriter(m2);
+            ReconTable quoted = writer.addTable("T1", new String[]{"x[1,2]", "say \"hi\""});
+            writer.finalizeDefinitions();
+            quoted.setSignal("x[1,2]", new double[]{1.5, 2.5});
+            quoted.setSignal("say \"hi\"", new double[]{-1, 1e-9});
+            writer.close();
+            MeldReader quotedReader = new MeldReader(m2);
+            File csv = File.createTempFile("test", ".csv");
+            new CSVExporter().export(quotedReader.findTable("T1"), Arrays.asList("x[1,2]", "say \"hi\""), csv);
+            quotedReader.close();
+            try (DoubleColumn.Spill spill = new DoubleColumn.Spill(1024 * 1024)) {
+                Map<String, DoubleColumn> columns = new CSVImporter().read(csv, spill);
+                Assert.assertEquals(Arrays.asList("x[1,2]", "say \"hi\""), new ArrayList<>(columns.keySet()));
+                Assert.assertArrayEquals(new double[]{1.5, 2.5}, columns.get("x[1,2]").toArray(), 0.0);
+                Assert.assertArrayEquals(new double[]{-1, 1e-9}, columns.get("say \"hi\"").toArray(), 0.0);
+            }
+        } catch (ReconException | IOException ex) {
+            ex.printStackTrace();
+            Assert.fail(ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testExporterWindows() {
+        try {
+            int n = 200000;
+            Random random = new Random(2);
+            double[] time = new double[n];
+            double[] x = new double[n];
+            for (int i = 0; i < n; i++) {
+                time[i] = i * 0.001;
+                x[i] = random.nextGaussian();
+            }
+            List<String> signals = Arrays.asList("time", "x", "nx");
+            List<List<String>> outputs = new ArrayList<>();
+            for (boolean compressed : new boolean[]{false, true}) {
+                File m = File.createTempFile("test", ".mld");
+                MeldWriter writer = new MeldWriter(m, compressed);
+                ReconTable t = writer.addTable("T1", new String[]{"time", "x"});
+                t.addAlias("nx", "x", "inv");
+                writer.finalizeDefinitions();
+                t.setSignal("time", time);
+                t.setSignal("x", x);
+                writer.close();
+                try (MeldReader reader = new MeldReader(m)) {
+                    for (long memoryLimit : new long[]{64L * 1024 * 1024, 3 * 8 * 20000}) {
+                        CSVExporter exporter = new CSVExporter();
+                        exporter.setMemoryLimit(memoryLimit);
+                        exporter.setTimeRange("time", 10.5, 150.25);
+                        File csv = File.createTempFile("test", ".csv");
+                        exporter.export(reader.findTable("T1"), signals, csv);
+                        outputs.add(Files.readAllLines(csv.toPath(), StandardCharsets.US_ASCII));
+                    }
+                }
+            }
+            List<String> lines = outputs.get(0);
+            Assert.assertEquals("time,x,nx", lines.get(0));
+            Assert.assertEquals(139751 + 1, lines.size());
+            Assert.assertEquals(DoubleFormatter.toString(time[10500]) + "," + DoubleFormatter.toString(x[10500])
+                    + "," + DoubleFormatter.toString(-x[10500]), lines.get(1));
+            Assert.assertEquals(DoubleFormatter.toString(time[150250]) + "," + DoubleFormatter.toString(x[150250])
+                    + "," + DoubleFormatter.toString(-x[150250]), lines.get(lines.size() - 1));
+            // Windows, and compressed melds read whole, give the same text
+            for (List<String> output : outputs) {
+                Assert.assertEquals(lines, output);
+            }
+        } catch (ReconException | IOException ex) {
+            ex.printStackTrace();
+            Assert.fail(ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testDoubleFormatter() {
+        Assert.assertEquals("0", DoubleFormatter.toString(0.0));
+        Assert.assertEquals("-0", DoubleFormatter.toString(-0.0));
+        Assert.assertEquals("1", DoubleFormatter.toString(1.0));
+        Assert.assertEquals("0.1", DoubleFormatter.toString(0.1));
+        Assert.assertEquals("-12.5", DoubleFormatter.toString(-12.5));
+        Assert.assertEquals("0.000123", DoubleFormatter.toString(0.000123));
+        Assert.assertEquals("NaN", DoubleFormatter.toString(Double.NaN));
+        Assert.assertEquals("-Infinity", DoubleFormatter.toString(Double.NEGATIVE_INFINITY));
+        Assert.assertEquals("1E-7", DoubleFormatter.toString(1e-7));
+        Assert.assertEquals("1000000000000000", DoubleFormatter.toString(1e15));
+        Assert.assertEquals("1E16", DoubleFormatter.toString(1e16));
+        Assert.assertEquals("1.7976931348623157E308", DoubleFormatter.toString(Double.MAX_VALUE));
+        Assert.assertEquals("4.9E-324", DoubleFormatter.toString(Double.MIN_VALUE));
+        Assert.assertEquals("2.2250738585072014E-308", DoubleFormatter.toString(Double.MIN_NORMAL));
+        Assert.assertEquals("0.30000000000000004", DoubleFormatter.toString(0.1 + 0.2));
+        Random random = new Random(1);
+        byte[] out = new byte[DoubleFormatter.MAX_LENGTH];
+        for (int i = 0; i < 100000; i++) {
+            double x = i % 2 == 0
+                    ? random.nextGaussian() * Math.pow(10, random.nextInt(40) - 20)
+                    : Math.round(random.nextGaussian() * 1e6) / 1e3;
+            String text = new String(out, 0, DoubleFormatter.format(x, out, 0), StandardCharsets.US_ASCII);
+            Assert.assertEquals(text, x, Double.parseDouble(text), 0.0);
+            Assert.assertTrue(text, text.length() <= DoubleFormatter.MAX_LENGTH);
+            assertShortest(x, text);
+            double bits = Double.longBitsToDouble(random.nextLong());
+            text = DoubleFormatter.toString(bits);
+            if (!Double.isNaN(bits) && !Double.isInfinite(bits)) {
+                Assert.assertEquals(text, bits, Double.parseDouble(text), 0.0);
+                assertShortest(bits, text);
+            }
+        }
+    }
+
+    /**
+     * Asserts that no decimal of fewer digits next to the value parses to it
+     */
+    private static void assertShortest(double x, String text) {
+        BigDecimal decimal = new BigDecimal(text).stripTrailingZeros();
+        int digits = decimal.precision();
+        if (digits > 1 && x != 0) {
+            BigDecimal exact = new BigDecimal(x);
+            for (RoundingMode mode : new RoundingMode[]{RoundingMode.FLOOR, RoundingMode.CEILING}) {
+                double shorter = exact.round(new MathContext(digits - 1, mode)).doubleValue();
+                Assert.assertTrue(text, shorter != x);
+            }
+        }
+    }
 }
@@ -0,0 +1,130 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 CyDesign Limited.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.harmanpa.jrecon;
+
+import com.github.harmanpa.jrecon.exceptions.ReconException;
+import com.github.harmanpa.jrecon.io.CachedRandomAccessResource;
+import com.github.harmanpa.jrecon.io.FileRandomAccessResource;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author pete
+ */
+public class CachedRandomAccessResourceTest {
+
+    @Test
+    public void testMeld() {
+        try {
+            File f = new File(new File(System.getProperty("user.dir")), "src/test/resources/samples/fullRobot.mld");
+            CachedRandomAccessResource cache = new CachedRandomAccessResource(new FileRandomAccessResource(f), 4096, 8 * 1024 * 1024, true);
+            MeldReader direct = new MeldReader(f);
+            for (int pass = 0; pass < 2; pass++) {
+                MeldReader cached = new MeldReader(cache);
+                for (ReconTable table : cached.getTables().values()) {
+                    ReconTable directTable = direct.findTable(table.getName());
+                    for (String signal : Arrays.copyOf(table.getSignals(), 100)) {
+                        Assert.assertArrayEquals(directTable.getSignal(signal), table.getSignal(signal));
+                    }
+                }
+                System.out.println("Pass " + pass + ": " + cache.getStats());
+            }
+            long misses = cache.getMissCount();
+            Assert.assertTrue(cache.getHitCount() > misses);
+            MeldReader cached = new MeldReader(cache);
+            cached.getTables();
+            Assert.assertEquals(misses, cache.getMissCount());
+            cache.close();
+            direct.close();
+        } catch (ReconException | IOException ex) {
+            ex.printStackTrace();
+            Assert.fail(ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testWall() {
+        try {
+            File f = File.createTempFile("test", ".wll");
+            WallWriter wall = new WallWriter(f);
+            ReconTable t = wall.addTable("T1", new String[]{"time", "x"});
+            wall.finalizeDefinitions();
+            for (int i = 0; i < 1000; i++) {
+                t.addRow((double) i, Math.sin(i));
+            }
+            wall.close();
+
+            WallReader reader = new WallReader(new CachedRandomAccessResource(new FileRandomAccessResource(f), 1024, 1024 * 1024, false));
+            ReconTable table = reader.findTable("T1");
+            Double[] x = table.getSignal("x", Double.class);
+            Assert.assertEquals(1000, x.length);
+            for (int i = 0; i < x.length; i++) {
+                Assert.assertEquals(Math.sin(i), x[i], 0.0);
+            }
+            reader.close();
+        } catch (ReconException | IOException ex) {
+            ex.printStackTrace();
+            Assert.fail(ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testShortReads() {
+        try {
+            File f = File.createTempFile("test", ".bin");
+            byte[] data = new byte[10000];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = (byte) i;
+            }
+            Files.write(f.toPath(), data);
+            // A resource returning fewer bytes than asked for before its end
+            FileRandomAccessResource resource = new FileRandomAccessResource(f) {
+                @Override
+                public int read(long location, byte[] bytes) throws IOException {
+                    byte[] part = new byte[Math.min(bytes.length, 300)];
+                    int n = super.read(location, part);
+                    if (n > 0) {
+                        System.arraycopy(part, 0, bytes, 0, n);
+                    }
+                    return n;
+                }
+            };
+            CachedRandomAccessResource cache = new CachedRandomAccessResource(resource, 1024, 1024 * 1024, false);
+            byte[] bytes = new byte[5000];
+            Assert.assertEquals(bytes.length, cache.read(2000, bytes));
+            Assert.assertArrayEquals(Arrays.copyOfRange(data, 2000, 7000), bytes);
+            Assert.assertEquals(1000, cache.read(9000, bytes));
+            Assert.assertEquals(-1, cache.read(10000, bytes));
+            cache.close();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            Assert.fail(ex.getMessage());
+        }
+    }
+}
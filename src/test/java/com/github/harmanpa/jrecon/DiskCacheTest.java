@@ -0,0 +1,150 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 CyDesign Limited
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.harmanpa.jrecon;
+
+import com.github.harmanpa.jrecon.exceptions.ReconException;
+import com.github.harmanpa.jrecon.io.DiskCache;
+import com.github.harmanpa.jrecon.io.DiskCachedRandomAccessResource;
+import com.github.harmanpa.jrecon.io.HttpRandomAccessResource;
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author pete
+ */
+public class DiskCacheTest {
+
+    @Test
+    public void test() {
+        File f = new File(new File(System.getProperty("user.dir")), "src/test/resources/samples/fullRobot.mld");
+        File directory = null;
+        try (RangeServer server = new RangeServer(f)) {
+            directory = Files.createTempDirectory("cache").toFile();
+            MeldReader local = new MeldReader(f);
+            ReconTable localTable = local.findTable("T2");
+            List<String> signals = Arrays.asList(Arrays.copyOf(localTable.getSignals(), 100));
+            Map<String, Object[]> expected = localTable.getSignals(signals);
+
+            // First open fetches from the server
+            DiskCache cache = new DiskCache(directory, 64 * 1024 * 1024);
+            assertRead(new MeldReader(new DiskCachedRandomAccessResource(new HttpRandomAccessResource(server.getUri()), cache)), signals, expected);
+            Assert.assertTrue(cache.getSize() > 0);
+            Assert.assertTrue(server.getRequests() > 1);
+
+            // Reopening, also with a new cache on the same directory, only validates
+            cache = new DiskCache(directory, 64 * 1024 * 1024);
+            int before = server.getRequests();
+            assertRead(new MeldReader(new DiskCachedRandomAccessResource(new HttpRandomAccessResource(server.getUri()), cache)), signals, expected);
+            Assert.assertEquals(1, server.getRequests() - before);
+            Assert.assertEquals(0, cache.getMissCount());
+
+            // A changed resource is fetched again
+            byte[] changed = server.getData().clone();
+            changed[changed.length - 1]++;
+            server.setData(changed);
+            before = server.getRequests();
+            assertRead(new MeldReader(new DiskCachedRandomAccessResource(new HttpRandomAccessResource(server.getUri()), cache)), signals, expected);
+            Assert.assertTrue(server.getRequests() - before > 1);
+
+            // Eviction keeps the cache within its size
+            DiskCache small = new DiskCache(directory, 256 * 1024);
+            Assert.assertTrue(small.getSize() <= 256 * 1024);
+            assertRead(new MeldReader(new DiskCachedRandomAccessResource(new HttpRandomAccessResource(server.getUri()), small)), signals, expected);
+            Assert.assertTrue(small.getSize() <= 256 * 1024);
+            local.close();
+        } catch (ReconException | IOException | URISyntaxException ex) {
+            ex.printStackTrace();
+            Assert.fail(ex.getMessage());
+        } finally {
+            if (directory != null) {
+                try {
+                    MoreFiles.deleteRecursively(directory.toPath(), RecursiveDeleteOption.ALLOW_INSECURE);
+                } catch (IOException ex) {
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testStaleFiles() {
+        File directory = null;
+        try {
+            directory = Files.createTempDirectory("cache").toFile();
+            long old = System.currentTimeMillis() - 2 * 60 * 60 * 1000;
+            File entry = new File(directory, "entry");
+            entry.mkdirs();
+            File block = new File(entry, "0");
+            Files.write(block.toPath(), new byte[]{1, 2});
+            File stale = new File(entry, "1.tmp");
+            Files.write(stale.toPath(), new byte[]{1});
+            stale.setLastModified(old);
+            File fresh = new File(entry, "2.tmp");
+            Files.write(fresh.toPath(), new byte[]{1});
+            File empty = new File(directory, "empty");
+            empty.mkdirs();
+            empty.setLastModified(old);
+            File emptied = new File(directory, "emptied");
+            emptied.mkdirs();
+            File emptiedTemporary = new File(emptied, "0.tmp");
+            Files.write(emptiedTemporary.toPath(), new byte[]{1});
+            emptiedTemporary.setLastModified(old);
+            DiskCache cache = new DiskCache(directory, 1024);
+            Assert.assertEquals(2, cache.getSize());
+            Assert.assertTrue(block.isFile());
+            Assert.assertFalse(stale.exists());
+            // Temporary files may still be being written by another process
+            Assert.assertTrue(fresh.isFile());
+            Assert.assertFalse(empty.exists());
+            Assert.assertFalse(emptiedTemporary.exists());
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            Assert.fail(ex.getMessage());
+        } finally {
+            if (directory != null) {
+                try {
+                    MoreFiles.deleteRecursively(directory.toPath(), RecursiveDeleteOption.ALLOW_INSECURE);
+                } catch (IOException ex) {
+                }
+            }
+        }
+    }
+
+    private static void assertRead(MeldReader reader, List<String> signals, Map<String, Object[]> expected) throws ReconException, IOException {
+        Map<String, Object[]> actual = reader.findTable("T2").getSignals(signals);
+        for (String signal : signals) {
+            Assert.assertArrayEquals(expected.get(signal), actual.get(signal));
+        }
+        reader.close();
+    }
+}
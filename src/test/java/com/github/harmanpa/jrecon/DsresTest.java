@@ -0,0 +1,222 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 CyDesign Limited
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.harmanpa.jrecon;
+
+import com.github.harmanpa.jrecon.exceptions.ReconException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author pete
+ */
+public class DsresTest {
+
+    private static final String[] NAMES = {"Time", "k", "x", "der(x)", "y", "minusX", "minusK", "z"};
+    private static final String[] DESCRIPTIONS = {"Simulation time [s]", "Gain", "State", "", "", "", "", "Negated only"};
+    // Dymola dataInfo columns: data matrix, signed index from 1, interpolation, extrapolation
+    private static final int[][] DATA_INFO = {{0, 1, 0, -1}, {1, 2, 0, 0}, {2, 2, 0, -1}, {2, 3, 0, -1},
+    {2, 2, 0, -1}, {2, -2, 0, -1}, {1, -2, 0, 0}, {2, -4, 0, -1}};
+
+    @Test
+    public void testTransposed() {
+        test(true);
+    }
+
+    @Test
+    public void testNormal() {
+        test(false);
+    }
+
+    private void test(boolean transposed) {
+        try {
+            int n = 5000;
+            Random random = new Random(1);
+            double[][] data2 = new double[4][n];
+            for (int t = 0; t < n; t++) {
+                data2[0][t] = (float) (t * 0.01);
+                for (int i = 1; i < 4; i++) {
+                    // Exactly representable as floats
+                    data2[i][t] = (float) random.nextGaussian();
+                }
+            }
+            double[][] data1 = {{0, 50}, {2.5, 2.5}};
+            File dsres = File.createTempFile("dsres", ".mat");
+            writeDsres(dsres, transposed, data1, data2);
+            File meld = File.createTempFile("test", ".mld");
+            DsresImporter importer = new DsresImporter();
+            // Several batches of columns
+            importer.setMemoryLimit(8L * n);
+            importer.importMeld(dsres, new MeldWriter(meld));
+            MeldReader reader = new MeldReader(meld);
+            ReconTable parameters = reader.findTable(DsresImporter.PARAMETERS);
+            MeldReader.MeldTableReader trajectories = (MeldReader.MeldTableReader) reader.findTable(DsresImporter.TRAJECTORIES);
+            Assert.assertEquals(Arrays.asList("k", "minusK"), Arrays.asList(parameters.getSignals()));
+            Assert.assertEquals(Arrays.asList("Time", "x", "der(x)", "z", "y", "minusX"), Arrays.asList(trajectories.getSignals()));
+            // Names sharing a column refer to the data of one signal
+            Assert.assertEquals(trajectories.getSignalOffsetLength("x"), trajectories.getSignalOffsetLength("y"));
+            Assert.assertEquals(trajectories.getSignalOffsetLength("x"), trajectories.getSignalOffsetLength("minusX"));
+            Assert.assertArrayEquals(new double[]{2.5, 2.5}, parameters.getDoubleSignal("k"), 0.0);
+            Assert.assertArrayEquals(new double[]{-2.5, -2.5}, parameters.getDoubleSignal("minusK"), 0.0);
+            Assert.assertArrayEquals(data2[0], trajectories.getDoubleSignal("Time"), 0.0);
+            Assert.assertArrayEquals(data2[1], trajectories.getDoubleSignal("x"), 0.0);
+            Assert.assertArrayEquals(data2[1], trajectories.getDoubleSignal("y"), 0.0);
+            Assert.assertArrayEquals(data2[2], trajectories.getDoubleSignal("der(x)"), 0.0);
+            Assert.assertArrayEquals(negate(data2[1]), trajectories.getDoubleSignal("minusX"), 0.0);
+            Assert.assertArrayEquals(negate(data2[3]), trajectories.getDoubleSignal("z"), 0.0);
+            Assert.assertEquals("inv", trajectories.getSignalTransform("minusX"));
+            Assert.assertEquals("State", trajectories.getSignalMeta("x").get("description"));
+            Assert.assertEquals("Negated only", trajectories.getSignalMeta("z").get("description"));
+            reader.close();
+        } catch (ReconException | IOException ex) {
+            ex.printStackTrace();
+            Assert.fail(ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testNotDsres() {
+        try {
+            File file = File.createTempFile("test", ".mat");
+            Files.write(file.toPath(), matrix("Aclass", 51, strings(false, "Abc", "1.1", "", "binTrans"), 4, 8));
+            try {
+                new DsresImporter().importMeld(file, new MeldWriter(File.createTempFile("test", ".mld")));
+                Assert.fail("Expected an exception");
+            } catch (ReconException ex) {
+            }
+        } catch (IOException ex) {
+            Assert.fail(ex.getMessage());
+        }
+    }
+
+    private static double[] negate(double[] data) {
+        double[] out = new double[data.length];
+        for (int i = 0; i < data.length; i++) {
+            out[i] = -data[i];
+        }
+        return out;
+    }
+
+    /**
+     * Writes a little endian MAT v4 file laid out as Dymola does, with data_2
+     * as floats
+     */
+    private static void writeDsres(File file, boolean transposed, double[][] data1, double[][] data2) throws IOException {
+        int length = 0;
+        for (String name : NAMES) {
+            length = Math.max(length, name.length());
+        }
+        int descriptionLength = 0;
+        for (String description : DESCRIPTIONS) {
+            descriptionLength = Math.max(descriptionLength, description.length());
+        }
+        double[] info = new double[NAMES.length * 4];
+        for (int i = 0; i < NAMES.length; i++) {
+            for (int j = 0; j < 4; j++) {
+                info[transposed ? i * 4 + j : j * NAMES.length + i] = DATA_INFO[i][j];
+            }
+        }
+        byte[][] parts = {
+            matrix("Aclass", 51, strings(false, "Atrajectory", "1.1", "", transposed ? "binTrans" : "binNormal"), 4, 11),
+            transposed ? matrix("name", 51, strings(true, NAMES), length, NAMES.length)
+            : matrix("name", 51, strings(false, NAMES), NAMES.length, length),
+            transposed ? matrix("description", 51, strings(true, DESCRIPTIONS), descriptionLength, DESCRIPTIONS.length)
+            : matrix("description", 51, strings(false, DESCRIPTIONS), DESCRIPTIONS.length, descriptionLength),
+            transposed ? matrix("dataInfo", 20, info, 4, NAMES.length) : matrix("dataInfo", 20, info, NAMES.length, 4),
+            data("data_1", 0, data1, transposed),
+            data("data_2", 10, data2, transposed)};
+        int size = 0;
+        for (byte[] part : parts) {
+            size += part.length;
+        }
+        ByteBuffer out = ByteBuffer.allocate(size);
+        for (byte[] part : parts) {
+            out.put(part);
+        }
+        Files.write(file.toPath(), out.array());
+    }
+
+    /**
+     * Returns the characters of strings, padded with blanks, column major as
+     * a matrix of one string per column when transposed, else per row
+     */
+    private static double[] strings(boolean transposed, String... strings) {
+        int length = 0;
+        for (String s : strings) {
+            length = Math.max(length, s.length());
+        }
+        double[] out = new double[strings.length * length];
+        for (int i = 0; i < strings.length; i++) {
+            for (int j = 0; j < length; j++) {
+                char c = j < strings[i].length() ? strings[i].charAt(j) : ' ';
+                out[transposed ? i * length + j : j * strings.length + i] = c;
+            }
+        }
+        return out;
+    }
+
+    private static byte[] data(String name, int type, double[][] data, boolean transposed) {
+        int variables = data.length;
+        int samples = data[0].length;
+        double[] out = new double[variables * samples];
+        for (int i = 0; i < variables; i++) {
+            for (int t = 0; t < samples; t++) {
+                out[transposed ? t * variables + i : i * samples + t] = data[i][t];
+            }
+        }
+        return transposed ? matrix(name, type, out, variables, samples) : matrix(name, type, out, samples, variables);
+    }
+
+    private static byte[] matrix(String name, int type, double[] data, int rows, int columns) {
+        int precision = (type / 10) % 10;
+        int elementSize = precision == 0 ? 8 : precision == 5 ? 1 : 4;
+        byte[] nameBytes = (name + "\0").getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer out = ByteBuffer.allocate(20 + nameBytes.length + data.length * elementSize).order(ByteOrder.LITTLE_ENDIAN);
+        out.putInt(type).putInt(rows).putInt(columns).putInt(0).putInt(nameBytes.length).put(nameBytes);
+        for (double d : data) {
+            switch (precision) {
+                case 0:
+                    out.putDouble(d);
+                    break;
+                case 1:
+                    out.putFloat((float) d);
+                    break;
+                case 2:
+                    out.putInt((int) d);
+                    break;
+                default:
+                    out.put((byte) d);
+            }
+        }
+        return out.array();
+    }
+}
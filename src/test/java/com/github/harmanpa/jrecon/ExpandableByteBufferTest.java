@@ -0,0 +1,107 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 CyDesign Limited
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.harmanpa.jrecon;
+
+import com.github.harmanpa.jrecon.exceptions.ReconException;
+import com.github.harmanpa.jrecon.utils.ExpandableByteBuffer;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author pete
+ */
+public class ExpandableByteBufferTest {
+
+    @Test
+    public void test() throws IOException {
+        ExpandableByteBuffer.Pool pool = new ExpandableByteBuffer.Pool(false, ByteOrder.BIG_ENDIAN, 16, 4);
+        ExpandableByteBuffer buffer = new ExpandableByteBuffer(pool, 16);
+        byte[] bytes = new byte[40];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) i;
+        }
+        buffer.put(bytes);
+        // Does not fit in the 8 bytes left of the third chunk, so starts a fourth
+        buffer.putInteger(0x01020304);
+        buffer.putDouble(1.5);
+        Assert.assertEquals(52, buffer.position());
+        // Overwrite across the first two chunks
+        buffer.put(14, new byte[]{-1, -2, -3, -4}, 0, 4);
+        ByteBuffer data = buffer.getWritableBuffer();
+        Assert.assertEquals(52, data.remaining());
+        Assert.assertEquals(13, data.get(13));
+        Assert.assertEquals(-1, data.get(14));
+        Assert.assertEquals(-4, data.get(17));
+        Assert.assertEquals(18, data.get(18));
+        Assert.assertEquals(0x01020304, data.getInt(40));
+        Assert.assertEquals(1.5, data.getDouble(44), 0.0);
+
+        File f = File.createTempFile("buffer", ".bin");
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            buffer.writeToRandomAccessFile(raf);
+            Assert.assertEquals(52, raf.getFilePointer());
+        }
+        Assert.assertArrayEquals(data.array(), Files.readAllBytes(f.toPath()));
+        Assert.assertEquals(0, buffer.position());
+        // All but the first chunk went back to the pool, and are reused
+        Assert.assertEquals(3, pool.getPooled());
+        buffer.put(bytes);
+        Assert.assertEquals(2, pool.getReused());
+        buffer.release();
+        Assert.assertEquals(4, pool.getPooled());
+        f.delete();
+    }
+
+    @Test
+    public void testLargeSignal() {
+        try {
+            double[] x = new double[100000];
+            for (int i = 0; i < x.length; i++) {
+                x[i] = i * 0.25;
+            }
+            File f = File.createTempFile("large", ".mld");
+            try (MeldWriter meld = new MeldWriter(f)) {
+                ReconTable t = meld.addTable("T1", new String[]{"x", "y"});
+                meld.finalizeDefinitions();
+                t.setSignal("x", x);
+                t.setSignal("y", 1.0, 2.0);
+            }
+            MeldReader reader = new MeldReader(f);
+            Assert.assertArrayEquals(x, reader.findTable("T1").getDoubleSignal("x"), 0.0);
+            Assert.assertArrayEquals(new double[]{1.0, 2.0}, reader.findTable("T1").getDoubleSignal("y"), 0.0);
+            reader.close();
+            f.delete();
+        } catch (ReconException | IOException ex) {
+            ex.printStackTrace();
+            Assert.fail(ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,325 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 CyDesign Limited
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.harmanpa.jrecon;
+
+import com.github.harmanpa.jrecon.exceptions.ReconException;
+import com.github.harmanpa.jrecon.io.AsyncIO;
+import com.github.harmanpa.jrecon.io.HttpRandomAccessResource;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author pete
+ */
+public class HttpRandomAccessResourceTest {
+
+    @Test
+    public void test() {
+        File f = new File(new File(System.getProperty("user.dir")), "src/test/resources/samples/fullRobot.mld");
+        try (RangeServer server = new RangeServer(f)) {
+            HttpRandomAccessResource resource = new HttpRandomAccessResource(server.getUri());
+            MeldReader remote = new MeldReader(resource);
+            MeldReader local = new MeldReader(f);
+            ReconTable remoteTable = remote.findTable("T2");
+            ReconTable localTable = local.findTable("T2");
+            String[] signals = remoteTable.getSignals();
+            for (int i = 0; i < 50; i++) {
+                Assert.assertArrayEquals(localTable.getSignal(signals[i]), remoteTable.getSignal(signals[i]));
+            }
+            // Sequential reads reuse a single kept alive connection
+            Assert.assertTrue(server.getRequests() > 50);
+            Assert.assertEquals(1, server.getConnections());
+            Assert.assertEquals(0, resource.getPoolStats().getLeased());
+            Assert.assertEquals(1, resource.getPoolStats().getAvailable());
+            remote.close();
+            local.close();
+            Assert.assertNull(resource.getPoolStats());
+            try {
+                resource.read(0, new byte[18]);
+                Assert.fail("Expected read after close to fail");
+            } catch (IOException ex) {
+                // Expected
+            }
+        } catch (ReconException | IOException | URISyntaxException ex) {
+            ex.printStackTrace();
+            Assert.fail(ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testMultiRange() {
+        File f = new File(new File(System.getProperty("user.dir")), "src/test/resources/samples/fullRobot.mld");
+        try (RangeServer server = new RangeServer(f)) {
+            MeldReader local = new MeldReader(f);
+            ReconTable localTable = local.findTable("T2");
+            List<String> signals = new ArrayList<>();
+            for (int i = 0; i < 1000; i += 10) {
+                signals.add(localTable.getSignals()[i]);
+            }
+            Map<String, Object[]> expected = localTable.getSignals(signals);
+            for (boolean multiRange : new boolean[]{true, false}) {
+                server.setMultiRange(multiRange);
+                HttpRandomAccessResource resource = new HttpRandomAccessResource(server.getUri());
+                MeldReader remote = new MeldReader(resource);
+                // Keep the signals in separate ranges
+                remote.setCoalesceGap(0);
+                ReconTable remoteTable = remote.findTable("T2");
+                int before = server.getRequests();
+                Map<String, Object[]> actual = remoteTable.getSignals(signals);
+                int requests = server.getRequests() - before;
+                System.out.println("Multi-range " + multiRange + ": " + signals.size() + " signals in " + requests + " requests");
+                for (String signal : signals) {
+                    Assert.assertArrayEquals(expected.get(signal), actual.get(signal));
+                }
+                if (multiRange) {
+                    Assert.assertEquals(1, requests);
+                    Assert.assertTrue(resource.isMultiRange());
+                } else {
+                    Assert.assertTrue(requests > signals.size() / 2);
+                    Assert.assertFalse(resource.isMultiRange());
+                }
+                remote.close();
+            }
+            local.close();
+        } catch (ReconException | IOException | URISyntaxException ex) {
+            ex.printStackTrace();
+            Assert.fail(ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testMultiRangeError() {
+        File f = new File(new File(System.getProperty("user.dir")), "src/test/resources/samples/fullRobot.mld");
+        try (RangeServer server = new RangeServer(f)) {
+            HttpRandomAccessResource resource = new HttpRandomAccessResource(server.getUri());
+            byte[] data = server.getData();
+            long[] locations = new long[]{0, 1000, 5000};
+            byte[][] bytes = new byte[][]{new byte[100], new byte[200], new byte[100]};
+            // An error falls back to single ranges for this read only
+            server.failRequest(server.getRequests() + 1);
+            Assert.assertArrayEquals(new int[]{100, 200, 100}, resource.read(locations, bytes));
+            Assert.assertArrayEquals(Arrays.copyOfRange(data, 1000, 1200), bytes[1]);
+            Assert.assertEquals(4, server.getRequests());
+            Assert.assertTrue(resource.isMultiRange());
+            Assert.assertArrayEquals(new int[]{100, 200, 100}, resource.read(locations, bytes));
+            Assert.assertEquals(5, server.getRequests());
+            resource.close();
+        } catch (IOException | URISyntaxException ex) {
+            ex.printStackTrace();
+            Assert.fail(ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testEndOfResource() {
+        File f = new File(new File(System.getProperty("user.dir")), "src/test/resources/samples/fullRobot.mld");
+        try (RangeServer server = new RangeServer(f)) {
+            HttpRandomAccessResource resource = new HttpRandomAccessResource(server.getUri());
+            byte[] data = server.getData();
+            long[] locations = new long[]{0, 1000, data.length - 10};
+            byte[][] bytes = new byte[][]{new byte[100], new byte[200], new byte[100]};
+            int[] read = resource.read(locations, bytes);
+            Assert.assertArrayEquals(new int[]{100, 200, 10}, read);
+            Assert.assertArrayEquals(Arrays.copyOfRange(data, 1000, 1200), bytes[1]);
+            Assert.assertArrayEquals(Arrays.copyOfRange(data, data.length - 10, data.length), Arrays.copyOf(bytes[2], 10));
+            Assert.assertEquals(1, server.getRequests());
+            resource.close();
+        } catch (IOException | URISyntaxException ex) {
+            ex.printStackTrace();
+            Assert.fail(ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testEmptyRead() {
+        File f = new File(new File(System.getProperty("user.dir")), "src/test/resources/samples/fullRobot.mld");
+        try (RangeServer server = new RangeServer(f)) {
+            HttpRandomAccessResource resource = new HttpRandomAccessResource(server.getUri());
+            byte[] data = server.getData();
+            // Empty reads make no request
+            Assert.assertEquals(0, resource.read(1000, new byte[0]));
+            Assert.assertEquals(0, (int) resource.readAsync(1000, new byte[0]).get());
+            Assert.assertArrayEquals(new int[]{0, 0}, resource.read(new long[]{0, 1000}, new byte[][]{new byte[0], new byte[0]}));
+            Assert.assertEquals(0, server.getRequests());
+            byte[][] bytes = new byte[][]{new byte[0], new byte[100], new byte[0], new byte[10]};
+            Assert.assertArrayEquals(new int[]{0, 100, 0, 10}, resource.read(new long[]{0, 1000, 2000, 3000}, bytes));
+            Assert.assertArrayEquals(Arrays.copyOfRange(data, 1000, 1100), bytes[1]);
+            Assert.assertArrayEquals(Arrays.copyOfRange(data, 3000, 3010), bytes[3]);
+            Assert.assertEquals(1, server.getRequests());
+            resource.close();
+        } catch (IOException | URISyntaxException | InterruptedException | ExecutionException ex) {
+            ex.printStackTrace();
+            Assert.fail(ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testParallel() {
+        File f = new File(new File(System.getProperty("user.dir")), "src/test/resources/samples/fullRobot.mld");
+        try (RangeServer server = new RangeServer(f)) {
+            HttpRandomAccessResource resource = new HttpRandomAccessResource(server.getUri());
+            resource.setParallelism(4);
+            resource.setMinimumChunkSize(64 * 1024);
+            byte[] data = server.getData();
+            byte[] bytes = new byte[1000000];
+            Assert.assertEquals(bytes.length, resource.read(1000, bytes));
+            Assert.assertArrayEquals(Arrays.copyOfRange(data, 1000, 1000 + bytes.length), bytes);
+            Assert.assertEquals(4, server.getRequests());
+            // Chunks past the end of the resource read nothing
+            Assert.assertEquals(1000, resource.read(data.length - 1000, bytes));
+            Assert.assertArrayEquals(Arrays.copyOfRange(data, data.length - 1000, data.length), Arrays.copyOf(bytes, 1000));
+            // Small reads are not split
+            int before = server.getRequests();
+            Assert.assertEquals(1000, resource.read(0, new byte[1000]));
+            Assert.assertEquals(1, server.getRequests() - before);
+            resource.close();
+        } catch (IOException | URISyntaxException ex) {
+            ex.printStackTrace();
+            Assert.fail(ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testChunkFailure() {
+        File f = new File(new File(System.getProperty("user.dir")), "src/test/resources/samples/fullRobot.mld");
+        try (RangeServer server = new RangeServer(f)) {
+            HttpRandomAccessResource resource = new HttpRandomAccessResource(server.getUri());
+            resource.setParallelism(4);
+            resource.setMinimumChunkSize(64 * 1024);
+            server.setBandwidth(250 * 1024);
+            server.failRequest(server.getRequests() + 1);
+            byte[] bytes = new byte[1000000];
+            long start = System.currentTimeMillis();
+            try {
+                resource.read(0, bytes);
+                Assert.fail("Expected read to fail");
+            } catch (IOException ex) {
+                Assert.assertEquals("Internal Server Error", ex.getMessage());
+            }
+            long elapsed = System.currentTimeMillis() - start;
+            Assert.assertTrue("Failed read took " + elapsed + "ms", elapsed < 500);
+            // The other chunks were aborted, and write nothing more
+            byte[] after = bytes.clone();
+            Thread.sleep(500);
+            Assert.assertArrayEquals(after, bytes);
+            resource.close();
+        } catch (IOException | URISyntaxException | InterruptedException ex) {
+            ex.printStackTrace();
+            Assert.fail(ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testHedging() {
+        File f = new File(new File(System.getProperty("user.dir")), "src/test/resources/samples/fullRobot.mld");
+        try (RangeServer server = new RangeServer(f)) {
+            HttpRandomAccessResource resource = new HttpRandomAccessResource(server.getUri());
+            resource.setHedgePercentile(95);
+            byte[] data = server.getData();
+            byte[] bytes = new byte[10000];
+            // Warm up the latency statistics
+            for (int i = 0; i < 20; i++) {
+                Assert.assertEquals(bytes.length, resource.read(i * 1000, bytes));
+            }
+            int hedges = resource.getHedgeCount();
+            server.delayRequest(server.getRequests() + 1, 5000);
+            long start = System.currentTimeMillis();
+            Assert.assertEquals(bytes.length, resource.read(50000, bytes));
+            long elapsed = System.currentTimeMillis() - start;
+            Assert.assertArrayEquals(Arrays.copyOfRange(data, 50000, 50000 + bytes.length), bytes);
+            Assert.assertEquals(hedges + 1, resource.getHedgeCount());
+            Assert.assertTrue("Hedged read took " + elapsed + "ms", elapsed < 2500);
+            resource.close();
+        } catch (IOException | URISyntaxException ex) {
+            ex.printStackTrace();
+            Assert.fail(ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testBoundedThreads() {
+        File f = new File(new File(System.getProperty("user.dir")), "src/test/resources/samples/fullRobot.mld");
+        try (RangeServer server = new RangeServer(f)) {
+            // Other resources may not have stopped their threads yet
+            int before = countFetchingThreads();
+            HttpRandomAccessResource resource = new HttpRandomAccessResource(server.getUri(), 4, 30000, 30000);
+            resource.setParallelism(4);
+            resource.setMinimumChunkSize(1000);
+            resource.setHedgePercentile(50);
+            byte[] data = server.getData();
+            for (int i = 0; i < 20; i++) {
+                Assert.assertEquals(8000, resource.read(i * 1000, new byte[8000]));
+            }
+            // Blocking reads filling the shared pool, each split into hedged
+            // chunks, must not wait on threads of that pool
+            List<CompletableFuture<byte[]>> blocking = new ArrayList<>();
+            List<CompletableFuture<Integer>> async = new ArrayList<>();
+            List<byte[]> buffers = new ArrayList<>();
+            for (int i = 0; i < 4 * AsyncIO.DEFAULT_THREADS; i++) {
+                final int location = i * 100;
+                blocking.add(AsyncIO.supplyAsync(() -> {
+                    byte[] bytes = new byte[8000];
+                    Assert.assertEquals(bytes.length, resource.read(location, bytes));
+                    return bytes;
+                }, AsyncIO.getExecutor()));
+                byte[] bytes = new byte[8000];
+                buffers.add(bytes);
+                async.add(resource.readAsync(location + 50, bytes));
+            }
+            for (int i = 0; i < blocking.size(); i++) {
+                Assert.assertArrayEquals(Arrays.copyOfRange(data, i * 100, i * 100 + 8000), blocking.get(i).get(30, TimeUnit.SECONDS));
+                Assert.assertEquals(8000, (int) async.get(i).get(30, TimeUnit.SECONDS));
+                Assert.assertArrayEquals(Arrays.copyOfRange(data, i * 100 + 50, i * 100 + 8050), buffers.get(i));
+            }
+            int fetching = countFetchingThreads() - before;
+            Assert.assertTrue(fetching + " fetching threads", fetching <= 4);
+            resource.close();
+        } catch (IOException | URISyntaxException | InterruptedException | ExecutionException | TimeoutException ex) {
+            ex.printStackTrace();
+            Assert.fail(ex.getMessage());
+        }
+    }
+
+    private static int countFetchingThreads() {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("jrecon-http-")) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
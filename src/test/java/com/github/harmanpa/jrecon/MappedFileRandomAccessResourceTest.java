@@ -0,0 +1,107 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 CyDesign Limited.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.harmanpa.jrecon;
+
+import com.github.harmanpa.jrecon.exceptions.ReconException;
+import com.github.harmanpa.jrecon.io.FileRandomAccessResource;
+import com.github.harmanpa.jrecon.io.MappedFileRandomAccessResource;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author pete
+ */
+public class MappedFileRandomAccessResourceTest {
+
+    @Test
+    public void test() {
+        try {
+            File f = new File(new File(System.getProperty("user.dir")), "src/test/resources/samples/fullRobot.mld");
+            // Small segments so that signals cross segment boundaries
+            MappedFileRandomAccessResource mapped = new MappedFileRandomAccessResource(f, 64 * 1024);
+            FileRandomAccessResource file = new FileRandomAccessResource(f);
+            Assert.assertEquals(f.length(), mapped.getLength());
+            byte[] expected = new byte[200000];
+            byte[] actual = new byte[200000];
+            Assert.assertEquals(expected.length, file.read(60000, expected));
+            Assert.assertEquals(actual.length, mapped.read(60000, actual));
+            Assert.assertArrayEquals(expected, actual);
+            ByteBuffer slice = mapped.slice(60000, 200000);
+            slice.get(actual);
+            Assert.assertArrayEquals(expected, actual);
+            Assert.assertEquals(10, mapped.read(f.length() - 10, actual));
+            Assert.assertEquals(-1, mapped.read(f.length(), actual));
+
+            MeldReader direct = new MeldReader(file);
+            MeldReader reader = new MeldReader(mapped);
+            for (ReconTable table : reader.getTables().values()) {
+                ReconTable directTable = direct.findTable(table.getName());
+                for (String signal : table.getSignals()) {
+                    Assert.assertArrayEquals(directTable.getSignal(signal), table.getSignal(signal));
+                }
+                Assert.assertArrayEquals(directTable.getSignals(Arrays.asList(table.getSignals())).values().toArray(),
+                        table.getSignals(Arrays.asList(table.getSignals())).values().toArray());
+            }
+            reader.close();
+            direct.close();
+        } catch (ReconException | IOException ex) {
+            ex.printStackTrace();
+            Assert.fail(ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testIntegerSignalAcrossSegments() {
+        try {
+            File f = File.createTempFile("test", ".mld");
+            MeldWriter writer = new MeldWriter(f);
+            ReconTable t = writer.addTable("T1", new String[]{"i", "b"});
+            writer.finalizeDefinitions();
+            Integer[] i = new Integer[5000];
+            Boolean[] b = new Boolean[5000];
+            for (int j = 0; j < i.length; j++) {
+                i[j] = j * 1000;
+                b[j] = j % 3 == 0;
+            }
+            t.setSignal("i", (Object[]) i);
+            t.setSignal("b", (Object[]) b);
+            writer.close();
+            // Segments small enough that both signals cross a boundary
+            MeldReader reader = new MeldReader(new MappedFileRandomAccessResource(f, 4096));
+            ReconTable table = reader.findTable("T1");
+            Assert.assertArrayEquals(i, table.getSignal("i", Integer.class));
+            Assert.assertArrayEquals(b, table.getSignal("b", Boolean.class));
+            Assert.assertArrayEquals(i, table.getSignal("i"));
+            reader.close();
+        } catch (ReconException | IOException ex) {
+            ex.printStackTrace();
+            Assert.fail(ex.getMessage());
+        }
+    }
+}
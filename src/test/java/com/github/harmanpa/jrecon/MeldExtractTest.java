@@ -0,0 +1,67 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 CyDesign Limited.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.harmanpa.jrecon;
+
+import com.github.harmanpa.jrecon.exceptions.ReconException;
+import java.io.File;
+import java.io.IOException;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author pete
+ */
+public class MeldExtractTest {
+
+    @Test
+    public void test() {
+        try {
+            File f = new File(new File(System.getProperty("user.dir")), "src/test/resources/samples/fullRobot.mld");
+            File f2 = File.createTempFile("extract", ".mld");
+            Meld.extractMeld(f, f2, (String table, String signal) -> "Time".equals(signal) || signal.startsWith("axis1.gear."));
+            MeldReader source = new MeldReader(f);
+            MeldReader extracted = new MeldReader(f2);
+            Assert.assertTrue(f2.length() < f.length());
+            int n = 0;
+            for (ReconTable table : extracted.getTables().values()) {
+                ReconTable sourceTable = source.findTable(table.getName());
+                Assert.assertNotNull(sourceTable);
+                for (String signal : table.getSignals()) {
+                    Assert.assertTrue("Time".equals(signal) || signal.startsWith("axis1.gear."));
+                    Assert.assertEquals(sourceTable.getSignalMeta(signal), table.getSignalMeta(signal));
+                    Assert.assertArrayEquals(sourceTable.getSignal(signal), table.getSignal(signal));
+                    n++;
+                }
+            }
+            Assert.assertTrue(n > 1);
+            System.out.println("Extracted " + n + " signals, " + f2.length() + " of " + f.length() + " bytes");
+            source.close();
+            extracted.close();
+        } catch (ReconException | IOException ex) {
+            ex.printStackTrace();
+            Assert.fail(ex.getMessage());
+        }
+    }
+}
@@ -25,9 +25,29 @@ package com.github.harmanpa.jrecon;
 
 import com.github.harmanpa.jrecon.exceptions.ReconException;
 import com.github.harmanpa.jrecon.io.FileRandomAccessResource;
+import com.github.harmanpa.jrecon.io.RandomAccessResource;
+import com.github.harmanpa.jrecon.utils.PackedDoubles;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.Assert;
+import org.msgpack.core.MessageBufferPacker;
+import org.msgpack.core.MessagePack;
 import org.junit.Test;
 
 /**
@@ -58,4 +78,353 @@ public class MeldReadTest {
             Assert.fail(ex.getMessage());
         }
     }
+
+    @Test
+    public void testDoubleSignal() {
+        try {
+            File f = new File(new File(System.getProperty("user.dir")), "src/test/resources/samples/fullRobot.mld");
+            MeldReader meldReader = new MeldReader(new FileRandomAccessResource(f));
+            int n = 0;
+            for (ReconTable table : meldReader.getTables().values()) {
+                for (String signal : table.getSignals()) {
+                    Object[] data = table.getSignal(signal);
+                    if (data.length > 0 && data[0] instanceof Number) {
+                        double[] doubles = table.getDoubleSignal(signal);
+                        Assert.assertEquals(data.length, doubles.length);
+                        for (int i = 0; i < data.length; i++) {
+                            Assert.assertEquals(((Number) data[i]).doubleValue(), doubles[i], 0.0);
+                        }
+                        n++;
+                    }
+                }
+            }
+            Assert.assertTrue(n > 0);
+            meldReader.close();
+
+            // Compressed, and integers
+            File m = File.createTempFile("doubles", ".mld");
+            MeldWriter writer = new MeldWriter(m, true);
+            ReconTable table = writer.addTable("T", new String[]{"x", "i"});
+            table.addAlias("nx", "x", "inv");
+            writer.finalizeDefinitions();
+            writer.flush();
+            table.setSignal("x", 1.0, 2.5, -3.0);
+            table.setSignal("i", 1, 2, 3);
+            writer.close();
+            meldReader = new MeldReader(m);
+            ReconTable readTable = meldReader.findTable("T");
+            Assert.assertArrayEquals(new double[]{1.0, 2.5, -3.0}, readTable.getDoubleSignal("x"), 0.0);
+            Assert.assertArrayEquals(new Double[]{1.0, 2.5, -3.0}, readTable.getSignal("x", Double.class));
+            Assert.assertArrayEquals(new double[]{-1.0, -2.5, 3.0}, readTable.getDoubleSignal("nx"), 0.0);
+            Assert.assertArrayEquals(new double[]{1.0, 2.0, 3.0}, readTable.getDoubleSignal("i"), 0.0);
+            Assert.assertArrayEquals(new Object[]{1, 2, 3}, readTable.getSignal("i"));
+            meldReader.close();
+
+            MessageBufferPacker packer = MessagePack.newDefaultBufferPacker();
+            packer.packArrayHeader(2);
+            packer.packDouble(1.0);
+            packer.packDouble(2.0);
+            Assert.assertArrayEquals(new double[]{1.0, 2.0}, PackedDoubles.unpack(ByteBuffer.wrap(packer.toByteArray())), 0.0);
+            packer.clear();
+            packer.packArrayHeader(2);
+            packer.packDouble(1.0);
+            packer.packInt(2);
+            Assert.assertNull(PackedDoubles.unpack(ByteBuffer.wrap(packer.toByteArray())));
+        } catch (ReconException | IOException ex) {
+            ex.printStackTrace();
+            Assert.fail(ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testGetSignals() {
+        try {
+            File f = new File(new File(System.getProperty("user.dir")), "src/test/resources/samples/fullRobot.mld");
+            final AtomicInteger reads = new AtomicInteger();
+            final RandomAccessResource file = new FileRandomAccessResource(f);
+            MeldReader meldReader = new MeldReader(countReads(file, reads));
+            for (ReconTable table : meldReader.getTables().values()) {
+                reads.set(0);
+                Map<String, Double[]> signals = table.getSignals(Arrays.asList(table.getSignals()), Double.class);
+                System.out.println(table.getName() + " " + signals.size() + " signals in " + reads.get() + " reads");
+                Assert.assertTrue(reads.get() < table.getSignals().length);
+                Assert.assertArrayEquals(table.getSignals(), signals.keySet().toArray(new String[0]));
+                for (String signal : table.getSignals()) {
+                    Assert.assertArrayEquals(table.getSignal(signal, Double.class), signals.get(signal));
+                }
+            }
+            meldReader.close();
+        } catch (ReconException | IOException ex) {
+            ex.printStackTrace();
+            Assert.fail(ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testSignalCache() {
+        try {
+            File f = new File(new File(System.getProperty("user.dir")), "src/test/resources/samples/fullRobot.mld");
+            SignalCache cache = new SignalCache(64 * 1024 * 1024);
+            MeldReader reader1 = new MeldReader(new FileRandomAccessResource(f), cache);
+            MeldReader reader2 = new MeldReader(new FileRandomAccessResource(f), cache);
+            ReconTable table1 = reader1.findTableForSignal("Time");
+            ReconTable table2 = reader2.findTableForSignal("Time");
+            Double[] time = table1.getSignal("Time", Double.class);
+            Assert.assertEquals(0, cache.getHitCount());
+            Assert.assertArrayEquals(time, table2.getSignal("Time", Double.class));
+            Assert.assertEquals(1, cache.getHitCount());
+            // Callers receive their own copy of the data
+            time[0] = Double.NaN;
+            Assert.assertNotEquals(time[0], table1.getSignal("Time", Double.class)[0]);
+            Map<String, Double[]> signals = table2.getSignals(Arrays.asList(table2.getSignals()), Double.class);
+            Assert.assertEquals(3, cache.getHitCount());
+            // Signals sharing a data location share an entry
+            Set<OffsetLength> locations = new HashSet<>();
+            for (String signal : table2.getSignals()) {
+                locations.add(((MeldReader.MeldTableReader) table2).getSignalOffsetLength(signal));
+            }
+            Assert.assertTrue(locations.size() < table2.getSignals().length);
+            Assert.assertEquals(locations.size(), cache.size());
+            Assert.assertArrayEquals(signals.get("Time"), table1.getSignal("Time", Double.class));
+            System.out.println(cache.getStats());
+            reader1.close();
+            Assert.assertEquals(locations.size(), cache.size());
+            reader2.close();
+            Assert.assertEquals(0, cache.size());
+        } catch (ReconException | IOException ex) {
+            ex.printStackTrace();
+            Assert.fail(ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testSignalCacheDoubles() {
+        try {
+            File f = File.createTempFile("test", ".mld");
+            try (MeldWriter meld = new MeldWriter(f)) {
+                ReconTable t = meld.addTable("T1", new String[]{"x", "i"});
+                meld.finalizeDefinitions();
+                t.setSignal("x", new double[]{1.0, 2.0, 3.0});
+                t.setSignal("i", 1, 2, 3);
+                meld.flush();
+            }
+            SignalCache cache = new SignalCache(1024 * 1024);
+            MeldReader reader = new MeldReader(new FileRandomAccessResource(f), cache);
+            ReconTable table = reader.findTable("T1");
+            double[] x = table.getDoubleSignal("x");
+            Assert.assertEquals(1, cache.getMissCount());
+            // Callers receive their own copy of the data
+            x[0] = Double.NaN;
+            Assert.assertArrayEquals(new double[]{1.0, 2.0, 3.0}, table.getDoubleSignal("x"), 0.0);
+            Assert.assertArrayEquals(new Object[]{1.0, 2.0, 3.0}, table.getSignal("x"));
+            Assert.assertEquals(2, cache.getHitCount());
+            // Values that are not float64 keep their type for boxed reads
+            Assert.assertArrayEquals(new double[]{1.0, 2.0, 3.0}, table.getDoubleSignal("i"), 0.0);
+            Assert.assertArrayEquals(new Object[]{1, 2, 3}, table.getSignal("i"));
+            Assert.assertEquals(3, cache.getHitCount());
+            Assert.assertEquals(2, cache.getMissCount());
+            reader.close();
+        } catch (ReconException | IOException ex) {
+            ex.printStackTrace();
+            Assert.fail(ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testSignalIndexLazy() {
+        AtomicInteger decoded = new AtomicInteger();
+        List<ReconTable> tables = new ArrayList<>();
+        for (int t = 0; t < 3; t++) {
+            final String[] signals = {"a" + t, "b"};
+            tables.add((ReconTable) Proxy.newProxyInstance(ReconTable.class.getClassLoader(), new Class<?>[]{ReconTable.class},
+                    (Object proxy, Method method, Object[] args) -> {
+                        switch (method.getName()) {
+                            case "getSignals":
+                                decoded.incrementAndGet();
+                                return signals;
+                            case "getAliases":
+                                return new Alias[]{new Alias("n" + signals[0], signals[0], "inv")};
+                            default:
+                                throw new UnsupportedOperationException(method.getName());
+                        }
+                    }));
+        }
+        SignalIndex index = new SignalIndex(tables);
+        Assert.assertEquals(0, decoded.get());
+        Assert.assertSame(tables.get(0), index.get("b").getTable());
+        Assert.assertEquals(1, decoded.get());
+        Assert.assertEquals("inv", index.get("na1").getTransform());
+        Assert.assertEquals(0, index.get("na1").getColumn());
+        Assert.assertEquals(2, decoded.get());
+        Assert.assertNull(index.get("c"));
+        Assert.assertEquals(3, decoded.get());
+        Assert.assertEquals(7, index.size());
+        Assert.assertEquals(3, decoded.get());
+    }
+
+    @Test
+    public void testConcurrentReads() {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            File f = new File(new File(System.getProperty("user.dir")), "src/test/resources/samples/fullRobot.mld");
+            MeldReader expected = new MeldReader(f);
+            MeldReader shared = new MeldReader(f);
+            ReconTable expectedTable = expected.findTable("T2");
+            ReconTable sharedTable = shared.findTable("T2");
+            final String[] signals = Arrays.copyOf(sharedTable.getSignals(), 500);
+            final Map<String, Object[]> data = expectedTable.getSignals(Arrays.asList(signals));
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(() -> {
+                    for (String signal : signals) {
+                        if (!Arrays.equals(data.get(signal), sharedTable.getSignal(signal))) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                Assert.assertTrue(result.get());
+            }
+            expected.close();
+            shared.close();
+        } catch (ReconException | IOException | InterruptedException | ExecutionException ex) {
+            ex.printStackTrace();
+            Assert.fail(ex.getMessage());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testAsync() {
+        try {
+            File f = new File(new File(System.getProperty("user.dir")), "src/test/resources/samples/fullRobot.mld");
+            FileRandomAccessResource resource = new FileRandomAccessResource(f);
+            byte[] expectedBytes = new byte[100000];
+            byte[] bytes = new byte[100000];
+            Assert.assertEquals(expectedBytes.length, resource.read(12345, expectedBytes));
+            Assert.assertEquals(bytes.length, (int) resource.readAsync(12345, bytes).get());
+            Assert.assertArrayEquals(expectedBytes, bytes);
+            Assert.assertEquals(10, (int) resource.readAsync(f.length() - 10, bytes).get());
+            Assert.assertEquals(-1, (int) resource.readAsync(f.length(), bytes).get());
+            MeldReader expected = new MeldReader(f);
+            MeldReader reader = new MeldReader(resource);
+            ReconTable expectedTable = expected.findTable("T2");
+            ReconTable table = reader.findTable("T2");
+            String[] signals = Arrays.copyOf(table.getSignals(), 500);
+            Map<String, Object[]> data = expectedTable.getSignals(Arrays.asList(signals));
+            List<CompletableFuture<Object[]>> futures = new ArrayList<>();
+            for (String signal : signals) {
+                futures.add(table.getSignalAsync(signal));
+            }
+            for (int i = 0; i < signals.length; i++) {
+                Assert.assertArrayEquals(data.get(signals[i]), futures.get(i).get());
+            }
+            Map<String, Object[]> batch = table.getSignalsAsync(Arrays.asList(signals)).get();
+            for (String signal : signals) {
+                Assert.assertArrayEquals(data.get(signal), batch.get(signal));
+            }
+            try {
+                table.getSignalAsync("Missing").get();
+                Assert.fail("Expected missing signal to fail");
+            } catch (ExecutionException ex) {
+                Assert.assertTrue(ex.getCause() instanceof ReconException);
+            }
+            expected.close();
+            reader.close();
+        } catch (ReconException | IOException | InterruptedException | ExecutionException ex) {
+            ex.printStackTrace();
+            Assert.fail(ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testHeaderPrefetch() {
+        try {
+            File f = new File(new File(System.getProperty("user.dir")), "src/test/resources/samples/fullRobot.mld");
+            File small = File.createTempFile("prefetch", ".mld");
+            Meld.extractMeld(f, small, (String table, String signal) -> "Time".equals(signal));
+            Assert.assertTrue(small.length() < 64 * 1024);
+            final AtomicInteger reads = new AtomicInteger();
+            // Whole file fits in the prefetch, so a single read
+            MeldReader meldReader = new MeldReader(countReads(new FileRandomAccessResource(small), reads));
+            Assert.assertEquals(2, meldReader.getTables().size());
+            Assert.assertEquals(1, reads.get());
+            meldReader.close();
+            // Without prefetch the fixed and variable header are read separately
+            reads.set(0);
+            meldReader = new MeldReader(countReads(new FileRandomAccessResource(small), reads));
+            meldReader.setHeaderPrefetch(0);
+            Assert.assertEquals(2, meldReader.getTables().size());
+            Assert.assertEquals(2, reads.get());
+            meldReader.close();
+            // Header larger than the prefetch, remainder read after it
+            reads.set(0);
+            meldReader = new MeldReader(countReads(new FileRandomAccessResource(f), reads));
+            Assert.assertEquals(2, meldReader.getTables().size());
+            Assert.assertEquals(2, reads.get());
+            Assert.assertEquals(new MeldReader(f).findTable("T2").getSignals().length, meldReader.findTable("T2").getSignals().length);
+            meldReader.close();
+            small.delete();
+        } catch (ReconException | IOException ex) {
+            ex.printStackTrace();
+            Assert.fail(ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testLazyHeader() {
+        try {
+            File f = new File(new File(System.getProperty("user.dir")), "src/test/resources/samples/fullRobot.mld");
+            MeldReader eager = new MeldReader(f);
+            MeldReader lazy = new MeldReader(f);
+            lazy.setLazyHeader(true);
+            Assert.assertEquals(eager.getFileMeta(), lazy.getFileMeta());
+            Assert.assertEquals(eager.getTables().keySet(), lazy.getTables().keySet());
+            for (ReconTable table : lazy.getTables().values()) {
+                ReconTable eagerTable = eager.findTable(table.getName());
+                Assert.assertEquals(eagerTable.getTableMeta(), table.getTableMeta());
+                // Read a signal before the signal names are requested
+                Assert.assertArrayEquals(eagerTable.getSignal("Time"), table.getSignal("Time"));
+                Assert.assertArrayEquals(eagerTable.getSignals(), table.getSignals());
+                for (String signal : table.getSignals()) {
+                    Assert.assertEquals(eagerTable.getSignalMeta(signal), table.getSignalMeta(signal));
+                }
+                Assert.assertTrue(table.getSignalMeta("Missing").isEmpty());
+            }
+            Assert.assertEquals("T2", lazy.findTableForSignal("Time").getName());
+            eager.close();
+            lazy.close();
+        } catch (ReconException | IOException ex) {
+            ex.printStackTrace();
+            Assert.fail(ex.getMessage());
+        }
+    }
+
+    private static RandomAccessResource countReads(final RandomAccessResource resource, final AtomicInteger reads) {
+        return new RandomAccessResource() {
+            @Override
+            public boolean canWrite() {
+                return false;
+            }
+
+            @Override
+            public int read(long location, byte[] bytes) throws IOException {
+                reads.incrementAndGet();
+                return resource.read(location, bytes);
+            }
+
+            @Override
+            public void write(long location, byte[] bytes) throws IOException {
+                resource.write(location, bytes);
+            }
+
+            @Override
+            public void close() throws IOException {
+                resource.close();
+            }
+        };
+    }
 }
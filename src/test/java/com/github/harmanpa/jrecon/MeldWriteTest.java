@@ -26,11 +26,16 @@ package com.github.harmanpa.jrecon;
 import com.github.harmanpa.jrecon.exceptions.ReconException;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.Arrays;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.junit.Assert;
+import org.msgpack.core.MessagePack;
+import org.msgpack.core.MessageUnpacker;
+import org.msgpack.value.Value;
+import org.msgpack.value.ValueFactory;
 import org.junit.Test;
 
 /**
@@ -90,4 +95,109 @@ public class MeldWriteTest {
             Assert.fail();
         }
     }
+
+    @Test
+    public void testPrimitiveArrays() {
+        try {
+            File f = File.createTempFile("test", ".mld");
+            try (MeldWriter meld = new MeldWriter(f)) {
+                ReconTable t = meld.addTable("T1", new String[]{"x", "f", "i", "l", "b", "d", "o"});
+                meld.finalizeDefinitions();
+                t.setSignal("x", new double[]{1.0, 2.0, 3.0});
+                t.setSignal("f", (Object[]) new Float[]{1.5f, 2.5f});
+                t.setSignal("i", 1, 2, 3);
+                t.setSignal("l", 4L, 5L);
+                t.setSignal("b", true, false);
+                t.setSignal("d", (Object[]) new Double[]{-1.0, 0.5});
+                t.setSignal("o", 1.0, 2, true, "a");
+                meld.flush();
+            }
+            MeldReader reader = new MeldReader(f);
+            ReconTable table = reader.findTable("T1");
+            Assert.assertArrayEquals(new Object[]{1.0, 2.0, 3.0}, table.getSignal("x"));
+            Assert.assertArrayEquals(new double[]{1.0, 2.0, 3.0}, table.getDoubleSignal("x"), 0.0);
+            Assert.assertArrayEquals(new Object[]{1.5, 2.5}, table.getSignal("f"));
+            Assert.assertArrayEquals(new Object[]{1, 2, 3}, table.getSignal("i"));
+            Assert.assertArrayEquals(new Object[]{4, 5}, table.getSignal("l"));
+            Assert.assertArrayEquals(new Object[]{true, false}, table.getSignal("b"));
+            Assert.assertArrayEquals(new Object[]{-1.0, 0.5}, table.getSignal("d"));
+            Assert.assertArrayEquals(new Object[]{1.0, 2, true, "a"}, table.getSignal("o"));
+            reader.close();
+        } catch (ReconException | IOException ex) {
+            ex.printStackTrace();
+            Assert.fail(ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testAliasChains() {
+        try {
+            File f = File.createTempFile("test", ".mld");
+            MeldWriter writer = new MeldWriter(f);
+            ReconTable t = writer.addTable("T1", new String[]{"x", "b"});
+            t.addAlias("nx", "x", "inv");
+            t.addAlias("nnx", "nx", "inv");
+            t.addAlias("snx", "nx", "aff(2,1)");
+            t.addAlias("ssnx", "snx", "aff(0.5,-0.25)");
+            t.addAlias("nb", "b", "inv");
+            t.addAlias("nnb", "nb", "inv");
+            writer.finalizeDefinitions();
+            t.setSignal("x", new double[]{1, 2});
+            t.setSignal("b", true, false);
+            writer.close();
+            MeldReader reader = new MeldReader(f);
+            MeldReader.MeldTableReader table = (MeldReader.MeldTableReader) reader.findTable("T1");
+            // Transforms along a chain compose
+            Assert.assertArrayEquals(new double[]{-1, -2}, table.getDoubleSignal("nx"), 0.0);
+            Assert.assertArrayEquals(new double[]{1, 2}, table.getDoubleSignal("nnx"), 0.0);
+            Assert.assertArrayEquals(new double[]{-1, -3}, table.getDoubleSignal("snx"), 0.0);
+            Assert.assertArrayEquals(new double[]{-0.75, -1.75}, table.getDoubleSignal("ssnx"), 0.0);
+            Assert.assertArrayEquals(new Object[]{true, false}, table.getSignal("nnb"));
+            Assert.assertEquals(table.getSignalOffsetLength("x"), table.getSignalOffsetLength("ssnx"));
+            Assert.assertEquals("", table.getSignalTransform("nnx"));
+            // Alias entries keep the format older readers expect
+            try (MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(Files.readAllBytes(f.toPath()), 18, (int) f.length() - 18)) {
+                Map<Value, Value> header = unpacker.unpackValue().asMapValue().map();
+                Map<Value, Value> tables = header.get(ValueFactory.newString("tabs")).asMapValue().map();
+                Map<Value, Value> toff = tables.get(ValueFactory.newString("T1")).asMapValue().map()
+                        .get(ValueFactory.newString("toff")).asMapValue().map();
+                for (Value entry : toff.values()) {
+                    Assert.assertEquals(3, entry.asMapValue().size());
+                }
+            }
+            reader.close();
+        } catch (ReconException | IOException ex) {
+            ex.printStackTrace();
+            Assert.fail(ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testExtractTransformedAliases() {
+        try {
+            File f = File.createTempFile("test", ".mld");
+            MeldWriter writer = new MeldWriter(f);
+            ReconTable t = writer.addTable("T1", new String[]{"x"});
+            t.addAlias("nx", "x", "inv");
+            t.addAlias("snx", "nx", "aff(2,1)");
+            writer.finalizeDefinitions();
+            t.setSignal("x", new double[]{1, 2});
+            writer.close();
+            // With and without an untransformed signal to alias
+            File all = File.createTempFile("test", ".mld");
+            Meld.meld2meld(new MeldReader(f), new MeldWriter(all), (String tab, String signal) -> true);
+            File some = File.createTempFile("test", ".mld");
+            Meld.meld2meld(new MeldReader(f), new MeldWriter(some), (String tab, String signal) -> !"x".equals(signal));
+            for (File e : new File[]{all, some}) {
+                MeldReader extracted = new MeldReader(e);
+                ReconTable table = extracted.findTable("T1");
+                Assert.assertArrayEquals(new double[]{-1, -2}, table.getDoubleSignal("nx"), 0.0);
+                Assert.assertArrayEquals(new double[]{-1, -3}, table.getDoubleSignal("snx"), 0.0);
+                extracted.close();
+            }
+        } catch (ReconException | IOException ex) {
+            ex.printStackTrace();
+            Assert.fail(ex.getMessage());
+        }
+    }
 }
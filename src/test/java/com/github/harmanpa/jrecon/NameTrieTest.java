@@ -0,0 +1,94 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 CyDesign Limited
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.harmanpa.jrecon;
+
+import com.github.harmanpa.jrecon.exceptions.ReconException;
+import com.github.harmanpa.jrecon.utils.NameTrie;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author pete
+ */
+public class NameTrieTest {
+
+    @Test
+    public void test() {
+        NameTrie trie = new NameTrie("a.b.c", "a.b", "a.x[1].c", "b.c", "a.b.d", "a.b.c");
+        Assert.assertEquals(5, trie.size());
+        Assert.assertEquals(Arrays.asList("a.b.c", "a.b", "a.x[1].c", "b.c", "a.b.d"), trie.getNames());
+        Assert.assertTrue(trie.contains("a.b"));
+        Assert.assertFalse(trie.contains("a"));
+        Assert.assertEquals(4, trie.indexOf("a.b.d"));
+        Assert.assertEquals(-1, trie.indexOf("a.bb"));
+        Assert.assertEquals(-1, trie.indexOf("a.b."));
+        Assert.assertEquals("a.x[1].c", trie.getName(2));
+        Assert.assertEquals(Arrays.asList("a", "b"), trie.getChildren(""));
+        Assert.assertEquals(Arrays.asList("b", "x[1]"), trie.getChildren("a"));
+        Assert.assertEquals(Arrays.asList("a.b.c", "a.b", "a.b.d"), trie.subtree("a.b"));
+        Assert.assertEquals(Arrays.asList("a.b.c", "a.b", "a.b.d"), trie.glob("a.b.**"));
+        Assert.assertEquals(Arrays.asList("a.b.c", "a.b.d"), trie.glob("a.b.*"));
+        Assert.assertEquals(Arrays.asList("a.b.c", "a.x[1].c", "b.c"), trie.glob("**.c"));
+        Assert.assertEquals(Arrays.asList("a.x[1].c"), trie.glob("a.x[?].c"));
+        Assert.assertEquals(Arrays.asList("a.b.c", "a.b.d"), trie.matching(Pattern.compile("a\\.b\\..")));
+        Assert.assertTrue(trie.glob("c.**").isEmpty());
+    }
+
+    @Test
+    public void testMeld() {
+        try {
+            File f = new File(new File(System.getProperty("user.dir")), "src/test/resources/samples/fullRobot.mld");
+            MeldReader reader = new MeldReader(f);
+            ReconTable table = reader.findTable("T2");
+            NameTrie trie = table.getSignalTree();
+            Assert.assertEquals(Arrays.asList(table.getSignals()), trie.getNames());
+            // Tables index their signals by the same tree
+            Assert.assertSame(trie, table.getSignalTree());
+            for (int i = 0; i < table.getSignals().length; i++) {
+                Assert.assertEquals(i, trie.indexOf(table.getSignals()[i]));
+                Assert.assertEquals(table.getSignals()[i], trie.getName(i));
+            }
+            List<String> expected = new ArrayList<>();
+            for (String signal : table.getSignals()) {
+                if (signal.startsWith("axis1.gear.")) {
+                    expected.add(signal);
+                }
+            }
+            Assert.assertFalse(expected.isEmpty());
+            Assert.assertEquals(expected, table.findSignals("axis1.gear.**"));
+            Assert.assertEquals(expected, trie.subtree("axis1.gear"));
+            reader.close();
+        } catch (ReconException | IOException ex) {
+            ex.printStackTrace();
+            Assert.fail(ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 CyDesign Limited
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.harmanpa.jrecon;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A local HTTP server which serves a single file and supports byte range
+ * requests, answering multi-range requests with multipart/byteranges unless
+ * that is switched off, for testing and benchmarking remote reads. A latency
+ * may be added to every response and the bandwidth of each response capped
+ * to simulate a distant server.
+ *
+ * @author pete
+ */
+public class RangeServer implements AutoCloseable {
+
+    private volatile byte[] data;
+    private volatile String etag;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final AtomicInteger requests = new AtomicInteger();
+    private final Set<InetSocketAddress> connections = ConcurrentHashMap.newKeySet();
+    private volatile boolean multiRange = true;
+    private volatile int delayedRequest = -1;
+    private volatile long delay;
+    private volatile int failedRequest = -1;
+    private volatile long latency;
+    private volatile long bandwidth;
+    private final AtomicLong bytesSent = new AtomicLong();
+
+    static {
+        // Avoid Nagle's algorithm delaying small responses, as a real server would
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    public RangeServer(File file) throws IOException {
+        setData(Files.readAllBytes(file.toPath()));
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        this.server.createContext("/", this::handle);
+        this.server.setExecutor(executor);
+        this.server.start();
+    }
+
+    public URI getUri() throws URISyntaxException {
+        return new URI("http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/data");
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * Replaces the data served, changing its ETag
+     *
+     * @param data
+     */
+    public void setData(byte[] data) {
+        this.etag = "\"" + Arrays.hashCode(data) + "-" + data.length + "\"";
+        this.data = data;
+    }
+
+    public String getETag() {
+        return etag;
+    }
+
+    public int getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * Sets whether multi-range requests are answered with all ranges, or like
+     * servers without support, with only the first
+     *
+     * @param multiRange
+     */
+    public void setMultiRange(boolean multiRange) {
+        this.multiRange = multiRange;
+    }
+
+    /**
+     * Sets a delay before every response
+     *
+     * @param millis
+     */
+    public void setLatency(long millis) {
+        this.latency = millis;
+    }
+
+    /**
+     * Caps the rate at which each response body is sent, or zero for no cap
+     *
+     * @param bytesPerSecond
+     */
+    public void setBandwidth(long bytesPerSecond) {
+        this.bandwidth = bytesPerSecond;
+    }
+
+    /**
+     * Returns the number of response body bytes sent
+     *
+     * @return
+     */
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    /**
+     * Resets the request, connection and byte counts
+     */
+    public void resetStatistics() {
+        requests.set(0);
+        connections.clear();
+        bytesSent.set(0);
+    }
+
+    /**
+     * Delays the response to one request, numbered from 1
+     *
+     * @param request
+     * @param millis
+     */
+    public void delayRequest(int request, long millis) {
+        this.delay = millis;
+        this.delayedRequest = request;
+    }
+
+    /**
+     * Answers one request, numbered from 1, with a server error
+     *
+     * @param request
+     */
+    public void failRequest(int request) {
+        this.failedRequest = request;
+    }
+
+    /**
+     * Returns the number of distinct client connections seen
+     *
+     * @return
+     */
+    public int getConnections() {
+        return connections.size();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        int request = requests.incrementAndGet();
+        connections.add(exchange.getRemoteAddress());
+        try {
+            try {
+                Thread.sleep(request == delayedRequest ? latency + delay : latency);
+            } catch (InterruptedException ex) {
+                return;
+            }
+            if (request == failedRequest) {
+                exchange.sendResponseHeaders(500, -1);
+                return;
+            }
+            byte[] data = this.data;
+            exchange.getResponseHeaders().add("ETag", getETag());
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                if (getETag().equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    exchange.sendResponseHeaders(304, -1);
+                } else {
+                    exchange.sendResponseHeaders(200, -1);
+                }
+                return;
+            }
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            if (range == null || !range.startsWith("bytes=")) {
+                exchange.sendResponseHeaders(200, data.length);
+                send(exchange, data, 0, data.length);
+                return;
+            }
+            String[] ranges = range.substring(6).split(",");
+            if (ranges.length > 1 && multiRange) {
+                String boundary = "RANGE_BOUNDARY";
+                ByteArrayOutputStream body = new ByteArrayOutputStream();
+                for (String r : ranges) {
+                    long[] bounds = parseRange(r);
+                    body.write(("\r\n--" + boundary + "\r\nContent-Type: application/octet-stream\r\nContent-Range: bytes "
+                            + bounds[0] + "-" + bounds[1] + "/" + data.length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                    body.write(data, (int) bounds[0], (int) (bounds[1] - bounds[0] + 1));
+                }
+                body.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+                exchange.getResponseHeaders().add("Content-Type", "multipart/byteranges; boundary=" + boundary);
+                exchange.sendResponseHeaders(206, body.size());
+                send(exchange, body.toByteArray(), 0, body.size());
+                return;
+            }
+            long[] bounds = parseRange(ranges[0]);
+            if (bounds[0] >= data.length) {
+                exchange.getResponseHeaders().add("Content-Range", "bytes */" + data.length);
+                exchange.sendResponseHeaders(416, -1);
+                return;
+            }
+            exchange.getResponseHeaders().add("Content-Range", "bytes " + bounds[0] + "-" + bounds[1] + "/" + data.length);
+            exchange.sendResponseHeaders(206, bounds[1] - bounds[0] + 1);
+            send(exchange, data, (int) bounds[0], (int) (bounds[1] - bounds[0] + 1));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void send(HttpExchange exchange, byte[] bytes, int offset, int length) throws IOException {
+        long start = System.nanoTime();
+        try (OutputStream out = exchange.getResponseBody()) {
+            for (int sent = 0; sent < length;) {
+                int n = Math.min(16 * 1024, length - sent);
+                bytesSent.addAndGet(n);
+                out.write(bytes, offset + sent, n);
+                sent += n;
+                long rate = bandwidth;
+                if (rate > 0) {
+                    long due = start + sent * 1000000000L / rate;
+                    long wait = due - System.nanoTime();
+                    if (wait > 0) {
+                        try {
+                            Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+                        } catch (InterruptedException ex) {
+                            return;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private long[] parseRange(String range) {
+        String[] bounds = range.trim().split("-");
+        return new long[]{Long.parseLong(bounds[0]), Math.min(data.length - 1, Long.parseLong(bounds[1]))};
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
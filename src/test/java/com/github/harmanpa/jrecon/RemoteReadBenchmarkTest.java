@@ -0,0 +1,155 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 CyDesign Limited
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.harmanpa.jrecon;
+
+import com.github.harmanpa.jrecon.io.DiskCache;
+import com.github.harmanpa.jrecon.io.DiskCachedRandomAccessResource;
+import com.github.harmanpa.jrecon.io.HttpRandomAccessResource;
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Measures remote reads of a meld against a local server with simulated
+ * latency and bandwidth, reporting time, requests and bytes transferred for
+ * each way of reading.
+ *
+ * @author pete
+ */
+public class RemoteReadBenchmarkTest {
+
+    private static final long LATENCY = 10;
+    private static final long BANDWIDTH = 20 * 1024 * 1024;
+
+    @Test
+    public void benchmark() throws Exception {
+        File f = new File(new File(System.getProperty("user.dir")), "src/test/resources/samples/fullRobot.mld");
+        Path directory = Files.createTempDirectory("cache");
+        try (RangeServer server = new RangeServer(f)) {
+            server.setLatency(LATENCY);
+            server.setBandwidth(BANDWIDTH);
+            MeldReader local = new MeldReader(f);
+            List<String> signals = new ArrayList<>();
+            for (int i = 0; i < 1000; i += 10) {
+                signals.add(local.findTable("T2").getSignals()[i]);
+            }
+            local.close();
+            // Warm up the client and server before measuring
+            try (MeldReader reader = new MeldReader(new HttpRandomAccessResource(server.getUri()))) {
+                reader.findTable("T2").getSignals(signals);
+            }
+            System.out.println(String.format("%-40s %10s %10s %12s", "Benchmark", "ms", "requests", "bytes"));
+
+            measure(server, "Time to first signal", () -> {
+                try (MeldReader reader = new MeldReader(new HttpRandomAccessResource(server.getUri()))) {
+                    reader.findTable("T2").getSignal("Time");
+                }
+            });
+            measure(server, "Time to first signal, no prefetch", () -> {
+                try (MeldReader reader = new MeldReader(new HttpRandomAccessResource(server.getUri()))) {
+                    reader.setHeaderPrefetch(0);
+                    reader.findTable("T2").getSignal("Time");
+                }
+            });
+            MeldReader reader = new MeldReader(new HttpRandomAccessResource(server.getUri()));
+            reader.getTables();
+            ReconTable table = reader.findTable("T2");
+            Result sequential = measure(server, signals.size() + " signals, one at a time", () -> {
+                for (String signal : signals) {
+                    table.getSignal(signal);
+                }
+            });
+            reader.setCoalesceGap(0);
+            Result multi = measure(server, signals.size() + " signals, multi-range", () -> {
+                Map<String, Object[]> data = table.getSignals(signals);
+                Assert.assertEquals(signals.size(), data.size());
+            });
+            ((HttpRandomAccessResource) reader.getResource()).setMultiRange(false);
+            reader.setCoalesceGap(64 * 1024);
+            measure(server, signals.size() + " signals, coalesced ranges", () -> {
+                table.getSignals(signals);
+            });
+            reader.close();
+            Assert.assertTrue(multi.requests < sequential.requests);
+
+            for (int parallelism : new int[]{1, 4}) {
+                HttpRandomAccessResource resource = new HttpRandomAccessResource(server.getUri());
+                resource.setParallelism(parallelism);
+                resource.setMinimumChunkSize(256 * 1024);
+                measure(server, "2 MB read, parallelism " + parallelism, () -> {
+                    Assert.assertEquals(2 * 1024 * 1024, resource.read(0, new byte[2 * 1024 * 1024]));
+                });
+                resource.close();
+            }
+
+            DiskCache cache = new DiskCache(directory.toFile(), 64 * 1024 * 1024);
+            for (String run : new String[]{"cold", "warm"}) {
+                Result result = measure(server, "Disk cached, " + run, () -> {
+                    try (MeldReader cached = new MeldReader(new DiskCachedRandomAccessResource(new HttpRandomAccessResource(server.getUri()), cache))) {
+                        cached.findTable("T2").getSignals(signals);
+                    }
+                });
+                if ("warm".equals(run)) {
+                    Assert.assertEquals(0, result.bytes);
+                }
+            }
+        } finally {
+            MoreFiles.deleteRecursively(directory, RecursiveDeleteOption.ALLOW_INSECURE);
+        }
+    }
+
+    private static Result measure(RangeServer server, String name, Benchmark benchmark) throws Exception {
+        server.resetStatistics();
+        long start = System.nanoTime();
+        benchmark.run();
+        Result result = new Result((System.nanoTime() - start) / 1000000, server.getRequests(), server.getBytesSent());
+        System.out.println(String.format("%-40s %10d %10d %12d", name, result.millis, result.requests, result.bytes));
+        return result;
+    }
+
+    private interface Benchmark {
+
+        void run() throws Exception;
+    }
+
+    private static class Result {
+
+        private final long millis;
+        private final int requests;
+        private final long bytes;
+
+        Result(long millis, int requests, long bytes) {
+            this.millis = millis;
+            this.requests = requests;
+            this.bytes = bytes;
+        }
+    }
+}
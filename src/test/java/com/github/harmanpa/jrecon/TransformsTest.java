@@ -0,0 +1,105 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2014 CyDesign Limited
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.github.harmanpa.jrecon;
+
+import com.github.harmanpa.jrecon.exceptions.ReconException;
+import com.github.harmanpa.jrecon.utils.Transforms;
+import java.util.Locale;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author pete
+ */
+public class TransformsTest {
+
+    @Test
+    public void test() throws ReconException {
+        Transforms.Transform aff = Transforms.compile("aff(2,1)");
+        Assert.assertSame(aff, Transforms.compile("aff(2,1)"));
+        Assert.assertTrue(Transforms.compile("").isIdentity());
+        Assert.assertTrue(Transforms.compile(null).isIdentity());
+        Assert.assertEquals(Double.valueOf(7.0), aff.apply(3.0));
+        Assert.assertEquals(Integer.valueOf(7), aff.apply(3));
+        Assert.assertEquals(7.0, aff.toDoubleOperator().applyAsDouble(3.0), 0.0);
+        Assert.assertEquals(7, aff.toIntOperator().applyAsInt(3));
+        double[] d = {0.0, 1.5};
+        aff.applyInPlace(d);
+        Assert.assertArrayEquals(new double[]{1.0, 4.0}, d, 0.0);
+        Transforms.Transform inv = Transforms.compile("inv");
+        Assert.assertTrue(inv.andThen(inv).isIdentity());
+        Assert.assertSame(aff, Transforms.Transform.IDENTITY.andThen(aff));
+        Assert.assertEquals("aff(-2,1)", inv.andThen(aff).toString());
+        Assert.assertEquals("aff(-2,-1)", aff.andThen(inv).toString());
+        Assert.assertEquals("aff(4,3)", aff.andThen(aff).toString());
+        Assert.assertEquals(Boolean.FALSE, inv.apply(Boolean.TRUE));
+        Object[] o = {1.0, 2, true};
+        Assert.assertArrayEquals(new Object[]{-1.0, -2, false}, inv.applyInPlace(o));
+        Double[] boxed = {1.0, 2.0};
+        Assert.assertArrayEquals(new Double[]{3.0, 5.0}, Transforms.applyArray(Double.class, boxed, "aff(2,1)"));
+        Assert.assertArrayEquals(new Double[]{1.0, 2.0}, boxed);
+    }
+
+    @Test
+    public void testComposeBooleans() throws ReconException {
+        Transforms.Transform inv = Transforms.compile("inv");
+        // Inversions survive composition with transforms leaving values unchanged
+        Assert.assertEquals(Boolean.FALSE, inv.andThen(Transforms.compile("aff(1,0)")).apply(Boolean.TRUE));
+        Assert.assertEquals(Boolean.FALSE, Transforms.compile("aff(1,0)").andThen(inv).apply(Boolean.TRUE));
+        try {
+            inv.andThen(Transforms.compile("aff(2,0)")).apply(Boolean.TRUE);
+            Assert.fail("Expected affine transform of a boolean to be rejected");
+        } catch (ReconException ex) {
+        }
+    }
+
+    @Test
+    public void testComposeLocale() throws ReconException {
+        Locale locale = Locale.getDefault();
+        try {
+            Locale.setDefault(Locale.GERMANY);
+            Transforms.Transform composed = Transforms.compile("aff(0.25,0)").andThen(Transforms.compile("aff(2,0.5)"));
+            Assert.assertEquals("aff(0.5,0.5)", composed.toString());
+            Assert.assertEquals(Double.valueOf(1.5), composed.apply(2.0));
+            Assert.assertEquals(Double.valueOf(1.5), Transforms.compile("aff(0.5,0.5)").apply(2.0));
+        } finally {
+            Locale.setDefault(locale);
+        }
+    }
+
+    @Test
+    public void testUnsupported() {
+        try {
+            Transforms.compile("log");
+            Assert.fail("Expected unsupported transform to be rejected");
+        } catch (ReconException ex) {
+        }
+        try {
+            Transforms.compile("aff(2,1)").apply(Boolean.TRUE);
+            Assert.fail("Expected affine transform of a boolean to be rejected");
+        } catch (ReconException ex) {
+        }
+    }
+}
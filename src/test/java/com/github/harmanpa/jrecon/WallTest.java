@@ -129,4 +129,81 @@ public class WallTest {
             Assert.fail();
         }
     }
+
+    @Test
+    public void testAliases() {
+        try {
+            File f = File.createTempFile("test", ".wll");
+            WallWriter wall = new WallWriter(f);
+            ReconTable t = wall.addTable("T1", new String[]{"time", "x"});
+            t.addAlias("a", "x");
+            t.addAlias("nx", "x", "inv");
+            ReconTable t2 = wall.addTable("T2", new String[]{"time", "y"});
+            wall.finalizeDefinitions();
+            t.addRow(0.0, 1.0);
+            t.addRow(1.0, 2.0);
+            t2.addRow(0.0, 3.0);
+            wall.close();
+
+            WallReader reader = new WallReader(f);
+            ReconTable table = reader.findTableForSignal("nx");
+            Assert.assertEquals("T1", table.getName());
+            Assert.assertArrayEquals(new Object[]{1.0, 2.0}, table.getSignal("a"));
+            Assert.assertArrayEquals(new Object[]{-1.0, -2.0}, table.getSignal("nx"));
+            Assert.assertArrayEquals(new Double[]{-1.0, -2.0}, table.getSignal("nx", Double.class));
+            Assert.assertEquals("T1", reader.findTableForSignal("time").getName());
+            Assert.assertEquals("T2", reader.findTableForSignal("y").getName());
+            Assert.assertNull(reader.findTableForSignal("z"));
+            SignalIndex.Entry entry = reader.getSignalIndex().get("nx");
+            Assert.assertEquals(1, entry.getColumn());
+            Assert.assertEquals("inv", entry.getTransform());
+            reader.close();
+        } catch (ReconException | IOException ex) {
+            ex.printStackTrace();
+            Assert.fail(ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testAliasesToMeld() {
+        try {
+            File f = File.createTempFile("test", ".wll");
+            WallWriter wall = new WallWriter(f);
+            ReconTable t = wall.addTable("T1", new String[]{"time", "x"});
+            t.addAlias("a", "x");
+            t.addAlias("nx", "x", "inv");
+            t.addAlias("sx", "x", "aff(2,1)");
+            wall.finalizeDefinitions();
+            t.addRow(0.0, 1.0);
+            t.addRow(1.0, 2.0);
+            wall.close();
+
+            File m = File.createTempFile("test", ".mld");
+            Meld.wall2meld(new WallReader(f), new MeldWriter(m));
+            MeldReader reader = new MeldReader(m);
+            MeldReader.MeldTableReader table = (MeldReader.MeldTableReader) reader.findTable("T1");
+            Assert.assertArrayEquals(new Object[]{1.0, 2.0}, table.getSignal("a"));
+            Assert.assertArrayEquals(new Object[]{-1.0, -2.0}, table.getSignal("nx"));
+            Assert.assertArrayEquals(new Object[]{3.0, 5.0}, table.getSignal("sx"));
+            // Aliases refer to the data of their base signal rather than copies
+            Assert.assertEquals(table.getSignalOffsetLength("x"), table.getSignalOffsetLength("nx"));
+            Assert.assertEquals(table.getSignalOffsetLength("x"), table.getSignalOffsetLength("sx"));
+            Map<String, Double[]> data = table.getSignals(Arrays.asList("x", "nx", "sx"), Double.class);
+            Assert.assertArrayEquals(new Double[]{1.0, 2.0}, data.get("x"));
+            Assert.assertArrayEquals(new Double[]{-1.0, -2.0}, data.get("nx"));
+            Assert.assertArrayEquals(new Double[]{3.0, 5.0}, data.get("sx"));
+
+            // Extracting an alias without its base copies the base data
+            File e = File.createTempFile("extract", ".mld");
+            Meld.meld2meld(reader, new MeldWriter(e), (String tab, String signal) -> !"x".equals(signal));
+            MeldReader extracted = new MeldReader(e);
+            ReconTable extractedTable = extracted.findTable("T1");
+            Assert.assertArrayEquals(new Object[]{-1.0, -2.0}, extractedTable.getSignal("nx"));
+            Assert.assertArrayEquals(new Object[]{3.0, 5.0}, extractedTable.getSignal("sx"));
+            extracted.close();
+        } catch (ReconException | IOException ex) {
+            ex.printStackTrace();
+            Assert.fail(ex.getMessage());
+        }
+    }
 }